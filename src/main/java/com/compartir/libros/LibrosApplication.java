@@ -2,6 +2,8 @@ package com.compartir.libros;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Clase principal de la aplicación Leer es Compartir.
@@ -13,6 +15,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  * @author Sergio
  */
 @SpringBootApplication
+@EnableAsync
+@EnableScheduling
 public class LibrosApplication {
 
 	/**
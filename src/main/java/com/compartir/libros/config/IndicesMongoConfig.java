@@ -0,0 +1,179 @@
+package com.compartir.libros.config;
+
+import java.util.Set;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import com.compartir.libros.model.CorreoPendiente;
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.LibroCatalogo;
+import com.compartir.libros.model.ReservaArchivada;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.service.VariantesImagenes;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Crea los índices que necesitan las consultas de catálogo.
+ * Se ejecuta en segundo plano al arrancar la aplicación para que la ausencia
+ * de MongoDB no impida el arranque; los fallos se registran y se reintentan
+ * en el siguiente arranque.
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndicesMongoConfig {
+
+    private static final Set<String> INDICES_CATALOGO_OBSOLETOS = Set.of("posicion", "estado_posicion",
+            "tematicas_estado_posicion", "region_estado_posicion", "region_tematicas_estado_posicion");
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Asegura la existencia de los índices sobre las colecciones de usuarios,
+     * de libros, de reservas archivadas, del catálogo de libros, de las
+     * variantes de imágenes y del buzón de correo.
+     * La creación de un índice ya existente no tiene efecto.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void crearIndices() {
+        try {
+            IndexOperations usuarios = mongoTemplate.indexOps(Usuario.class);
+            usuarios.ensureIndex(new Index().on("email", Sort.Direction.ASC).named("email"));
+            usuarios.ensureIndex(new Index()
+                    .on("region.pais", Sort.Direction.ASC)
+                    .on("region.provincia", Sort.Direction.ASC)
+                    .on("region.ciudad", Sort.Direction.ASC)
+                    .named("region"));
+            IndexOperations libros = mongoTemplate.indexOps(Libro.class);
+            libros.ensureIndex(new Index()
+                    .on("usuarioId", Sort.Direction.ASC)
+                    .on("_id", Sort.Direction.ASC)
+                    .named("propietario"));
+            libros.ensureIndex(new Index()
+                    .on("usuarioId", Sort.Direction.ASC)
+                    .on("titulo", Sort.Direction.ASC)
+                    .named("propietario_titulo"));
+            libros.ensureIndex(new Index().on("reservas.emailUsuario", Sort.Direction.ASC).named("reservas_email"));
+            libros.ensureIndex(new Index().on("reservas.fechaDevolucion", Sort.Direction.ASC).named("reservas_devolucion"));
+            IndexOperations archivadas = mongoTemplate.indexOps(ReservaArchivada.class);
+            archivadas.ensureIndex(new Index()
+                    .on("libroId", Sort.Direction.ASC)
+                    .on("emailUsuario", Sort.Direction.ASC)
+                    .on("fechaReserva", Sort.Direction.ASC)
+                    .unique()
+                    .named("reserva"));
+            archivadas.ensureIndex(new Index()
+                    .on("libroId", Sort.Direction.ASC)
+                    .on("_id", Sort.Direction.ASC)
+                    .named("libro_orden"));
+            crearIndicesCatalogo(mongoTemplate.getCollectionName(LibroCatalogo.class));
+            mongoTemplate.indexOps(VariantesImagenes.COLECCION_ARCHIVOS).ensureIndex(new Index()
+                    .on("metadata.original", Sort.Direction.ASC)
+                    .on("metadata.variante", Sort.Direction.ASC)
+                    .named("variante"));
+            mongoTemplate.indexOps(VariantesImagenes.COLECCION_ARCHIVOS).ensureIndex(new Index()
+                    .on("metadata.sha256", Sort.Direction.ASC)
+                    .named("contenido"));
+            mongoTemplate.indexOps(CorreoPendiente.class).ensureIndex(new Index()
+                    .on("estado", Sort.Direction.ASC)
+                    .on("siguienteIntento", Sort.Direction.ASC)
+                    .named("estado_siguiente_intento"));
+            log.info("Índices de MongoDB verificados");
+        } catch (Exception e) {
+            log.error("No se pudieron crear los índices de MongoDB", e);
+        }
+    }
+
+    /**
+     * Crea los índices del catálogo de libros sobre la colección indicada, que
+     * puede ser la del catálogo o una colección auxiliar de reconstrucción.
+     * Los índices compuestos tienen los campos filtrados por igualdad seguidos
+     * del id del libro, el orden de paginación. El filtro de catálogo siempre
+     * incluye el estado (todos, con $in, si no se indica uno), que MongoDB
+     * resuelve uniendo en orden los tramos de cada estado, y la región se
+     * filtra por país, país y provincia, o país, provincia y ciudad; hay un
+     * índice para cada nivel de región, con y sin temática, así que todas las
+     * combinaciones de filtros se resuelven y ordenan desde un índice. Elimina
+     * antes los índices del formato anterior, que terminaban en la posición
+     * del libro dentro de su propietario.
+     *
+     * @param coleccion Nombre de la colección
+     */
+    public void crearIndicesCatalogo(String coleccion) {
+        IndexOperations catalogo = mongoTemplate.indexOps(coleccion);
+        catalogo.getIndexInfo().stream()
+                .map(IndexInfo::getName)
+                .filter(INDICES_CATALOGO_OBSOLETOS::contains)
+                .forEach(catalogo::dropIndex);
+        catalogo.ensureIndex(new Index().on("usuarioId", Sort.Direction.ASC).named("propietario"));
+        catalogo.ensureIndex(new Index()
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("tematicas", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("tematicas_estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("paisUsuario", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("pais_estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("paisUsuario", Sort.Direction.ASC)
+                .on("provinciaUsuario", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("provincia_estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("paisUsuario", Sort.Direction.ASC)
+                .on("provinciaUsuario", Sort.Direction.ASC)
+                .on("ciudadUsuario", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("region_estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("paisUsuario", Sort.Direction.ASC)
+                .on("tematicas", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("pais_tematicas_estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("paisUsuario", Sort.Direction.ASC)
+                .on("provinciaUsuario", Sort.Direction.ASC)
+                .on("tematicas", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("provincia_tematicas_estado_orden"));
+        catalogo.ensureIndex(new Index()
+                .on("paisUsuario", Sort.Direction.ASC)
+                .on("provinciaUsuario", Sort.Direction.ASC)
+                .on("ciudadUsuario", Sort.Direction.ASC)
+                .on("tematicas", Sort.Direction.ASC)
+                .on("estado", Sort.Direction.ASC)
+                .on("_id", Sort.Direction.ASC)
+                .named("region_tematicas_estado_orden"));
+        catalogo.ensureIndex(TextIndexDefinition.builder()
+                .onField("titulo", 10F)
+                .onField("autor", 5F)
+                .onField("descripcion", 1F)
+                .withDefaultLanguage("spanish")
+                .named("texto")
+                .build());
+    }
+}
@@ -0,0 +1,82 @@
+package com.compartir.libros.controller;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.compartir.libros.service.AlmacenImagenes;
+import com.compartir.libros.service.VariantesImagenes;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Controlador REST que sirve las imágenes guardadas (fotos de perfil y
+ * portadas) en sus distintos tamaños. Las respuestas se transmiten desde GridFS sin cargarlas en
+ * memoria y admiten peticiones condicionales ({@code If-None-Match}) y por
+ * rangos ({@code Range}). Todas llevan {@code X-Content-Type-Options: nosniff}
+ * y una política de contenido que impide ejecutar scripts; un archivo guardado
+ * con un tipo que no es de imagen admitido se sirve como descarga.
+ *
+ * @author Sergio
+ */
+@RestController
+@RequestMapping("/api/imagenes")
+@RequiredArgsConstructor
+public class ImagenController {
+    private final AlmacenImagenes almacenImagenes;
+
+    private static final String POLITICA_CONTENIDO = "default-src 'none'; sandbox";
+
+    @Value("${libros.imagenes.cache-duracion:365d}")
+    private Duration cacheDuracion;
+
+    /**
+     * Obtiene una imagen en el tamaño pedido. Como un archivo guardado no
+     * cambia nunca, su id sirve de ETag y puede guardarse en caché sin
+     * revalidarlo; mientras la variante pedida no está generada se sirve el
+     * original y el cliente debe revalidarlo.
+     *
+     * @param id Id de la imagen
+     * @param tamano miniatura, mediana u original (por defecto)
+     * @return Contenido de la imagen, 400 si el tamaño no es válido o 404 si no existe
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<Resource> obtenerImagen(
+            @PathVariable String id,
+            @RequestParam(defaultValue = VariantesImagenes.ORIGINAL) String tamano) {
+        if (!VariantesImagenes.esTamano(tamano)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return almacenImagenes.obtener(id, tamano)
+                .<ResponseEntity<Resource>>map(imagen -> {
+                    ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok()
+                            .eTag(imagen.getId())
+                            .lastModified(imagen.lastModified())
+                            .cacheControl(imagen.isDefinitiva()
+                                    ? CacheControl.maxAge(cacheDuracion).cachePublic().immutable()
+                                    : CacheControl.noCache().cachePublic())
+                            .header("X-Content-Type-Options", "nosniff")
+                            .header("Content-Security-Policy", POLITICA_CONTENIDO);
+                    // Imágenes guardadas antes de validar el tipo, como SVG: nunca se muestran en línea
+                    if (!AlmacenImagenes.TIPOS_PERMITIDOS.contains(imagen.getContentType())) {
+                        return respuesta.contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                .header(HttpHeaders.CONTENT_DISPOSITION,
+                                        ContentDisposition.attachment().filename("imagen").build().toString())
+                                .body(imagen);
+                    }
+                    return respuesta.contentType(MediaType.parseMediaType(imagen.getContentType())).body(imagen);
+                })
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
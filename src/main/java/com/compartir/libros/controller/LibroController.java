@@ -2,21 +2,29 @@ package com.compartir.libros.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.compartir.libros.dto.PaginaDTO;
 import com.compartir.libros.dto.libro.CambioEstadoRequest;
+import com.compartir.libros.dto.libro.FacetasDTO;
 import com.compartir.libros.dto.libro.LibroDTO;
 import com.compartir.libros.dto.libro.LibroPrestamoDTO;
 import com.compartir.libros.dto.libro.LibroRequestDTO;
-import com.compartir.libros.dto.libro.LibroReservaRequestDTO;
 import com.compartir.libros.dto.libro.LibroResponseDTO;
+import com.compartir.libros.dto.libro.SugerenciaDTO;
+import com.compartir.libros.model.Reserva;
 import com.compartir.libros.service.LibroService;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import jakarta.validation.Valid;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Controlador REST para gestionar las operaciones relacionadas con los libros.
@@ -28,7 +36,10 @@ import java.util.List;
 @RequestMapping("/api/libros")
 @RequiredArgsConstructor
 public class LibroController {
+    private static final String NDJSON = "application/x-ndjson";
+
     private final LibroService libroService;
+    private final ObjectMapper objectMapper;
 
     /**
      * Obtiene la lista de libros del usuario autenticado.
@@ -57,28 +68,28 @@ public class LibroController {
      * Actualiza un libro existente del usuario autenticado.
      *
      * @param authentication Información de autenticación del usuario
-     * @param indice Índice del libro a actualizar
+     * @param id Id del libro a actualizar
      * @param libroRequest Datos actualizados del libro
      * @return Libro actualizado
      */
-    @PutMapping("/{indice}")
+    @PutMapping("/{id}")
     public ResponseEntity<LibroResponseDTO> actualizarLibro(
             Authentication authentication,
-            @PathVariable int indice,
+            @PathVariable String id,
             @Valid @RequestBody LibroRequestDTO libroRequest) {
-        return ResponseEntity.ok(libroService.actualizarLibro(authentication.getName(), indice, libroRequest));
+        return ResponseEntity.ok(libroService.actualizarLibro(authentication.getName(), id, libroRequest));
     }
 
     /**
      * Elimina un libro del usuario autenticado.
      *
      * @param authentication Información de autenticación del usuario
-     * @param indice Índice del libro a eliminar
+     * @param id Id del libro a eliminar
      * @return Respuesta vacía con código 204
      */
-    @DeleteMapping("/{indice}")
-    public ResponseEntity<Void> eliminarLibro(Authentication authentication, @PathVariable int indice) {
-        libroService.eliminarLibro(authentication.getName(), indice);
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> eliminarLibro(Authentication authentication, @PathVariable String id) {
+        libroService.eliminarLibro(authentication.getName(), id);
         return ResponseEntity.noContent().build();
     }
 
@@ -86,47 +97,148 @@ public class LibroController {
      * Cambia el estado de un libro del usuario autenticado.
      *
      * @param authentication Información de autenticación del usuario
-     * @param indice Índice del libro
+     * @param id Id del libro
      * @param request Datos del cambio de estado
      * @return Libro actualizado
      */
-    @PutMapping("/{indice}/estado")
+    @PutMapping("/{id}/estado")
     public ResponseEntity<LibroResponseDTO> cambiarEstadoLibro(
             Authentication authentication,
-            @PathVariable int indice,
+            @PathVariable String id,
             @Valid @RequestBody CambioEstadoRequest request) {
-        return ResponseEntity.ok(libroService.cambiarEstadoLibro(authentication.getName(), indice, request));
+        return ResponseEntity.ok(libroService.cambiarEstadoLibro(authentication.getName(), id, request));
+    }
+
+    /**
+     * Obtiene el historial de reservas devueltas de un libro: todas si el libro es
+     * del usuario autenticado y solo las suyas en caso contrario. Los resultados
+     * se devuelven paginados por cursor.
+     *
+     * @param authentication Información de autenticación del usuario
+     * @param id Id del libro
+     * @param cursor Cursor de la página anterior (opcional)
+     * @param limite Número máximo de reservas por página (opcional)
+     * @return Página de reservas archivadas
+     */
+    @GetMapping("/{id}/historial")
+    public ResponseEntity<PaginaDTO<Reserva>> obtenerHistorial(
+            Authentication authentication,
+            @PathVariable String id,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limite) {
+        return ResponseEntity.ok(libroService.obtenerHistorial(authentication.getName(), id, cursor, limite));
     }
 
     /**
      * Filtra libros según diferentes criterios.
+     * Los resultados se devuelven paginados por cursor.
      *
      * @param tematicaId ID de la temática
      * @param estado Estado del libro
      * @param pais País
      * @param provincia Provincia
      * @param ciudad Ciudad
-     * @return Lista de libros filtrados
+     * @param cursor Cursor de la página anterior (opcional)
+     * @param limite Número máximo de libros por página (opcional)
+     * @return Página de libros filtrados
      */
     @GetMapping("/filtrar")
-    public ResponseEntity<List<LibroDTO>> filtrarLibros(
+    public ResponseEntity<PaginaDTO<LibroDTO>> filtrarLibros(
+            @RequestParam(required = false) String tematicaId,
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) String pais,
+            @RequestParam(required = false) String provincia,
+            @RequestParam(required = false) String ciudad,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limite) {
+        return ResponseEntity.ok(libroService.filtrarLibros(tematicaId, estado, pais, provincia, ciudad, cursor, limite));
+    }
+
+    /**
+     * Filtra libros según diferentes criterios y los transmite en formato NDJSON
+     * (un libro JSON por línea) a medida que se leen de la base de datos.
+     * Se selecciona con la cabecera {@code Accept: application/x-ndjson}.
+     *
+     * @param tematicaId ID de la temática
+     * @param estado Estado del libro
+     * @param pais País
+     * @param provincia Provincia
+     * @param ciudad Ciudad
+     * @return Cuerpo de respuesta que escribe los libros filtrados en flujo
+     */
+    @GetMapping(value = "/filtrar", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> transmitirLibrosFiltrados(
             @RequestParam(required = false) String tematicaId,
             @RequestParam(required = false) String estado,
             @RequestParam(required = false) String pais,
             @RequestParam(required = false) String provincia,
             @RequestParam(required = false) String ciudad) {
-        return ResponseEntity.ok(libroService.filtrarLibros(tematicaId, estado, pais, provincia, ciudad));
+        Stream<LibroDTO> libros = libroService.transmitirLibrosFiltrados(tematicaId, estado, pais, provincia, ciudad);
+        return respuestaNdjson(libros);
+    }
+
+    /**
+     * Obtiene los recuentos de libros por temática, estado, país, provincia y
+     * ciudad para los filtros indicados.
+     *
+     * @param tematicaId ID de la temática
+     * @param estado Estado del libro
+     * @param pais País
+     * @param provincia Provincia
+     * @param ciudad Ciudad
+     * @return Recuentos por cada criterio de filtrado
+     */
+    @GetMapping("/facetas")
+    public ResponseEntity<FacetasDTO> obtenerFacetas(
+            @RequestParam(required = false) String tematicaId,
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) String pais,
+            @RequestParam(required = false) String provincia,
+            @RequestParam(required = false) String ciudad) {
+        return ResponseEntity.ok(libroService.obtenerFacetas(tematicaId, estado, pais, provincia, ciudad));
     }
 
     /**
      * Busca libros por título.
+     * Los resultados se devuelven paginados por cursor.
      *
      * @param query Término de búsqueda
-     * @return Lista de libros encontrados
+     * @param cursor Cursor de la página anterior (opcional)
+     * @param limite Número máximo de libros por página (opcional)
+     * @return Página de libros encontrados
      */
     @GetMapping("/buscar")
-    public ResponseEntity<List<LibroDTO>> buscarLibrosPorTitulo(@RequestParam String query) {
-        return ResponseEntity.ok(libroService.buscarLibros(query));
+    public ResponseEntity<PaginaDTO<LibroDTO>> buscarLibrosPorTitulo(
+            @RequestParam String query,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limite) {
+        return ResponseEntity.ok(libroService.buscarLibros(query, cursor, limite));
+    }
+
+    /**
+     * Busca libros por título o autor y los transmite en formato NDJSON.
+     * Se selecciona con la cabecera {@code Accept: application/x-ndjson}.
+     *
+     * @param query Término de búsqueda
+     * @return Cuerpo de respuesta que escribe los libros encontrados en flujo
+     */
+    @GetMapping(value = "/buscar", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> transmitirBusqueda(@RequestParam String query) {
+        return respuestaNdjson(libroService.transmitirBusqueda(query));
+    }
+
+    /**
+     * Obtiene sugerencias de autocompletado de títulos y autores.
+     *
+     * @param prefijo Texto escrito por el usuario
+     * @param limite Número máximo de sugerencias (opcional)
+     * @return Lista de sugerencias
+     */
+    @GetMapping("/sugerencias")
+    public ResponseEntity<List<SugerenciaDTO>> obtenerSugerencias(
+            @RequestParam String prefijo,
+            @RequestParam(required = false) Integer limite) {
+        return ResponseEntity.ok(libroService.sugerirLibros(prefijo, limite));
     }
 
     /**
@@ -144,12 +256,12 @@ public class LibroController {
      * Registra la devolución de un libro.
      *
      * @param authentication Información de autenticación del usuario
-     * @param libroPrestamoRequest Datos de la devolución
+     * @param id Id del libro a devolver
      * @return Respuesta vacía con código 204
      */
-    @PostMapping("/devolver")
-    public ResponseEntity<Void> devolverLibro(Authentication authentication, @Valid @RequestBody LibroReservaRequestDTO libroPrestamoRequest) {
-        libroService.devolverLibro(authentication.getName(), libroPrestamoRequest);
+    @PostMapping("/{id}/devolver")
+    public ResponseEntity<Void> devolverLibro(Authentication authentication, @PathVariable String id) {
+        libroService.devolverLibro(authentication.getName(), id);
         return ResponseEntity.noContent().build();
     }
 
@@ -157,12 +269,30 @@ public class LibroController {
      * Reserva un libro.
      *
      * @param authentication Información de autenticación del usuario
-     * @param reserva Datos de la reserva
+     * @param id Id del libro a reservar
      * @return Respuesta vacía con código 204
      */
-    @PostMapping("/reservar")
-    public ResponseEntity<Void> reservarLibro(Authentication authentication, @Valid @RequestBody LibroReservaRequestDTO reserva) {
-        libroService.reservarLibro(authentication.getName(), reserva);
+    @PostMapping("/{id}/reservar")
+    public ResponseEntity<Void> reservarLibro(Authentication authentication, @PathVariable String id) {
+        libroService.reservarLibro(authentication.getName(), id);
         return ResponseEntity.noContent().build();
     }
+
+    private ResponseEntity<StreamingResponseBody> respuestaNdjson(Stream<LibroDTO> libros) {
+        StreamingResponseBody cuerpo = salida -> {
+            try (libros) {
+                boolean primero = true;
+                for (LibroDTO libro : (Iterable<LibroDTO>) libros::iterator) {
+                    salida.write(objectMapper.writeValueAsBytes(libro));
+                    salida.write('\n');
+                    // El primer libro se envía de inmediato; el resto se agrupa en el búfer de la respuesta
+                    if (primero) {
+                        salida.flush();
+                        primero = false;
+                    }
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(cuerpo);
+    }
 }
\ No newline at end of file
@@ -14,7 +14,9 @@ import org.springframework.web.bind.annotation.RestController;
 import com.compartir.libros.dto.usuario.CambioPasswordRequestDTO;
 import com.compartir.libros.dto.usuario.LoginRequestDTO;
 import com.compartir.libros.dto.usuario.LoginResponseDTO;
+import com.compartir.libros.dto.usuario.RefrescoTokenRequestDTO;
 import com.compartir.libros.dto.usuario.RegistroRequestDTO;
+import com.compartir.libros.dto.usuario.TokensDTO;
 import com.compartir.libros.dto.usuario.UsuarioUpdateRequestDTO;
 import com.compartir.libros.model.Usuario;
 import com.compartir.libros.service.UsuarioService;
@@ -48,6 +50,17 @@ public class UsuarioController {
         return ResponseEntity.ok(usuarioService.login(loginRequest));
     }
 
+    /**
+     * Emite un nuevo par de tokens de sesión a partir de un token de refresco.
+     *
+     * @param request Token de refresco
+     * @return Nuevos tokens de sesión
+     */
+    @PostMapping("/token/refrescar")
+    public ResponseEntity<TokensDTO> refrescarToken(@Valid @RequestBody RefrescoTokenRequestDTO request) {
+        return ResponseEntity.ok(usuarioService.refrescarToken(request.getTokenRefresco()));
+    }
+
     /**
      * Registra un nuevo usuario en el sistema.
      *
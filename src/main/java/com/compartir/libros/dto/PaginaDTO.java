@@ -0,0 +1,23 @@
+package com.compartir.libros.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO que representa una página de resultados con paginación por cursor.
+ * El cursor {@code siguiente} se envía en la siguiente petición para continuar
+ * justo después del último elemento devuelto; es nulo en la última página.
+ *
+ * @param <T> Tipo de los elementos de la página
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaginaDTO<T> {
+    private List<T> contenido;
+    private String siguiente;
+}
@@ -0,0 +1,14 @@
+package com.compartir.libros.dto.email;
+
+/**
+ * Correo individual dentro de un envío masivo (anuncios, resúmenes).
+ *
+ * @param destinatario Email del destinatario
+ * @param asunto       Asunto del correo
+ * @param cuerpo       Cuerpo del correo en HTML
+ */
+public record CorreoMasivo(
+    String destinatario,
+    String asunto,
+    String cuerpo) {
+}
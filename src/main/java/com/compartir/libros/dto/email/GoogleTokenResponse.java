@@ -7,4 +7,12 @@ public class GoogleTokenResponse extends TokenResponse {
 
     @Key("expires_in")
     private Integer expiresInSeconds;  
+
+    /**
+     * Segundos de validez del token de acceso. Se declara aquí como entero
+     * porque Google lo envía así y el campo heredado es de tipo Long.
+     */
+    public Integer getValidezSegundos() {
+        return expiresInSeconds;
+    }
 }
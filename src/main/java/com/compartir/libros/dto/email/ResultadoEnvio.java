@@ -0,0 +1,16 @@
+package com.compartir.libros.dto.email;
+
+/**
+ * Resultado del envío de un correo dentro de un envío masivo.
+ *
+ * @param destinatario Email del destinatario
+ * @param enviado      true si Gmail aceptó el correo
+ * @param idMensaje    Id del mensaje en Gmail, si se envió
+ * @param error        Motivo del fallo, si no se envió
+ */
+public record ResultadoEnvio(
+    String destinatario,
+    boolean enviado,
+    String idMensaje,
+    String error) {
+}
@@ -0,0 +1,27 @@
+package com.compartir.libros.dto.libro;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO con los recuentos de libros del catálogo para la selección actual de filtros.
+ * Cada mapa asocia un valor del criterio (id de temática, estado, país, provincia
+ * o ciudad) con el número de libros que lo tienen, de mayor a menor, contados
+ * con todos los filtros salvo el de ese criterio; el total aplica todos.
+ *
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacetasDTO {
+    private long total;
+    private Map<String, Long> tematicas;
+    private Map<String, Long> estados;
+    private Map<String, Long> paises;
+    private Map<String, Long> provincias;
+    private Map<String, Long> ciudades;
+}
@@ -16,6 +16,7 @@ import lombok.Data;
 @Data
 @AllArgsConstructor
 public class LibroResponseDTO {
+    private String id;
     private String titulo;
     private String autor;
     private String estado;
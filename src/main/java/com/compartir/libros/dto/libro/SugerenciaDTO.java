@@ -0,0 +1,19 @@
+package com.compartir.libros.dto.libro;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO que representa una sugerencia de autocompletado del catálogo.
+ * Contiene el texto completo sugerido y si corresponde a un título o a un autor.
+ *
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SugerenciaDTO {
+    private String texto;
+    private String tipo; // titulo, autor
+}
@@ -0,0 +1,21 @@
+package com.compartir.libros.dto.usuario;
+
+import com.compartir.libros.model.RegionUsuario;
+
+/**
+ * Proyección de un usuario con los datos necesarios para autenticarlo y para
+ * operar sobre sus libros (id, email y región).
+ * Al consultarla solo se leen estos campos, sin la imagen ni los libros.
+ *
+ * @param id         Id del usuario
+ * @param email      Email del usuario
+ * @param password   Hash de la contraseña
+ * @param nombre     Nombre del usuario
+ * @param isVerified Si el usuario ha verificado su email
+ * @param region     Región del usuario, que se copia al catálogo con sus libros
+ *
+ * @author Sergio
+ */
+public record CredencialesUsuarioDTO(String id, String email, String password, String nombre, Boolean isVerified,
+        RegionUsuario region) {
+}
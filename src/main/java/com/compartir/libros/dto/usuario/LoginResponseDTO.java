@@ -5,7 +5,7 @@ import lombok.Data;
 
 /**
  * DTO que representa la respuesta del inicio de sesión.
- * Contiene la información del usuario autenticado.
+ * Contiene la información del usuario autenticado y los tokens de sesión.
  *
  * @author Sergio
  */
@@ -24,4 +24,5 @@ public class LoginResponseDTO {
     private String provincia;
     private String pais;
     private String continente;
+    private TokensDTO tokens;
 }
@@ -0,0 +1,15 @@
+package com.compartir.libros.dto.usuario;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+/**
+ * DTO para la solicitud de refresco de los tokens de sesión.
+ *
+ * @author Sergio
+ */
+@Data
+public class RefrescoTokenRequestDTO {
+    @NotBlank(message = "El token de refresco no puede estar vacío")
+    private String tokenRefresco;
+}
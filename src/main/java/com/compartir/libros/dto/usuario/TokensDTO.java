@@ -0,0 +1,21 @@
+package com.compartir.libros.dto.usuario;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * DTO con los tokens emitidos al iniciar sesión o al refrescar la sesión.
+ * El token de acceso se envía en la cabecera {@code Authorization: Bearer};
+ * el de refresco solo sirve para obtener un nuevo par de tokens.
+ *
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TokensDTO {
+    private String tokenAcceso;
+    private String tokenRefresco;
+    private long caducidadSegundos;
+}
@@ -0,0 +1,36 @@
+package com.compartir.libros.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Modelo que representa un correo pendiente de envío en el buzón de salida.
+ * Los correos se guardan junto al cambio que los origina y un proceso en
+ * segundo plano los envía, reintentando los fallos.
+ *
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "correos_pendientes")
+public class CorreoPendiente {
+    @Id
+    private ObjectId id;
+    private String destinatario;
+    private String asunto;
+    private String cuerpo;
+    private String estado; // pendiente, enviando, descartado
+    private int intentos;
+    private Date creadoEn;
+    private Date siguienteIntento;
+    private Date reclamadoEn;
+    private String ultimoError;
+}
@@ -6,22 +6,31 @@ import lombok.NoArgsConstructor;
 import java.util.List;
 
 import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
- * Modelo que representa un libro en la base de datos.
- * Incluye información básica del libro, su estado y referencias a temáticas y reservas.
+ * Modelo que representa un libro en la base de datos (colección "libros").
+ * Incluye información básica del libro, su estado, el propietario y
+ * referencias a temáticas y reservas. Cada libro es un documento propio, de
+ * modo que el documento del usuario no crece con su biblioteca.
  *
  * @author Sergio
  */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
+@Document(collection = "libros")
 public class Libro {
+    @Id
+    private ObjectId id;
+    private ObjectId usuarioId;
     private String titulo;
     private String autor;
     private String descripcion;
-    private String portada;
+    private String portada; // URL de la imagen, ver AlmacenImagenes
     private String estado; // disponible, prestado, reservado
     private List<ObjectId> tematicas;
     private List<Reserva> reservas;
+    private long version; // Se incrementa con cada cambio; las copias derivadas no aplican una versión anterior
 }
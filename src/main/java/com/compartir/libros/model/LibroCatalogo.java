@@ -0,0 +1,46 @@
+package com.compartir.libros.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Modelo de lectura del catálogo público: un documento por libro con los datos
+ * de su propietario ya desnormalizados, con el mismo id que el libro. Se
+ * mantiene libro a libro desde {@code LibroService} a partir de la colección
+ * de libros, que sigue siendo la fuente de verdad, y permite consultar el
+ * catálogo sin leer usuarios.
+ *
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "catalogo_libros")
+public class LibroCatalogo {
+    // Id del libro; define el orden del catálogo
+    @Id
+    private ObjectId id;
+    private ObjectId usuarioId;
+    // Versión del libro copiada; una sincronización con una versión anterior no se aplica
+    private long version;
+
+    private String titulo;
+    private String autor;
+    private String descripcion;
+    private String portada;
+    private String estado;
+    private List<ObjectId> tematicas;
+    private List<Reserva> reservas;
+
+    private String emailUsuario;
+    private String ciudadUsuario;
+    private String provinciaUsuario;
+    private String paisUsuario;
+}
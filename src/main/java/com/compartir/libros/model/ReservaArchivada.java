@@ -0,0 +1,35 @@
+package com.compartir.libros.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Modelo que representa una reserva ya cerrada (devuelta) que se ha sacado del
+ * libro para que este conserve solo sus reservas abiertas. Forma el historial
+ * de préstamos de cada libro.
+ *
+ * @author Sergio
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "reservas_archivadas")
+public class ReservaArchivada {
+    @Id
+    private ObjectId id;
+    private ObjectId libroId;
+    private ObjectId usuarioId; // propietario del libro
+    private String titulo;
+    private String emailUsuario;
+    private Date fechaReserva;
+    private Date fechaPrestamo;
+    private Date fechaDevolucion;
+    private Date archivadaEn;
+}
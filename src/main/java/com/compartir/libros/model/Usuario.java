@@ -7,12 +7,11 @@ import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Modelo que representa un usuario en la base de datos.
- * Incluye información personal, ubicación y lista de libros del usuario.
+ * Incluye información personal y ubicación del usuario; sus libros se guardan
+ * en la colección "libros" con una referencia al usuario.
  *
  * @author Sergio
  */
@@ -26,7 +25,7 @@ public class Usuario {
     private String nombre;
     private String email;
     private String password;
-    private String imagen;
+    private String imagen; // URL de la imagen, ver AlmacenImagenes
     private String cp;
     private String telefono;
     private String biografia;
@@ -37,6 +36,4 @@ public class Usuario {
     private LocalDateTime tokenGeneratedAt;
     private LocalDateTime tokenVerifiedAt;
     private Boolean isVerified = false;
-
-    private List<Libro> libros = new ArrayList<>();
 }
@@ -0,0 +1,23 @@
+package com.compartir.libros.repository;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.compartir.libros.model.Libro;
+
+import java.util.List;
+
+/**
+ * Repositorio para la gestión de libros en la base de datos MongoDB.
+ * Proporciona métodos para consultar los libros de un propietario.
+ * 
+ * Métodos disponibles:
+ * - findByUsuarioIdOrderByIdAsc: Busca los libros de un usuario por orden de alta
+ *
+ * @author Sergio
+ */
+@Repository
+public interface LibroRepository extends MongoRepository<Libro, ObjectId> {
+    List<Libro> findByUsuarioIdOrderByIdAsc(ObjectId usuarioId);
+}
@@ -0,0 +1,80 @@
+package com.compartir.libros.security;
+
+import java.util.Optional;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import com.compartir.libros.dto.usuario.CredencialesUsuarioDTO;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.UsuarioRepository;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Datos del usuario leídos durante la petición en curso.
+ *
+ * <p>La autenticación HTTP Basic carga las credenciales a través de este
+ * contexto, de modo que los servicios que vuelven a necesitarlas en la misma
+ * petición (cambio de contraseña, refresco de tokens) las reutilizan sin
+ * repetir la consulta. Lo mismo ocurre con el id, el email y la región que
+ * necesita {@code LibroService}: se toman de las credenciales si ya se
+ * leyeron, o se consultan una sola vez por petición. Se descarta al terminar
+ * la petición.</p>
+ *
+ * @author Sergio
+ */
+@Component
+@RequestScope
+@RequiredArgsConstructor
+public class ContextoUsuario {
+
+    private final UsuarioRepository usuarioRepository;
+
+    private CredencialesUsuarioDTO credenciales;
+    private Usuario propietario;
+
+    /**
+     * Obtiene las credenciales de un usuario, consultándolas solo si aún no se
+     * han leído en esta petición.
+     *
+     * @param email Email del usuario
+     * @return Credenciales del usuario, o vacío si no existe
+     */
+    public Optional<CredencialesUsuarioDTO> credenciales(String email) {
+        if (credenciales == null || !credenciales.email().equals(email)) {
+            credenciales = usuarioRepository.findCredencialesByEmail(email).orElse(null);
+        }
+        return Optional.ofNullable(credenciales);
+    }
+
+    /**
+     * Obtiene el id, el email y la región de un usuario. Si son los del usuario
+     * ya autenticado en esta petición se toman de sus credenciales; si no, se
+     * consultan solo si aún no se han leído en esta petición.
+     *
+     * @param email Email del usuario
+     * @return Usuario con su id, email y región, o vacío si no existe
+     */
+    public Optional<Usuario> propietario(String email) {
+        if (credenciales != null && credenciales.email().equals(email)) {
+            Usuario usuario = new Usuario();
+            usuario.setId(credenciales.id());
+            usuario.setEmail(credenciales.email());
+            usuario.setRegion(credenciales.region());
+            return Optional.of(usuario);
+        }
+        if (propietario == null || !propietario.getEmail().equals(email)) {
+            propietario = usuarioRepository.findPropietarioByEmail(email).orElse(null);
+        }
+        return Optional.ofNullable(propietario);
+    }
+
+    /**
+     * Descarta los datos leídos, por ejemplo tras modificarlos.
+     */
+    public void olvidar() {
+        credenciales = null;
+        propietario = null;
+    }
+}
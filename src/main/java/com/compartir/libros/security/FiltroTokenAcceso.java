@@ -0,0 +1,70 @@
+package com.compartir.libros.security;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Filtro que autentica las peticiones con {@code Authorization: Bearer <token>}
+ * validando la firma del token de acceso, sin consultar la base de datos. Las
+ * peticiones sin token Bearer siguen su curso hacia la autenticación HTTP Basic.
+ *
+ * <p>Un token no válido o caducado no corta la petición: se sigue sin
+ * autenticar, de modo que las rutas públicas (como la de refresco de tokens)
+ * responden igual, y solo las protegidas acaban en
+ * {@link PuntoEntradaAutenticacion}, que responde 401 indicando que el token
+ * se rechazó.</p>
+ *
+ * @author Sergio
+ */
+@RequiredArgsConstructor
+public class FiltroTokenAcceso extends OncePerRequestFilter {
+
+    /** Atributo de la petición que indica que se envió un token de acceso no válido. */
+    public static final String TOKEN_RECHAZADO = FiltroTokenAcceso.class.getName() + ".TOKEN_RECHAZADO";
+
+    private static final String PREFIJO = "Bearer ";
+
+    private final ServicioTokens servicioTokens;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String cabecera = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (cabecera == null || !cabecera.regionMatches(true, 0, PREFIJO, 0, PREFIJO.length())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        ServicioTokens.DatosToken datos = servicioTokens.validar(cabecera.substring(PREFIJO.length()).trim(),
+                ServicioTokens.ACCESO);
+        if (datos == null) {
+            SecurityContextHolder.clearContext();
+            request.setAttribute(TOKEN_RECHAZADO, Boolean.TRUE);
+            chain.doFilter(request, response);
+            return;
+        }
+
+        UsuarioDetalles principal = new UsuarioDetalles(datos.email(), datos.nombre(), Collections.emptyList());
+        UsernamePasswordAuthenticationToken autenticacion = UsernamePasswordAuthenticationToken.authenticated(
+                principal, null, principal.getAuthorities());
+        autenticacion.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+
+        SecurityContext contexto = SecurityContextHolder.createEmptyContext();
+        contexto.setAuthentication(autenticacion);
+        SecurityContextHolder.setContext(contexto);
+        chain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,210 @@
+package com.compartir.libros.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Proveedor de autenticación HTTP Basic que recuerda durante un tiempo las
+ * credenciales ya verificadas, de modo que las peticiones repetidas de un
+ * mismo cliente no consultan la base de datos ni ejecutan BCrypt.
+ *
+ * <p>Se guarda una entrada por email con un resumen HMAC de la contraseña
+ * (la clave se genera al arrancar y nunca se guarda la contraseña) y el
+ * usuario autenticado sin su hash. Las entradas caducan pasado
+ * {@code libros.seguridad.cache.duracion} y, si se supera
+ * {@code libros.seguridad.cache.capacidad}, se descartan las menos usadas.
+ * {@link #invalidar(String)} debe llamarse cuando cambian la contraseña o los
+ * datos del usuario.</p>
+ *
+ * <p>Publica las métricas {@code libros.autenticacion.cache} (aciertos y
+ * fallos), {@code libros.autenticacion.cache.tamano} y
+ * {@code libros.autenticacion.duracion}.</p>
+ *
+ * @author Sergio
+ */
+@Component
+public class ProveedorAutenticacionCacheado implements AuthenticationProvider {
+
+    private static final String ALGORITMO = "HmacSHA256";
+
+    private final DaoAuthenticationProvider delegado;
+    private final SecretKeySpec clave;
+    private final long duracionMs;
+    private final Map<String, Entrada> entradas;
+    // Se incrementa en cada invalidación para no guardar un resultado verificado antes de ella
+    private final AtomicLong generacion = new AtomicLong();
+
+    private final Counter aciertos;
+    private final Counter fallos;
+    private final Timer duracionAcierto;
+    private final Timer duracionFallo;
+
+    /**
+     * Credencial verificada de un usuario.
+     */
+    private record Entrada(byte[] resumen, UsuarioDetalles usuario, long caduca) {
+    }
+
+    public ProveedorAutenticacionCacheado(
+            UsuarioDetallesService usuarioDetallesService,
+            PasswordEncoder passwordEncoder,
+            MeterRegistry registro,
+            @Value("${libros.seguridad.cache.capacidad:10000}") int capacidad,
+            @Value("${libros.seguridad.cache.duracion:5m}") Duration duracion) {
+        this.delegado = new DaoAuthenticationProvider(passwordEncoder);
+        this.delegado.setUserDetailsService(usuarioDetallesService);
+        this.duracionMs = duracion.toMillis();
+
+        byte[] bytesClave = new byte[32];
+        new SecureRandom().nextBytes(bytesClave);
+        this.clave = new SecretKeySpec(bytesClave, ALGORITMO);
+
+        int maximo = Math.max(1, capacidad);
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> mayor) {
+                return size() > maximo;
+            }
+        };
+
+        this.aciertos = Counter.builder("libros.autenticacion.cache")
+                .tag("resultado", "acierto")
+                .description("Autenticaciones HTTP Basic resueltas con la caché")
+                .register(registro);
+        this.fallos = Counter.builder("libros.autenticacion.cache")
+                .tag("resultado", "fallo")
+                .description("Autenticaciones HTTP Basic que han tenido que verificarse")
+                .register(registro);
+        Gauge.builder("libros.autenticacion.cache.tamano", this, ProveedorAutenticacionCacheado::tamano)
+                .description("Credenciales verificadas en la caché")
+                .register(registro);
+        this.duracionAcierto = Timer.builder("libros.autenticacion.duracion")
+                .tag("cache", "acierto")
+                .description("Tiempo de autenticación HTTP Basic")
+                .register(registro);
+        this.duracionFallo = Timer.builder("libros.autenticacion.duracion")
+                .tag("cache", "fallo")
+                .description("Tiempo de autenticación HTTP Basic")
+                .register(registro);
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        long inicio = System.nanoTime();
+        String email = authentication.getName();
+        Object credenciales = authentication.getCredentials();
+        byte[] resumen = credenciales == null ? null : resumir(email, credenciales.toString());
+
+        UsuarioDetalles cacheado = resumen == null ? null : buscar(email, resumen);
+        if (cacheado != null) {
+            aciertos.increment();
+            duracionAcierto.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            return autenticado(cacheado, authentication);
+        }
+
+        fallos.increment();
+        long generacionInicial = generacion.get();
+        try {
+            Authentication resultado = delegado.authenticate(authentication);
+            if (resumen != null && resultado.getPrincipal() instanceof UsuarioDetalles detalles) {
+                guardar(email, resumen, copiaSinPassword(detalles), generacionInicial);
+            }
+            return resultado;
+        } finally {
+            duracionFallo.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+
+    /**
+     * Olvida las credenciales verificadas de un usuario.
+     *
+     * @param email Email del usuario
+     */
+    public void invalidar(String email) {
+        synchronized (entradas) {
+            generacion.incrementAndGet();
+            entradas.remove(email);
+        }
+    }
+
+    private UsuarioDetalles buscar(String email, byte[] resumen) {
+        synchronized (entradas) {
+            Entrada entrada = entradas.get(email);
+            if (entrada == null) {
+                return null;
+            }
+            if (entrada.caduca() <= System.currentTimeMillis()) {
+                entradas.remove(email);
+                return null;
+            }
+            return MessageDigest.isEqual(entrada.resumen(), resumen) ? entrada.usuario() : null;
+        }
+    }
+
+    private void guardar(String email, byte[] resumen, UsuarioDetalles usuario, long generacionInicial) {
+        synchronized (entradas) {
+            if (generacion.get() == generacionInicial) {
+                entradas.put(email, new Entrada(resumen, usuario, System.currentTimeMillis() + duracionMs));
+            }
+        }
+    }
+
+    private int tamano() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    private UsuarioDetalles copiaSinPassword(UsuarioDetalles detalles) {
+        return new UsuarioDetalles(detalles.getUsername(), detalles.getNombre(), detalles.getAuthorities());
+    }
+
+    private Authentication autenticado(UserDetails usuario, Authentication solicitud) {
+        UsernamePasswordAuthenticationToken resultado = UsernamePasswordAuthenticationToken.authenticated(
+                usuario, solicitud.getCredentials(), usuario.getAuthorities());
+        resultado.setDetails(solicitud.getDetails());
+        return resultado;
+    }
+
+    private byte[] resumir(String email, String password) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITMO);
+            mac.init(clave);
+            mac.update(email.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
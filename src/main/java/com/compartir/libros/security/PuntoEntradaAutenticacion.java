@@ -0,0 +1,40 @@
+package com.compartir.libros.security;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.AuthenticationEntryPoint;
+import org.springframework.security.web.authentication.www.BasicAuthenticationEntryPoint;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Responde a las peticiones sin autenticar que llegan a una ruta protegida.
+ * Si la petición traía un token de acceso que {@link FiltroTokenAcceso}
+ * rechazó, se responde 401 con {@code WWW-Authenticate: Bearer
+ * error="invalid_token"} para que el cliente sepa que debe refrescarlo; en
+ * otro caso se pide autenticación HTTP Basic.
+ *
+ * @author Sergio
+ */
+public class PuntoEntradaAutenticacion implements AuthenticationEntryPoint {
+
+    private final BasicAuthenticationEntryPoint basic = new BasicAuthenticationEntryPoint();
+
+    public PuntoEntradaAutenticacion(String realm) {
+        basic.setRealmName(realm);
+    }
+
+    @Override
+    public void commence(HttpServletRequest request, HttpServletResponse response,
+            AuthenticationException authException) throws IOException {
+        if (request.getAttribute(FiltroTokenAcceso.TOKEN_RECHAZADO) != null) {
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Token no válido o caducado");
+            return;
+        }
+        basic.commence(request, response, authException);
+    }
+}
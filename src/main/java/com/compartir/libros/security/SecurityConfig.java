@@ -11,6 +11,7 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.www.BasicAuthenticationFilter;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -23,6 +24,7 @@ import lombok.RequiredArgsConstructor;
  * 
  * Características principales:
  * - Configuración de endpoints públicos y protegidos
+ * - Autenticación por token Bearer firmado, con HTTP Basic como alternativa
  * - Configuración de CORS para permitir peticiones desde el frontend
  * - Configuración del codificador de contraseñas
  * - Configuración del gestor de autenticación
@@ -34,7 +36,9 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class SecurityConfig {
 
-    private final UsuarioDetallesService customUserDetailsService;
+    private static final String REALM = "MyAppRealm";
+
+    private final ServicioTokens servicioTokens;
 
     /**
      * Configura la cadena de filtros de seguridad.
@@ -52,17 +56,20 @@ public class SecurityConfig {
             .authorizeHttpRequests(authz -> authz
                 .requestMatchers("/swagger-ui/**", "/v3/api-docs/**", "/favicon.ico").permitAll()
 
-                .requestMatchers("/api/libros/tematica/**", "/api/libros/buscar/**", "/api/libros/filtrar/**", "/api/tematicas/**").permitAll()
+                .requestMatchers("/api/libros/tematica/**", "/api/libros/buscar/**", "/api/libros/filtrar/**", "/api/libros/facetas/**", "/api/libros/sugerencias/**", "/api/tematicas/**").permitAll()
             
-                .requestMatchers("/api/usuarios/login", "/api/usuarios/registro", "/api/usuarios/verificar").permitAll()
+                .requestMatchers("/api/usuarios/login", "/api/usuarios/token/refrescar", "/api/usuarios/registro", "/api/usuarios/verificar").permitAll()
             
                 .requestMatchers("/api/libros/**", "/api/usuarios/**").authenticated()
 
-                .requestMatchers("/api/regiones/**").permitAll()
+                .requestMatchers("/api/regiones/**", "/api/imagenes/**").permitAll()
             
                 .anyRequest().authenticated()
             )
-            .httpBasic(httpBasic -> httpBasic.realmName("MyAppRealm"));
+            .addFilterBefore(new FiltroTokenAcceso(servicioTokens), BasicAuthenticationFilter.class)
+            .httpBasic(httpBasic -> httpBasic.realmName(REALM))
+            .exceptionHandling(excepciones -> excepciones
+                .authenticationEntryPoint(new PuntoEntradaAutenticacion(REALM)));
         
         return http.build();
     }
@@ -78,22 +85,22 @@ public class SecurityConfig {
     }
 
     /**
-     * Configura el gestor de autenticación con el servicio de detalles de usuario personalizado
-     * y el codificador de contraseñas.
+     * Configura el gestor de autenticación con el proveedor que verifica las
+     * credenciales contra el servicio de detalles de usuario personalizado y
+     * recuerda las ya verificadas.
      *
      * @param http Configuración de seguridad HTTP
-     * @param passwordEncoder Codificador de contraseñas a utilizar
+     * @param proveedorAutenticacion Proveedor de autenticación con caché de credenciales
      * @return Gestor de autenticación configurado
      * @throws Exception si hay un error durante la configuración
      */
     @Bean
-    AuthenticationManager authManager(HttpSecurity http, PasswordEncoder passwordEncoder) throws Exception {
+    AuthenticationManager authManager(HttpSecurity http, ProveedorAutenticacionCacheado proveedorAutenticacion)
+            throws Exception {
         AuthenticationManagerBuilder authenticationManagerBuilder = 
                 http.getSharedObject(AuthenticationManagerBuilder.class);
 
-        authenticationManagerBuilder
-                .userDetailsService(customUserDetailsService)
-                .passwordEncoder(passwordEncoder);
+        authenticationManagerBuilder.authenticationProvider(proveedorAutenticacion);
         
         return authenticationManagerBuilder.build();
     }
@@ -0,0 +1,185 @@
+package com.compartir.libros.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.compartir.libros.dto.usuario.TokensDTO;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio que emite y valida los tokens de sesión firmados con HMAC-SHA256.
+ *
+ * <p>Un token es {@code contenido.firma}, ambos en Base64 URL; el contenido es
+ * un JSON con el email, el nombre, el tipo ("acceso" o "refresco") y la
+ * caducidad. Validar un token de acceso solo requiere recalcular la firma, sin
+ * consultar la base de datos ni ejecutar BCrypt. El token de refresco incluye
+ * además una huella de la contraseña, de modo que cambiarla invalida las
+ * sesiones abiertas en cuanto caduca su token de acceso.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Service
+public class ServicioTokens {
+    public static final String ACCESO = "acceso";
+    public static final String REFRESCO = "refresco";
+
+    private static final String ALGORITMO = "HmacSHA256";
+    private static final Base64.Encoder CODIFICADOR = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODIFICADOR = Base64.getUrlDecoder();
+
+    private final ObjectMapper objectMapper;
+    private final SecretKeySpec clave;
+    private final Duration duracionAcceso;
+    private final Duration duracionRefresco;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * Datos contenidos en un token válido.
+     *
+     * @param email  Email del usuario
+     * @param nombre Nombre del usuario
+     * @param tipo   "acceso" o "refresco"
+     * @param huella Huella de la contraseña (solo en los tokens de refresco)
+     */
+    public record DatosToken(String email, String nombre, String tipo, String huella) {
+    }
+
+    public ServicioTokens(
+            ObjectMapper objectMapper,
+            @Value("${libros.seguridad.token.secreto:}") String secreto,
+            @Value("${libros.seguridad.token.duracion-acceso:15m}") Duration duracionAcceso,
+            @Value("${libros.seguridad.token.duracion-refresco:7d}") Duration duracionRefresco) {
+        this.objectMapper = objectMapper;
+        this.duracionAcceso = duracionAcceso;
+        this.duracionRefresco = duracionRefresco;
+
+        byte[] bytesClave;
+        if (secreto == null || secreto.isBlank()) {
+            bytesClave = new byte[32];
+            new SecureRandom().nextBytes(bytesClave);
+            log.warn("libros.seguridad.token.secreto no está definido: se usa una clave aleatoria y los tokens "
+                    + "dejarán de ser válidos al reiniciar");
+        } else {
+            bytesClave = Base64.getDecoder().decode(secreto);
+            if (bytesClave.length < 32) {
+                throw new IllegalArgumentException("libros.seguridad.token.secreto debe tener al menos 256 bits");
+            }
+        }
+        this.clave = new SecretKeySpec(bytesClave, ALGORITMO);
+        this.macs = ThreadLocal.withInitial(this::crearMac);
+    }
+
+    /**
+     * Emite un par de tokens de acceso y refresco para un usuario.
+     *
+     * @param email        Email del usuario
+     * @param nombre       Nombre del usuario
+     * @param passwordHash Hash de la contraseña guardada
+     * @return Tokens emitidos
+     */
+    public TokensDTO emitir(String email, String nombre, String passwordHash) {
+        long ahora = System.currentTimeMillis() / 1000;
+        String acceso = firmar(email, nombre, ACCESO, null, ahora + duracionAcceso.toSeconds());
+        String refresco = firmar(email, nombre, REFRESCO, huella(passwordHash), ahora + duracionRefresco.toSeconds());
+        return new TokensDTO(acceso, refresco, duracionAcceso.toSeconds());
+    }
+
+    /**
+     * Valida un token y comprueba que sea del tipo esperado y no haya caducado.
+     *
+     * @param token Token recibido
+     * @param tipo  Tipo esperado ("acceso" o "refresco")
+     * @return Datos del token, o null si no es válido
+     */
+    public DatosToken validar(String token, String tipo) {
+        if (token == null) {
+            return null;
+        }
+        int punto = token.indexOf('.');
+        if (punto <= 0 || punto != token.lastIndexOf('.')) {
+            return null;
+        }
+        try {
+            byte[] contenido = DECODIFICADOR.decode(token.substring(0, punto));
+            byte[] firma = DECODIFICADOR.decode(token.substring(punto + 1));
+            if (!MessageDigest.isEqual(firma, calcularFirma(contenido))) {
+                return null;
+            }
+
+            Map<String, Object> datos = objectMapper.readValue(contenido, new TypeReference<Map<String, Object>>() {
+            });
+            long expira = ((Number) datos.get("exp")).longValue();
+            if (!tipo.equals(datos.get("typ")) || expira <= System.currentTimeMillis() / 1000) {
+                return null;
+            }
+            return new DatosToken((String) datos.get("sub"), (String) datos.get("nom"), tipo,
+                    (String) datos.get("pwd"));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calcula la huella de una contraseña guardada que se incluye en los
+     * tokens de refresco. No permite recuperar el hash original.
+     *
+     * @param passwordHash Hash de la contraseña guardada
+     * @return Huella de la contraseña
+     */
+    public String huella(String passwordHash) {
+        try {
+            byte[] resumen = MessageDigest.getInstance("SHA-256")
+                    .digest(String.valueOf(passwordHash).getBytes(StandardCharsets.UTF_8));
+            return CODIFICADOR.encodeToString(resumen).substring(0, 22);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String firmar(String email, String nombre, String tipo, String huella, long expira) {
+        Map<String, Object> datos = new LinkedHashMap<>();
+        datos.put("sub", email);
+        datos.put("nom", nombre);
+        datos.put("typ", tipo);
+        datos.put("exp", expira);
+        if (huella != null) {
+            datos.put("pwd", huella);
+        }
+        try {
+            byte[] contenido = objectMapper.writeValueAsBytes(datos);
+            return CODIFICADOR.encodeToString(contenido) + "." + CODIFICADOR.encodeToString(calcularFirma(contenido));
+        } catch (Exception e) {
+            throw new IllegalStateException("No se pudo emitir el token", e);
+        }
+    }
+
+    private byte[] calcularFirma(byte[] contenido) {
+        return macs.get().doFinal(contenido);
+    }
+
+    private Mac crearMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITMO);
+            mac.init(clave);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
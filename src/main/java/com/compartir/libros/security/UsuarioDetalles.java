@@ -5,6 +5,7 @@ import java.util.Collection;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 
+import com.compartir.libros.dto.usuario.CredencialesUsuarioDTO;
 import com.compartir.libros.model.Usuario;
 
 /**
@@ -27,6 +28,31 @@ public class UsuarioDetalles extends User {
         super(usuario.getEmail(), usuario.getPassword(), authorities);
         this.nombre = usuario.getNombre();
     }
+
+    /**
+     * Constructor que inicializa los detalles del usuario a partir de sus
+     * credenciales.
+     *
+     * @param credenciales Credenciales del usuario
+     * @param authorities Colección de autoridades del usuario
+     */
+    public UsuarioDetalles(CredencialesUsuarioDTO credenciales, Collection<? extends GrantedAuthority> authorities) {
+        super(credenciales.email(), credenciales.password(), authorities);
+        this.nombre = credenciales.nombre();
+    }
+
+    /**
+     * Constructor para usuarios autenticados por token, de los que no se
+     * conoce la contraseña.
+     *
+     * @param email Email del usuario
+     * @param nombre Nombre del usuario
+     * @param authorities Colección de autoridades del usuario
+     */
+    public UsuarioDetalles(String email, String nombre, Collection<? extends GrantedAuthority> authorities) {
+        super(email, "", authorities);
+        this.nombre = nombre;
+    }
     
     /**
      * Obtiene el nombre del usuario.
@@ -6,8 +6,7 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
-import com.compartir.libros.model.Usuario;
-import com.compartir.libros.repository.UsuarioRepository;
+import com.compartir.libros.dto.usuario.CredencialesUsuarioDTO;
 
 import java.util.Collections;
 
@@ -22,11 +21,12 @@ import java.util.Collections;
 @RequiredArgsConstructor
 public class UsuarioDetallesService implements UserDetailsService {
 
-    private final UsuarioRepository usuarioRepository;
+    private final ContextoUsuario contextoUsuario;
 
     /**
      * Carga los detalles del usuario por su email.
-     * Convierte el modelo Usuario de la aplicación en un UserDetails de Spring Security.
+     * Solo lee el email, la contraseña y el nombre, sin la imagen ni los libros,
+     * y los deja en el contexto de la petición para los servicios.
      *
      * @param email Email del usuario a cargar
      * @return Detalles del usuario para Spring Security
@@ -34,7 +34,7 @@ public class UsuarioDetallesService implements UserDetailsService {
      */
     @Override
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
-        Usuario usuario = usuarioRepository.findByEmail(email)
+        CredencialesUsuarioDTO usuario = contextoUsuario.credenciales(email)
             .orElseThrow(() -> new UsernameNotFoundException("Usuario no encontrado"));
 
         return new UsuarioDetalles(usuario, Collections.emptyList());
@@ -0,0 +1,329 @@
+package com.compartir.libros.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Almacén de imágenes (fotos de perfil y portadas) en GridFS.
+ *
+ * <p>Los clientes envían las imágenes como URI {@code data:} en base64; se
+ * guardan en GridFS y en los documentos de usuario y de libro solo queda la
+ * URL desde la que se sirven ({@value #RUTA}{id}). Las URL externas se
+ * conservan tal cual. Solo se admiten imágenes JPEG, PNG, GIF y WebP, y el
+ * tipo se deduce de los primeros bytes del contenido, nunca del que declara el
+ * cliente, de modo que no puede guardarse un SVG o HTML que el navegador
+ * ejecute al servirlo. Al guardar una imagen se generan en segundo plano sus
+ * variantes reducidas ({@link VariantesImagenes}).</p>
+ *
+ * <p>Las imágenes se guardan una sola vez por contenido: cada original lleva
+ * el SHA-256 de sus bytes ({@code metadata.sha256}) y el número de documentos
+ * que lo usan ({@code metadata.referencias}). Guardar una imagen idéntica a
+ * otra ya guardada suma una referencia y devuelve la misma URL, y
+ * {@link #liberar(String)} resta una; el original y sus variantes se eliminan
+ * cuando no queda ninguna. Un original sin referencias no vuelve a
+ * reutilizarse, así que nunca se elimina una imagen que acaba de compartirse.
+ * Solo los originales con recuento admiten referencias: las URL de variantes
+ * u originales sin recuento se rechazan al guardarlas y se ignoran al
+ * liberarlas. Los originales guardados antes del recuento lo reciben de
+ * {@link MigracionImagenes}.
+ * Dos subidas simultáneas de una imagen nueva pueden guardarla dos veces;
+ * cada copia lleva su propio recuento y ambas siguen siendo válidas.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AlmacenImagenes {
+
+    /**
+     * Ruta pública desde la que se sirven las imágenes guardadas.
+     */
+    public static final String RUTA = "/api/imagenes/";
+
+    /**
+     * Tipos de imagen que se admiten y se sirven como tales.
+     */
+    public static final Set<String> TIPOS_PERMITIDOS = Set.of(
+            MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE, "image/webp");
+
+    private static final String PREFIJO_EN_LINEA = "data:";
+    private static final String SHA256 = "metadata.sha256";
+    private static final String REFERENCIAS = "metadata.referencias";
+    private static final Pattern DATOS_EN_LINEA = Pattern.compile(
+            "^data:image/[\\w.+-]+(?:;[^,;]+=[^,;]*)*;base64,(.*)$", Pattern.DOTALL);
+
+    private final GridFsOperations gridFs;
+    private final MongoTemplate mongoTemplate;
+    private final VariantesImagenes variantesImagenes;
+
+    @Value("${libros.imagenes.tamano-maximo:5MB}")
+    private DataSize tamanoMaximo = DataSize.ofMegabytes(5);
+
+    /**
+     * Indica si un valor es una imagen en línea (URI {@code data:}) que debe
+     * guardarse en el almacén.
+     *
+     * @param valor Valor recibido o leído de la base de datos
+     * @return true si es una URI {@code data:}
+     */
+    public boolean esEnLinea(String valor) {
+        return valor != null && valor.startsWith(PREFIJO_EN_LINEA);
+    }
+
+    /**
+     * Devuelve el valor que debe guardarse para una imagen y toma una
+     * referencia sobre ella: las imágenes en línea se guardan en el almacén y
+     * se sustituyen por su URL, y las URL del almacén suman una referencia a
+     * su imagen. Las URL externas se devuelven sin cambios.
+     *
+     * @param valor Imagen recibida
+     * @return URL de la imagen
+     * @throws IllegalArgumentException si la imagen en línea no es válida o la
+     *                                  URL del almacén no es la de un original
+     *                                  en uso
+     */
+    public String resolver(String valor) {
+        if (esEnLinea(valor)) {
+            return guardar(valor);
+        }
+        String id = idDe(valor);
+        if (id != null && mongoTemplate.updateFirst(
+                new Query(conRecuento(new ObjectId(id))),
+                new Update().inc(REFERENCIAS, 1),
+                VariantesImagenes.COLECCION_ARCHIVOS).getMatchedCount() == 0) {
+            throw new IllegalArgumentException("Imagen no encontrada");
+        }
+        return valor;
+    }
+
+    /**
+     * Guarda en GridFS una imagen recibida como URI {@code data:} en base64,
+     * o suma una referencia a la imagen idéntica ya guardada.
+     *
+     * @param datos URI {@code data:} de la imagen
+     * @return URL desde la que se sirve la imagen guardada
+     * @throws IllegalArgumentException si no es una imagen en base64 válida de
+     *                                  un tipo admitido o supera el tamaño
+     *                                  máximo
+     */
+    public String guardar(String datos) {
+        Matcher partes = DATOS_EN_LINEA.matcher(datos);
+        if (!partes.matches()) {
+            throw new IllegalArgumentException("Formato de imagen no válido");
+        }
+        // Cada 4 caracteres en base64 codifican 3 bytes: se descarta antes de decodificar
+        if (partes.group(1).length() / 4L * 3 > tamanoMaximo.toBytes() + 2) {
+            throw new IllegalArgumentException("La imagen supera el tamaño máximo permitido");
+        }
+
+        byte[] contenido;
+        try {
+            contenido = Base64.getMimeDecoder().decode(partes.group(1));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Formato de imagen no válido");
+        }
+        if (contenido.length > tamanoMaximo.toBytes()) {
+            throw new IllegalArgumentException("La imagen supera el tamaño máximo permitido");
+        }
+        String tipo = tipoDe(contenido);
+        if (tipo == null) {
+            throw new IllegalArgumentException("Formato de imagen no válido: se admiten JPEG, PNG, GIF y WebP");
+        }
+
+        String resumen = resumen(contenido);
+        Document existente = mongoTemplate.findAndModify(
+                new Query(Criteria.where(SHA256).is(resumen).and(REFERENCIAS).gt(0)).with(Sort.by("_id")),
+                new Update().inc(REFERENCIAS, 1),
+                Document.class,
+                VariantesImagenes.COLECCION_ARCHIVOS);
+        if (existente != null) {
+            log.debug("Imagen ya guardada con id {}: se reutiliza", existente.getObjectId("_id"));
+            return RUTA + existente.getObjectId("_id").toHexString();
+        }
+
+        ObjectId id = gridFs.store(new ByteArrayInputStream(contenido), "imagen", tipo,
+                new Document("sha256", resumen).append("referencias", 1));
+        log.debug("Imagen guardada con id {} ({} bytes)", id, contenido.length);
+        variantesImagenes.generarEnSegundoPlano(id);
+        return RUTA + id.toHexString();
+    }
+
+    /**
+     * Obtiene una imagen guardada en el tamaño pedido. Si la variante no
+     * existe se devuelve el original, marcado como provisional mientras las
+     * variantes no se hayan generado.
+     *
+     * @param id     Id de la imagen original
+     * @param tamano {@link VariantesImagenes#MINIATURA}, {@link VariantesImagenes#MEDIANA}
+     *               o {@link VariantesImagenes#ORIGINAL}
+     * @return Imagen, o vacío si el id no es válido o no existe
+     */
+    public Optional<ImagenAlmacenada> obtener(String id, String tamano) {
+        if (!ObjectId.isValid(id)) {
+            return Optional.empty();
+        }
+        ObjectId original = new ObjectId(id);
+        if (!VariantesImagenes.ORIGINAL.equals(tamano)) {
+            GridFSFile variante = gridFs.findOne(new Query(Criteria.where("metadata.original").is(original)
+                    .and("metadata.variante").is(tamano)));
+            if (variante != null) {
+                return Optional.of(new ImagenAlmacenada(gridFs, variante, true));
+            }
+        }
+
+        GridFSFile archivo = gridFs.findOne(new Query(Criteria.where("_id").is(original)));
+        if (archivo == null) {
+            return Optional.empty();
+        }
+        boolean definitiva = VariantesImagenes.ORIGINAL.equals(tamano)
+                || (archivo.getMetadata() != null && archivo.getMetadata().getBoolean("procesada", false));
+        return Optional.of(new ImagenAlmacenada(gridFs, archivo, definitiva));
+    }
+
+    /**
+     * Resta la referencia de un documento que ha dejado de usar una URL y,
+     * si era la última, elimina del almacén la imagen junto con sus variantes.
+     * Las URL externas y los valores vacíos se ignoran.
+     *
+     * @param url URL que tenía el documento
+     */
+    public void liberar(String url) {
+        String id = idDe(url);
+        if (id == null) {
+            return;
+        }
+        ObjectId original = new ObjectId(id);
+        Document restante = mongoTemplate.findAndModify(
+                new Query(conRecuento(original)),
+                new Update().inc(REFERENCIAS, -1),
+                FindAndModifyOptions.options().returnNew(true),
+                Document.class,
+                VariantesImagenes.COLECCION_ARCHIVOS);
+        if (restante != null && restante.get("metadata", Document.class).getInteger("referencias", 0) <= 0) {
+            eliminar(original);
+        }
+    }
+
+    /**
+     * Asigna el resumen del contenido y el recuento de referencias a un
+     * original guardado antes de que existiera el recuento, o lo elimina con
+     * sus variantes si ningún documento lo usa. No hace nada si el original ya
+     * tiene recuento.
+     *
+     * @param original    Id del original
+     * @param referencias Número de documentos que usan su URL
+     * @throws IOException si no se puede leer su contenido
+     */
+    public void asignarRecuento(ObjectId original, long referencias) throws IOException {
+        GridFSFile archivo = gridFs.findOne(new Query(Criteria.where("_id").is(original)
+                .and("metadata.original").exists(false).and(REFERENCIAS).exists(false)));
+        if (archivo == null) {
+            return;
+        }
+        if (referencias == 0) {
+            eliminar(original);
+            return;
+        }
+        byte[] contenido;
+        try (InputStream entrada = gridFs.getResource(archivo).getInputStream()) {
+            contenido = entrada.readAllBytes();
+        }
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(original).and(REFERENCIAS).exists(false)),
+                new Update().set(SHA256, resumen(contenido)).set(REFERENCIAS, referencias),
+                VariantesImagenes.COLECCION_ARCHIVOS);
+    }
+
+    /**
+     * Selecciona un original con recuento y en uso. Las variantes y los
+     * originales sin recuento no tienen el campo y nunca coinciden, así que no
+     * pueden reutilizarse ni liberarse a través de su URL.
+     */
+    private Criteria conRecuento(ObjectId original) {
+        return Criteria.where("_id").is(original).and(REFERENCIAS).gt(0);
+    }
+
+    private void eliminar(ObjectId original) {
+        gridFs.delete(new Query(Criteria.where("_id").is(original)));
+        gridFs.delete(new Query(Criteria.where("metadata.original").is(original)));
+    }
+
+    /**
+     * Deduce el tipo de una imagen por su firma (primeros bytes).
+     *
+     * @return Tipo MIME de la imagen, o null si no es de un tipo admitido
+     */
+    private static String tipoDe(byte[] contenido) {
+        if (empiezaPor(contenido, 0, 0xFF, 0xD8, 0xFF)) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        if (empiezaPor(contenido, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return MediaType.IMAGE_PNG_VALUE;
+        }
+        if (empiezaPor(contenido, 0, 'G', 'I', 'F', '8', '7', 'a')
+                || empiezaPor(contenido, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return MediaType.IMAGE_GIF_VALUE;
+        }
+        if (empiezaPor(contenido, 0, 'R', 'I', 'F', 'F') && empiezaPor(contenido, 8, 'W', 'E', 'B', 'P')) {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    private static boolean empiezaPor(byte[] contenido, int desde, int... firma) {
+        if (contenido.length < desde + firma.length) {
+            return false;
+        }
+        for (int i = 0; i < firma.length; i++) {
+            if ((contenido[desde + i] & 0xFF) != firma[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String resumen(byte[] contenido) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(contenido));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    private String idDe(String url) {
+        if (url == null || !url.startsWith(RUTA)) {
+            return null;
+        }
+        String id = url.substring(RUTA.length());
+        return ObjectId.isValid(id) ? id : null;
+    }
+}
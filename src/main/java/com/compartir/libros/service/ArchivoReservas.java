@@ -0,0 +1,162 @@
+package com.compartir.libros.service;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.compartir.libros.dto.PaginaDTO;
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.Reserva;
+import com.compartir.libros.model.ReservaArchivada;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Archivo de reservas cerradas (colección "reservas_archivadas").
+ *
+ * <p>Un proceso periódico recorre, por lotes, los libros que tienen reservas
+ * devueltas, las copia al archivo y las quita del libro, de modo que cada
+ * libro, y con él el catálogo, solo conserva sus reservas abiertas. La copia
+ * se hace antes de quitar las reservas y es idempotente, así que una pasada
+ * interrumpida se completa en la siguiente. El historial de cada libro se
+ * consulta paginado por cursor, completo o solo el de un usuario.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ArchivoReservas {
+
+    private final MongoTemplate mongoTemplate;
+    private final CatalogoLibrosService catalogoLibros;
+
+    @Value("${libros.archivo.tamano-lote:200}")
+    private int tamanoLote;
+
+    /**
+     * Archiva las reservas devueltas de todos los libros, por lotes de libros
+     * en orden de id, y sincroniza en el catálogo cada libro modificado.
+     *
+     * @return Número de reservas archivadas
+     */
+    @Scheduled(fixedDelayString = "${libros.archivo.intervalo-ms:3600000}",
+            initialDelayString = "${libros.archivo.intervalo-ms:3600000}")
+    public int archivar() {
+        int archivadas = 0;
+        int tamano = Math.max(1, tamanoLote);
+        try {
+            ObjectId ultimo = null;
+            List<Libro> lote;
+            do {
+                Criteria criterio = Criteria.where("reservas").elemMatch(Criteria.where("fechaDevolucion").ne(null));
+                if (ultimo != null) {
+                    criterio.and("_id").gt(ultimo);
+                }
+                Query query = new Query(criterio).with(Sort.by("_id")).limit(tamano);
+                query.fields().include("usuarioId").include("titulo").include("reservas");
+                lote = mongoTemplate.find(query, Libro.class);
+
+                for (Libro libro : lote) {
+                    archivadas += archivarLibro(libro);
+                    ultimo = libro.getId();
+                }
+            } while (lote.size() >= tamano);
+        } catch (Exception e) {
+            log.error("No se pudieron archivar las reservas cerradas", e);
+        }
+        if (archivadas > 0) {
+            log.info("Archivadas {} reservas cerradas", archivadas);
+        }
+        return archivadas;
+    }
+
+    /**
+     * Obtiene el historial de reservas cerradas de un libro, de la más
+     * recientemente archivada a la más antigua.
+     *
+     * @param libroId      Id del libro
+     * @param emailUsuario Email del usuario cuyas reservas se quieren, o null para las de todos
+     * @param cursor       Cursor devuelto por la página anterior, o null para la primera
+     * @param limite       Número máximo de reservas de la página, o null para el valor por defecto
+     * @return Página de reservas archivadas
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    public PaginaDTO<Reserva> historial(ObjectId libroId, String emailUsuario, String cursor, Integer limite) {
+        int tamano = Paginacion.limitar(limite);
+        Criteria criterio = Criteria.where("libroId").is(libroId);
+        if (emailUsuario != null) {
+            criterio.and("emailUsuario").is(emailUsuario);
+        }
+        ObjectId desde = Paginacion.decodificarCursor(cursor);
+        if (desde != null) {
+            criterio.and("_id").lt(desde);
+        }
+        Query query = new Query(criterio).with(Sort.by(Sort.Direction.DESC, "_id")).limit(tamano + 1);
+        List<ReservaArchivada> resultados = mongoTemplate.find(query, ReservaArchivada.class);
+
+        List<ReservaArchivada> pagina = resultados.subList(0, Math.min(tamano, resultados.size()));
+        String siguiente = resultados.size() > tamano
+                ? Paginacion.codificarCursor(pagina.get(pagina.size() - 1).getId()) : null;
+        return new PaginaDTO<>(pagina.stream()
+                .map(reserva -> new Reserva(reserva.getFechaReserva(), reserva.getFechaPrestamo(),
+                        reserva.getFechaDevolucion(), reserva.getEmailUsuario()))
+                .toList(), siguiente);
+    }
+
+    /**
+     * Copia al archivo las reservas devueltas de un libro, después las quita
+     * de él y sincroniza el libro resultante en el catálogo. Solo se quitan las
+     * copiadas: una reserva que se cierre entretanto se archivará en la
+     * siguiente pasada.
+     */
+    private int archivarLibro(Libro libro) {
+        List<Reserva> cerradas = libro.getReservas().stream()
+                .filter(reserva -> reserva.getFechaDevolucion() != null)
+                .toList();
+        if (cerradas.isEmpty()) {
+            return 0;
+        }
+
+        Date ahora = new Date();
+        BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                ReservaArchivada.class);
+        for (Reserva reserva : cerradas) {
+            operaciones.upsert(
+                    new Query(Criteria.where("libroId").is(libro.getId())
+                            .and("emailUsuario").is(reserva.getEmailUsuario())
+                            .and("fechaReserva").is(reserva.getFechaReserva())),
+                    new Update()
+                            .setOnInsert("usuarioId", libro.getUsuarioId())
+                            .setOnInsert("titulo", libro.getTitulo())
+                            .setOnInsert("fechaPrestamo", reserva.getFechaPrestamo())
+                            .setOnInsert("fechaDevolucion", reserva.getFechaDevolucion())
+                            .setOnInsert("archivadaEn", ahora));
+        }
+        operaciones.execute();
+
+        List<Date> fechas = cerradas.stream().map(Reserva::getFechaReserva).toList();
+        Libro actualizado = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(libro.getId())),
+                new Update().pull("reservas", new Document("fechaDevolucion", new Document("$ne", null))
+                        .append("fechaReserva", new Document("$in", fechas)))
+                        .inc("version", 1),
+                FindAndModifyOptions.options().returnNew(true), Libro.class);
+        if (actualizado != null) {
+            catalogoLibros.sincronizarLibro(actualizado);
+        }
+        return cerradas.size();
+    }
+}
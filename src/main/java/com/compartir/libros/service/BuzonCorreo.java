@@ -0,0 +1,234 @@
+package com.compartir.libros.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.compartir.libros.dto.email.CorreoMasivo;
+import com.compartir.libros.dto.email.ResultadoEnvio;
+import com.compartir.libros.model.CorreoPendiente;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buzón de salida de correo respaldado por MongoDB.
+ *
+ * <p>Los servicios encolan los correos con {@link #encolar}, o muchos a la vez
+ * con {@link #encolarMasivo}, en lugar de enviarlos durante la petición. Un
+ * proceso periódico reclama lotes de correos pendientes, los envía con el
+ * {@link TransporteCorreo} configurado a través de {@link EjecutorCorreo} y los
+ * elimina. Los correos se agrupan en envíos por lotes de hasta
+ * {@value TransporteCorreo#MAXIMO_POR_LOTE}, así que cada lote cuesta una sola
+ * llamada; el ejecutor toma una ficha por correo antes de enviarlo, de modo
+ * que se sigue respetando la cuota de Gmail. Los fallos se reintentan con
+ * espera exponencial y, agotados los intentos, el correo queda "descartado" en
+ * la colección para su revisión.</p>
+ *
+ * <p>Cada correo se reclama de forma atómica, así que varias instancias de la
+ * aplicación pueden despachar a la vez sin enviar dos veces el mismo. Un correo
+ * reclamado por una instancia que se detiene vuelve a estar disponible pasado
+ * el tiempo de reclamación.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BuzonCorreo {
+    public static final String PENDIENTE = "pendiente";
+    public static final String ENVIANDO = "enviando";
+    public static final String DESCARTADO = "descartado";
+
+    private final MongoTemplate mongoTemplate;
+    private final TransporteCorreo transporteCorreo;
+    private final EjecutorCorreo ejecutorCorreo;
+
+    @Value("${libros.correo.tamano-lote:100}")
+    private int tamanoLote;
+    @Value("${libros.correo.intentos-maximos:8}")
+    private int intentosMaximos;
+    @Value("${libros.correo.espera-base-ms:30000}")
+    private long esperaBaseMs;
+    @Value("${libros.correo.espera-maxima-ms:3600000}")
+    private long esperaMaximaMs;
+    @Value("${libros.correo.tiempo-reclamacion-ms:300000}")
+    private long tiempoReclamacionMs;
+
+    /**
+     * Guarda un correo para su envío en segundo plano.
+     *
+     * @param destinatario Email del destinatario
+     * @param asunto       Asunto del correo
+     * @param cuerpo       Cuerpo del correo en HTML
+     */
+    public void encolar(String destinatario, String asunto, String cuerpo) {
+        Date ahora = new Date();
+        mongoTemplate.insert(new CorreoPendiente(null, destinatario, asunto, cuerpo, PENDIENTE, 0, ahora, ahora,
+                null, null));
+    }
+
+    /**
+     * Guarda muchos correos para su envío en segundo plano con una sola
+     * escritura, por ejemplo para un anuncio a todos los usuarios. Se envían
+     * en lotes de hasta {@value TransporteCorreo#MAXIMO_POR_LOTE} por llamada.
+     *
+     * @param correos Correos a enviar
+     */
+    public void encolarMasivo(List<CorreoMasivo> correos) {
+        if (correos.isEmpty()) {
+            return;
+        }
+        Date ahora = new Date();
+        mongoTemplate.insert(correos.stream()
+                .map(correo -> new CorreoPendiente(null, correo.destinatario(), correo.asunto(), correo.cuerpo(),
+                        PENDIENTE, 0, ahora, ahora, null, null))
+                .toList(), CorreoPendiente.class);
+    }
+
+    /**
+     * Reclama lotes de correos pendientes cuyo siguiente intento ya ha llegado
+     * y los entrega a {@link EjecutorCorreo}, que los envía en segundo plano
+     * respetando la cuota de Gmail. Cada lote lleva como mucho
+     * {@value TransporteCorreo#MAXIMO_POR_LOTE} correos. Solo se reclaman
+     * correos hasta que el ejecutor tiene {@code libros.correo.tamano-lote}
+     * esperando, para que ninguno espere allí más que el tiempo de reclamación.
+     *
+     * @return Número de correos entregados al ejecutor
+     */
+    @Scheduled(fixedDelayString = "${libros.correo.intervalo-ms:5000}")
+    public int despachar() {
+        int despachados = 0;
+        try {
+            int admitidos = tamanoLote - ejecutorCorreo.correosEnEspera();
+            while (despachados < admitidos && ejecutorCorreo.tienePlazaLibre()) {
+                int maximo = Math.min(admitidos - despachados, TransporteCorreo.MAXIMO_POR_LOTE);
+                List<CorreoPendiente> lote = new ArrayList<>();
+                CorreoPendiente correo;
+                while (lote.size() < maximo && (correo = reclamar()) != null) {
+                    lote.add(correo);
+                }
+                if (lote.isEmpty()) {
+                    break;
+                }
+                try {
+                    ejecutorCorreo.enviar(lote.size(), () -> enviar(lote));
+                    despachados += lote.size();
+                } catch (RejectedExecutionException e) {
+                    lote.forEach(this::liberar);
+                    break;
+                }
+                if (lote.size() < maximo) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("No se pudo despachar el buzón de correo", e);
+        }
+        return despachados;
+    }
+
+    /**
+     * Reclama de forma atómica el siguiente correo listo para enviar, incluidos
+     * los que otra instancia reclamó hace demasiado tiempo sin terminar.
+     */
+    private CorreoPendiente reclamar() {
+        Date ahora = new Date();
+        Query query = new Query(new Criteria().orOperator(
+                Criteria.where("estado").is(PENDIENTE).and("siguienteIntento").lte(ahora),
+                Criteria.where("estado").is(ENVIANDO).and("reclamadoEn")
+                        .lt(new Date(ahora.getTime() - tiempoReclamacionMs))))
+                .with(Sort.by("siguienteIntento"));
+        Update update = new Update().set("estado", ENVIANDO).set("reclamadoEn", ahora);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+                CorreoPendiente.class);
+    }
+
+    /**
+     * Envía un lote reclamado: un correo suelto se envía directamente y varios
+     * se envían en una sola petición por lotes. Cada correo se elimina o se
+     * reintenta según su propio resultado.
+     */
+    private void enviar(List<CorreoPendiente> lote) {
+        if (lote.size() == 1) {
+            enviar(lote.get(0));
+            return;
+        }
+        List<ResultadoEnvio> resultados;
+        try {
+            resultados = transporteCorreo.enviarLote(lote.stream()
+                    .map(correo -> new CorreoMasivo(correo.getDestinatario(), correo.getAsunto(), correo.getCuerpo()))
+                    .toList());
+        } catch (Exception e) {
+            lote.forEach(correo -> registrarFallo(correo, String.valueOf(e.getMessage()), e));
+            return;
+        }
+        for (int i = 0; i < lote.size(); i++) {
+            CorreoPendiente correo = lote.get(i);
+            ResultadoEnvio resultado = resultados.get(i);
+            if (resultado.enviado()) {
+                eliminar(correo);
+            } else {
+                registrarFallo(correo, String.valueOf(resultado.error()), null);
+            }
+        }
+    }
+
+    private void enviar(CorreoPendiente correo) {
+        try {
+            transporteCorreo.enviar(correo.getDestinatario(), correo.getAsunto(), correo.getCuerpo());
+            eliminar(correo);
+        } catch (Exception e) {
+            registrarFallo(correo, String.valueOf(e.getMessage()), e);
+        }
+    }
+
+    private void eliminar(CorreoPendiente correo) {
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(correo.getId())), CorreoPendiente.class);
+    }
+
+    /**
+     * Devuelve al buzón un correo reclamado que no se llegó a intentar enviar.
+     */
+    private void liberar(CorreoPendiente correo) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(correo.getId())),
+                new Update().set("estado", PENDIENTE).unset("reclamadoEn"), CorreoPendiente.class);
+    }
+
+    /**
+     * Programa el siguiente intento de un correo que no se pudo enviar o lo
+     * descarta si ya no le quedan intentos.
+     *
+     * @param error Motivo del fallo
+     * @param causa Excepción que lo provocó, o null si el transporte solo informó del motivo
+     */
+    private void registrarFallo(CorreoPendiente correo, String error, Exception causa) {
+        int intentos = correo.getIntentos() + 1;
+        Update update = new Update()
+                .set("intentos", intentos)
+                .set("ultimoError", error)
+                .unset("reclamadoEn");
+        if (intentos >= intentosMaximos) {
+            update.set("estado", DESCARTADO);
+            log.error("Correo a {} descartado tras {} intentos: {}", correo.getDestinatario(), intentos, error, causa);
+        } else {
+            long espera = Math.min(esperaMaximaMs, esperaBaseMs << Math.min(intentos - 1, 20));
+            update.set("estado", PENDIENTE).set("siguienteIntento", new Date(System.currentTimeMillis() + espera));
+            log.warn("Fallo al enviar correo a {} (intento {}), se reintentará en {} ms", correo.getDestinatario(),
+                    intentos, espera);
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(correo.getId())), update,
+                CorreoPendiente.class);
+    }
+}
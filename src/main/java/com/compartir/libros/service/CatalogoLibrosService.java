@@ -0,0 +1,621 @@
+package com.compartir.libros.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import com.compartir.libros.config.IndicesMongoConfig;
+import com.compartir.libros.dto.PaginaDTO;
+import com.compartir.libros.dto.libro.FacetasDTO;
+import com.compartir.libros.dto.libro.LibroDTO;
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.LibroCatalogo;
+import com.compartir.libros.model.RegionUsuario;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.LibroRepository;
+import com.mongodb.MongoNamespace;
+import com.mongodb.client.model.RenameCollectionOptions;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Servicio que gestiona el modelo de lectura del catálogo público
+ * ({@link LibroCatalogo}, colección "catalogo_libros").
+ *
+ * <p>Todas las consultas públicas de libros (filtrado, búsqueda, facetas y
+ * exportación en flujo) se resuelven aquí sin leer documentos de usuario.
+ * Cada documento tiene el id de su libro: {@link LibroService} sincroniza solo
+ * el libro que cambia, y la copia no se sobrescribe con una versión anterior
+ * del libro, de modo que dos sincronizaciones simultáneas no se pisan. El
+ * catálogo completo puede reconstruirse arrancando la aplicación con la opción
+ * {@code --reconstruir-catalogo}; también se reconstruye automáticamente si se
+ * encuentra vacío.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CatalogoLibrosService {
+  /** Motor de búsqueda basado en el índice de texto de MongoDB, ordenado por relevancia. */
+  public static final String MOTOR_BUSQUEDA_TEXTO = "texto";
+  /** Estados posibles de un libro. */
+  public static final List<String> ESTADOS = List.of("disponible", "prestado", "reservado");
+  /** Opción de arranque que fuerza la reconstrucción completa del catálogo. */
+  public static final String OPCION_RECONSTRUIR = "reconstruir-catalogo";
+
+  private static final String COLECCION_RECONSTRUCCION = "catalogo_libros_reconstruccion";
+  private static final int TAMANO_LOTE = 1000;
+  private static final Sort ORDEN_CATALOGO = Sort.by("_id");
+
+  private final MongoTemplate mongoTemplate;
+  private final LibroRepository libroRepository;
+  private final IndiceTrigramasLibros indiceTrigramas;
+  private final IndicesMongoConfig indicesMongo;
+  private final ApplicationArguments argumentos;
+
+  @Value("${libros.busqueda.motor:trigramas}")
+  private String motorBusqueda;
+
+  private boolean reconstruyendo = false;
+
+  /**
+   * Filtra libros del catálogo, paginados por cursor.
+   *
+   * @param tematicaId ID de la temática
+   * @param estado     Estado del libro
+   * @param pais       País del propietario
+   * @param provincia  Provincia del propietario
+   * @param ciudad     Ciudad del propietario
+   * @param cursor     Cursor devuelto por la página anterior, o null para la primera
+   * @param limite     Número máximo de libros de la página
+   * @return Página de libros filtrados
+   */
+  public PaginaDTO<LibroDTO> filtrar(String tematicaId, String estado, String pais, String provincia,
+      String ciudad, String cursor, Integer limite) {
+    return consultarPagina(criterioFiltro(tematicaId, estado, pais, provincia, ciudad),
+        PosicionLibro.decodificar(cursor), Paginacion.limitar(limite));
+  }
+
+  /**
+   * Filtra libros del catálogo y los devuelve en flujo, leyendo del cursor de
+   * MongoDB a medida que se consumen. El flujo debe cerrarse tras su uso.
+   *
+   * @param tematicaId ID de la temática
+   * @param estado     Estado del libro
+   * @param pais       País del propietario
+   * @param provincia  Provincia del propietario
+   * @param ciudad     Ciudad del propietario
+   * @return Flujo de libros filtrados
+   */
+  public Stream<LibroDTO> transmitirFiltrados(String tematicaId, String estado, String pais, String provincia,
+      String ciudad) {
+    return transmitir(criterioFiltro(tematicaId, estado, pais, provincia, ciudad));
+  }
+
+  /**
+   * Calcula cuántos libros hay de cada temática, estado, país, provincia y
+   * ciudad en una única agregación con $facet.
+   *
+   * <p>Cada faceta se cuenta con todos los filtros salvo el suyo, de modo que
+   * muestra las alternativas al valor elegido (al filtrar por un estado se
+   * siguen viendo los recuentos de los demás estados). Quitar el país quita
+   * también la provincia y la ciudad, y quitar la provincia, la ciudad. El
+   * total sí aplica todos los filtros.</p>
+   *
+   * @param tematicaId ID de la temática
+   * @param estado     Estado del libro
+   * @param pais       País del propietario
+   * @param provincia  Provincia del propietario
+   * @param ciudad     Ciudad del propietario
+   * @return Recuentos por cada criterio de filtrado
+   */
+  public FacetasDTO obtenerFacetas(String tematicaId, String estado, String pais, String provincia, String ciudad) {
+    Criteria todos = criterioFiltro(tematicaId, estado, pais, provincia, ciudad);
+    Criteria porTematica = criterioFiltro(null, estado, pais, provincia, ciudad);
+    Criteria porEstado = criterioFiltro(tematicaId, null, pais, provincia, ciudad);
+    Criteria porPais = criterioFiltro(tematicaId, estado, null, null, null);
+    Criteria porProvincia = criterioFiltro(tematicaId, estado, pais, null, null);
+    Criteria porCiudad = criterioFiltro(tematicaId, estado, pais, provincia, null);
+
+    // Solo entran en $facet los libros que cuentan en alguna faceta; cada rama del $or puede usar su índice
+    List<Criteria> criterios = Stream.of(todos, porTematica, porEstado, porPais, porProvincia, porCiudad)
+        .distinct()
+        .toList();
+    Criteria alguna = criterios.size() == 1
+        ? criterios.get(0)
+        : new Criteria().orOperator(criterios);
+
+    Aggregation agregacion = Aggregation.newAggregation(
+        Aggregation.match(alguna),
+        Aggregation.project("tematicas", "estado", "paisUsuario", "provinciaUsuario", "ciudadUsuario"),
+        Aggregation.facet(Aggregation.match(todos), Aggregation.count().as("total")).as("total")
+            .and(Aggregation.match(porTematica), Aggregation.unwind("tematicas"),
+                Aggregation.group("tematicas").count().as("total"))
+            .as("tematicas")
+            .and(Aggregation.match(porEstado), Aggregation.group("estado").count().as("total")).as("estados")
+            .and(Aggregation.match(porPais), Aggregation.group("paisUsuario").count().as("total")).as("paises")
+            .and(Aggregation.match(porProvincia), Aggregation.group("provinciaUsuario").count().as("total"))
+            .as("provincias")
+            .and(Aggregation.match(porCiudad), Aggregation.group("ciudadUsuario").count().as("total"))
+            .as("ciudades"));
+
+    Document facetas = mongoTemplate.aggregate(agregacion, LibroCatalogo.class, Document.class)
+        .getUniqueMappedResult();
+    List<Document> total = facetas.getList("total", Document.class, List.of());
+
+    return new FacetasDTO(
+        total.isEmpty() ? 0 : ((Number) total.get(0).get("total")).longValue(),
+        convertirARecuentos(facetas, "tematicas"),
+        convertirARecuentos(facetas, "estados"),
+        convertirARecuentos(facetas, "paises"),
+        convertirARecuentos(facetas, "provincias"),
+        convertirARecuentos(facetas, "ciudades"));
+  }
+
+  /**
+   * Busca libros por título o autor.
+   * Con el motor de búsqueda "texto" los resultados se ordenan por relevancia
+   * y solo se devuelven los {@code limite} mejores, sin cursor de continuación;
+   * en otro caso se usa el índice de trigramas en memoria mientras esté listo.
+   *
+   * @param texto  Término de búsqueda
+   * @param cursor Cursor devuelto por la página anterior, o null para la primera
+   * @param limite Número máximo de libros de la página
+   * @return Página de libros que coinciden con la búsqueda
+   */
+  public PaginaDTO<LibroDTO> buscar(String texto, String cursor, Integer limite) {
+    int tamano = Paginacion.limitar(limite);
+    if (MOTOR_BUSQUEDA_TEXTO.equalsIgnoreCase(motorBusqueda)) {
+      return new PaginaDTO<>(buscarPorRelevancia(texto, tamano), null);
+    }
+
+    PosicionLibro desde = PosicionLibro.decodificar(cursor);
+    if (!indiceTrigramas.isListo()) {
+      return consultarPagina(criterioBusqueda(texto), desde, tamano);
+    }
+
+    List<PosicionLibro> posiciones = indiceTrigramas.buscar(texto, desde, tamano + 1);
+    String siguiente = posiciones.size() > tamano ? posiciones.get(tamano - 1).codificar() : null;
+    List<LibroDTO> libros = cargar(posiciones.subList(0, Math.min(tamano, posiciones.size())),
+        criterioBusqueda(texto));
+    return new PaginaDTO<>(libros, siguiente);
+  }
+
+  /**
+   * Busca libros por título o autor y los devuelve en flujo. El flujo debe
+   * cerrarse tras su uso.
+   *
+   * @param texto Término de búsqueda
+   * @return Flujo de libros que coinciden con la búsqueda
+   */
+  public Stream<LibroDTO> transmitirBusqueda(String texto) {
+    return transmitir(criterioBusqueda(texto));
+  }
+
+  /**
+   * Copia al catálogo el estado actual de un libro, salvo que el catálogo ya
+   * tenga una versión posterior. Los datos del propietario solo se escriben al
+   * añadir el libro al catálogo; después los mantiene
+   * {@link #sincronizarUsuario(Usuario)}.
+   *
+   * @param propietario Propietario del libro con su email y región
+   * @param libro       Libro tal como está guardado
+   */
+  public void sincronizarLibro(Usuario propietario, Libro libro) {
+    sincronizarLibro(propietario, libro, mongoTemplate.getCollectionName(LibroCatalogo.class));
+  }
+
+  /**
+   * Copia al catálogo el estado actual de un libro del que no se tiene el
+   * propietario, leyendo antes su email y región.
+   *
+   * @param libro Libro tal como está guardado
+   */
+  public void sincronizarLibro(Libro libro) {
+    Usuario propietario = leerPropietario(libro.getUsuarioId());
+    if (propietario != null) {
+      sincronizarLibro(propietario, libro);
+    }
+  }
+
+  /**
+   * Vuelve a copiar al catálogo un libro del que solo se conoce el id,
+   * leyéndolo antes; si el libro ya no existe, lo quita del catálogo.
+   *
+   * @param libroId Id del libro
+   */
+  public void sincronizarLibro(ObjectId libroId) {
+    Libro libro = mongoTemplate.findById(libroId, Libro.class);
+    if (libro != null) {
+      sincronizarLibro(libro);
+    } else {
+      eliminarLibro(libroId);
+    }
+  }
+
+  /**
+   * Quita un libro eliminado del catálogo.
+   *
+   * @param libroId Id del libro
+   */
+  public void eliminarLibro(ObjectId libroId) {
+    mongoTemplate.remove(new Query(Criteria.where("_id").is(libroId)), LibroCatalogo.class);
+  }
+
+  /**
+   * Actualiza el email y la región del propietario en todos sus libros del
+   * catálogo, sin leer ni reescribir los libros.
+   *
+   * @param usuario Usuario con su email y región actuales
+   */
+  public void sincronizarUsuario(Usuario usuario) {
+    mongoTemplate.updateMulti(new Query(Criteria.where("usuarioId").is(new ObjectId(usuario.getId()))),
+        actualizacionPropietario(usuario, false), LibroCatalogo.class);
+  }
+
+  /**
+   * Reconstruye el catálogo si se ha pedido con la opción de arranque
+   * {@code --reconstruir-catalogo} o si está vacío.
+   */
+  @Async
+  @EventListener(ApplicationReadyEvent.class)
+  public void reconstruirSiEsNecesario() {
+    try {
+      if (argumentos.containsOption(OPCION_RECONSTRUIR)
+          || !mongoTemplate.exists(new Query(), LibroCatalogo.class)) {
+        reconstruir();
+      }
+    } catch (Exception e) {
+      log.error("No se pudo reconstruir el catálogo de libros", e);
+    }
+  }
+
+  /**
+   * Reconstruye el catálogo completo a partir de la colección de libros,
+   * leyendo los de cada usuario por el índice de propietario.
+   * Se escribe en una colección auxiliar, en lotes, que sustituye a la actual
+   * de forma atómica al terminar.
+   *
+   * <p>Los cambios que cualquier instancia de la aplicación haga mientras tanto
+   * se escriben en la colección sustituida y se pierden con ella, así que al
+   * terminar se concilia el catálogo con la base de datos, que es lo único que
+   * comparten todas las instancias: se vuelven a sincronizar los libros cuya
+   * versión no coincide con la de su copia, se retiran las copias de libros
+   * eliminados y se actualizan los propietarios cuyos datos han cambiado.</p>
+   */
+  public void reconstruir() {
+    synchronized (this) {
+      if (reconstruyendo) {
+        log.warn("Ya hay una reconstrucción del catálogo en curso");
+        return;
+      }
+      reconstruyendo = true;
+    }
+
+    try {
+      mongoTemplate.dropCollection(COLECCION_RECONSTRUCCION);
+      indicesMongo.crearIndicesCatalogo(COLECCION_RECONSTRUCCION);
+
+      Query query = new Query();
+      query.fields().include("email").include("region");
+
+      List<LibroCatalogo> lote = new ArrayList<>();
+      long total = 0;
+      try (Stream<Usuario> usuarios = mongoTemplate.stream(query, Usuario.class)) {
+        for (Usuario usuario : (Iterable<Usuario>) usuarios::iterator) {
+          libroRepository.findByUsuarioIdOrderByIdAsc(new ObjectId(usuario.getId()))
+              .forEach(libro -> lote.add(convertirALibroCatalogo(usuario, libro)));
+          if (lote.size() >= TAMANO_LOTE) {
+            total += insertarLote(lote);
+          }
+        }
+      }
+      total += insertarLote(lote);
+
+      mongoTemplate.getCollection(COLECCION_RECONSTRUCCION).renameCollection(
+          new MongoNamespace(mongoTemplate.getDb().getName(), mongoTemplate.getCollectionName(LibroCatalogo.class)),
+          new RenameCollectionOptions().dropTarget(true));
+      log.info("Catálogo de libros reconstruido con {} libros", total);
+
+      conciliar();
+    } finally {
+      synchronized (this) {
+        reconstruyendo = false;
+      }
+    }
+  }
+
+  /**
+   * Corrige las copias del catálogo que no reflejan la base de datos,
+   * comparando solo ids, versiones y datos de propietario.
+   */
+  void conciliar() {
+    String catalogo = mongoTemplate.getCollectionName(LibroCatalogo.class);
+    String libros = mongoTemplate.getCollectionName(Libro.class);
+
+    // Libros cuya copia falta o tiene otra versión
+    Aggregation desactualizados = Aggregation.newAggregation(
+        Aggregation.project("version"),
+        Aggregation.lookup(catalogo, "_id", "_id", "copia"),
+        Aggregation.stage(new Document("$match", new Document("$expr", new Document("$ne", List.of(
+            new Document("$ifNull", List.of("$version", 0L)),
+            new Document("$arrayElemAt", List.of("$copia.version", 0))))))),
+        Aggregation.project("_id"));
+    List<ObjectId> libroIds = idsDe(mongoTemplate.aggregateStream(desactualizados, libros, Document.class));
+    libroIds.forEach(this::sincronizarLibro);
+
+    // Copias de libros que ya no existen
+    Aggregation huerfanas = Aggregation.newAggregation(
+        Aggregation.project("_id"),
+        Aggregation.lookup(libros, "_id", "_id", "libro"),
+        Aggregation.match(Criteria.where("libro").size(0)),
+        Aggregation.project("_id"));
+    List<ObjectId> eliminados = idsDe(mongoTemplate.aggregateStream(huerfanas, catalogo, Document.class));
+    eliminados.forEach(this::eliminarLibro);
+
+    // Propietarios cuyos datos en el catálogo no coinciden con su documento
+    Aggregation propietarios = Aggregation.newAggregation(
+        Aggregation.group("usuarioId")
+            .first("emailUsuario").as("emailUsuario")
+            .first("ciudadUsuario").as("ciudadUsuario")
+            .first("provinciaUsuario").as("provinciaUsuario")
+            .first("paisUsuario").as("paisUsuario"));
+    long usuarios = 0;
+    try (Stream<Document> grupos = mongoTemplate.aggregateStream(propietarios, catalogo, Document.class)) {
+      for (Document grupo : (Iterable<Document>) grupos::iterator) {
+        Usuario usuario = leerPropietario((ObjectId) grupo.remove("_id"));
+        if (usuario != null
+            && !actualizacionPropietario(usuario, false).getUpdateObject().get("$set", Document.class).equals(grupo)) {
+          sincronizarUsuario(usuario);
+          usuarios++;
+        }
+      }
+    }
+
+    if (!libroIds.isEmpty() || !eliminados.isEmpty() || usuarios > 0) {
+      log.info("Catálogo conciliado: {} libros resincronizados, {} retirados y {} propietarios actualizados",
+          libroIds.size(), eliminados.size(), usuarios);
+    }
+  }
+
+  private List<ObjectId> idsDe(Stream<Document> documentos) {
+    try (documentos) {
+      return documentos.map(documento -> documento.getObjectId("_id")).toList();
+    }
+  }
+
+  private long insertarLote(List<LibroCatalogo> lote) {
+    if (lote.isEmpty()) {
+      return 0;
+    }
+    mongoTemplate.insert(new ArrayList<>(lote), COLECCION_RECONSTRUCCION);
+    int insertados = lote.size();
+    lote.clear();
+    return insertados;
+  }
+
+  /**
+   * Inserta o actualiza la copia de un libro solo si la del catálogo es de una
+   * versión anterior. Si ya hay una igual o posterior, el upsert intenta
+   * insertar un documento con el mismo id y se descarta. Si la copia se acaba
+   * de insertar, se comprueba que el libro sigue existiendo, por si se eliminó
+   * mientras tanto y su retirada del catálogo llegó antes.
+   */
+  private void sincronizarLibro(Usuario propietario, Libro libro, String coleccion) {
+    Update update = actualizacionPropietario(propietario, true)
+        .set("usuarioId", libro.getUsuarioId())
+        .set("version", libro.getVersion())
+        .set("titulo", libro.getTitulo())
+        .set("autor", libro.getAutor())
+        .set("descripcion", libro.getDescripcion())
+        .set("portada", libro.getPortada())
+        .set("estado", libro.getEstado())
+        .set("tematicas", libro.getTematicas())
+        .set("reservas", libro.getReservas());
+    Query query = new Query(Criteria.where("_id").is(libro.getId()).and("version").lt(libro.getVersion()));
+    try {
+      if (mongoTemplate.upsert(query, update, LibroCatalogo.class, coleccion).getUpsertedId() != null
+          && !mongoTemplate.exists(new Query(Criteria.where("_id").is(libro.getId())), Libro.class)) {
+        mongoTemplate.remove(new Query(Criteria.where("_id").is(libro.getId())), LibroCatalogo.class, coleccion);
+      }
+    } catch (DuplicateKeyException e) {
+      log.debug("El catálogo ya tiene una versión posterior del libro {}", libro.getId());
+    }
+  }
+
+  /**
+   * Construye la actualización de los datos del propietario de un libro,
+   * solo para el alta del documento o para cualquier actualización.
+   */
+  private Update actualizacionPropietario(Usuario usuario, boolean soloAlInsertar) {
+    RegionUsuario region = usuario.getRegion();
+    Map<String, Object> campos = new LinkedHashMap<>();
+    campos.put("emailUsuario", usuario.getEmail());
+    campos.put("ciudadUsuario", region != null ? region.getCiudad() : null);
+    campos.put("provinciaUsuario", region != null ? region.getProvincia() : null);
+    campos.put("paisUsuario", region != null ? region.getPais() : null);
+
+    Update update = new Update();
+    campos.forEach((campo, valor) -> {
+      if (soloAlInsertar) {
+        update.setOnInsert(campo, valor);
+      } else {
+        update.set(campo, valor);
+      }
+    });
+    return update;
+  }
+
+  private Usuario leerPropietario(ObjectId usuarioId) {
+    Query query = new Query(Criteria.where("_id").is(usuarioId));
+    query.fields().include("email").include("region");
+    return mongoTemplate.findOne(query, Usuario.class);
+  }
+
+  private LibroCatalogo convertirALibroCatalogo(Usuario usuario, Libro libro) {
+    RegionUsuario region = usuario.getRegion();
+    return new LibroCatalogo(
+        libro.getId(),
+        libro.getUsuarioId(),
+        libro.getVersion(),
+        libro.getTitulo(),
+        libro.getAutor(),
+        libro.getDescripcion(),
+        libro.getPortada(),
+        libro.getEstado(),
+        libro.getTematicas(),
+        libro.getReservas(),
+        usuario.getEmail(),
+        region != null ? region.getCiudad() : null,
+        region != null ? region.getProvincia() : null,
+        region != null ? region.getPais() : null);
+  }
+
+  /**
+   * Obtiene una página del catálogo ordenada por id de libro. La página
+   * continúa después del cursor mediante esa misma clave, que está al final de
+   * los índices compuestos del catálogo, así que el coste de cada página no
+   * depende de su profundidad, y un libro añadido o eliminado no desplaza a
+   * los demás entre páginas.
+   */
+  private PaginaDTO<LibroDTO> consultarPagina(Criteria criterio, PosicionLibro desde, int limite) {
+    if (desde != null) {
+      criterio = new Criteria().andOperator(criterio, Criteria.where("_id").gt(desde.libroId()));
+    }
+    Query query = new Query(criterio).with(ORDEN_CATALOGO).limit(limite + 1);
+    List<LibroCatalogo> resultados = mongoTemplate.find(query, LibroCatalogo.class);
+
+    List<LibroCatalogo> pagina = resultados.subList(0, Math.min(limite, resultados.size()));
+    String siguiente = null;
+    if (resultados.size() > limite) {
+      LibroCatalogo ultimo = pagina.get(pagina.size() - 1);
+      siguiente = new PosicionLibro(ultimo.getId()).codificar();
+    }
+    return new PaginaDTO<>(pagina.stream().map(this::convertirALibroDTO).toList(), siguiente);
+  }
+
+  private Stream<LibroDTO> transmitir(Criteria criterio) {
+    Query query = new Query(criterio).with(ORDEN_CATALOGO);
+    return mongoTemplate.stream(query, LibroCatalogo.class).map(this::convertirALibroDTO);
+  }
+
+  /**
+   * Recupera los libros indicados, volviendo a comprobar el criterio por si el
+   * libro ha cambiado desde que se localizó.
+   */
+  private List<LibroDTO> cargar(List<PosicionLibro> posiciones, Criteria criterio) {
+    if (posiciones.isEmpty()) {
+      return List.of();
+    }
+
+    Criteria criterioLibros = Criteria.where("_id").in(posiciones.stream().map(PosicionLibro::libroId).toList());
+    Query query = new Query(new Criteria().andOperator(criterioLibros, criterio)).with(ORDEN_CATALOGO);
+    return mongoTemplate.find(query, LibroCatalogo.class).stream()
+        .map(this::convertirALibroDTO)
+        .toList();
+  }
+
+  /**
+   * Busca libros mediante el índice de texto del catálogo (analizador en
+   * español sobre título, autor y descripción), ordenados por relevancia.
+   */
+  private List<LibroDTO> buscarPorRelevancia(String texto, int limite) {
+    if (texto == null || texto.isBlank()) {
+      return List.of();
+    }
+    Query query = TextQuery.queryText(TextCriteria.forLanguage("spanish").matching(texto))
+        .sortByScore()
+        .limit(limite);
+    return mongoTemplate.find(query, LibroCatalogo.class).stream()
+        .map(this::convertirALibroDTO)
+        .toList();
+  }
+
+  private Criteria criterioFiltro(String tematicaId, String estado, String pais, String provincia, String ciudad) {
+    Criteria criterio = new Criteria();
+    if (tieneValor(pais)) {
+      criterio.and("paisUsuario").is(pais);
+      if (tieneValor(provincia)) {
+        criterio.and("provinciaUsuario").is(provincia);
+        if (tieneValor(ciudad)) {
+          criterio.and("ciudadUsuario").is(ciudad);
+        }
+      }
+    }
+    if (tematicaId != null) {
+      criterio.and("tematicas").is(new ObjectId(tematicaId));
+    }
+    // Sin estado se piden todos: así los índices, que tienen el estado antes del id, sirven también el orden
+    if (tieneValor(estado)) {
+      criterio.and("estado").is(estado.toLowerCase());
+    } else {
+      criterio.and("estado").in(ESTADOS);
+    }
+    return criterio;
+  }
+
+  private Criteria criterioBusqueda(String texto) {
+    String patron = Pattern.quote(texto);
+    return new Criteria().orOperator(
+        Criteria.where("titulo").regex(patron, "i"),
+        Criteria.where("autor").regex(patron, "i"));
+  }
+
+  private Map<String, Long> convertirARecuentos(Document facetas, String faceta) {
+    Map<String, Long> recuentos = new LinkedHashMap<>();
+    facetas.getList(faceta, Document.class, List.of()).stream()
+        .filter(grupo -> grupo.get("_id") != null)
+        .sorted(Comparator.comparing((Document grupo) -> ((Number) grupo.get("total")).longValue()).reversed())
+        .forEach(grupo -> {
+          Object valor = grupo.get("_id");
+          String clave = valor instanceof ObjectId id ? id.toHexString() : valor.toString();
+          recuentos.put(clave, ((Number) grupo.get("total")).longValue());
+        });
+    return recuentos;
+  }
+
+  private LibroDTO convertirALibroDTO(LibroCatalogo libro) {
+    return new LibroDTO(
+        libro.getTitulo(),
+        libro.getAutor(),
+        libro.getDescripcion(),
+        libro.getPortada(),
+        libro.getEstado(),
+        libro.getTematicas() != null
+            ? libro.getTematicas().stream().map(ObjectId::toHexString).toList()
+            : List.of(),
+        libro.getReservas(),
+        libro.getEmailUsuario(),
+        libro.getCiudadUsuario(),
+        libro.getProvinciaUsuario(),
+        libro.getPaisUsuario());
+  }
+
+  private boolean tieneValor(String valor) {
+    return valor != null && !valor.isBlank() && !valor.equalsIgnoreCase("todos");
+  }
+}
@@ -0,0 +1,198 @@
+package com.compartir.libros.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ejecutor dedicado a los envíos de correo.
+ *
+ * <p>Usa hilos virtuales cuando la JVM los ofrece (Java 21 o superior) y, si
+ * no, un grupo fijo de hilos. El número de envíos admitidos a la vez (en
+ * curso más en espera) está acotado: cuando se llena, los nuevos envíos se
+ * rechazan en lugar de acumularse. Antes de cada envío se toma una ficha por
+ * correo de un {@link LimitadorTasa} dimensionado según la cuota de envío de
+ * Gmail; un envío por lotes mayor que la ráfaga del limitador espera a que se
+ * recarguen las fichas que le faltan.</p>
+ *
+ * <p>Publica en Actuator las métricas {@code libros.correo.cola} (correos
+ * esperando), {@code libros.correo.en.curso}, {@code libros.correo.espera}
+ * (tiempo desde que se encola hasta que empieza el envío) y
+ * {@code libros.correo.rechazados}.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+public class EjecutorCorreo {
+
+    private final ExecutorService ejecutor;
+    private final Semaphore plazas;
+    private final Semaphore envios;
+    private final LimitadorTasa limitador;
+    private final AtomicInteger enEspera = new AtomicInteger();
+    private final AtomicLong enCurso = new AtomicLong();
+    private final Timer espera;
+    private final Counter rechazados;
+
+    public EjecutorCorreo(
+            MeterRegistry registro,
+            @Value("${libros.correo.hilos-virtuales:true}") boolean hilosVirtuales,
+            @Value("${libros.correo.concurrencia:4}") int concurrencia,
+            @Value("${libros.correo.capacidad-cola:100}") int capacidadCola,
+            @Value("${libros.correo.envios-por-segundo:2}") double enviosPorSegundo,
+            @Value("${libros.correo.rafaga:5}") int rafaga) {
+        int hilos = Math.max(1, concurrencia);
+        this.ejecutor = crearEjecutor(hilosVirtuales, hilos);
+        this.plazas = new Semaphore(hilos + Math.max(0, capacidadCola));
+        this.envios = new Semaphore(hilos);
+        this.limitador = new LimitadorTasa(enviosPorSegundo, rafaga);
+
+        Gauge.builder("libros.correo.cola", enEspera, AtomicInteger::get)
+                .description("Correos admitidos que esperan turno o fichas")
+                .register(registro);
+        Gauge.builder("libros.correo.en.curso", enCurso, AtomicLong::get)
+                .description("Envíos de correo en curso")
+                .register(registro);
+        this.espera = Timer.builder("libros.correo.espera")
+                .description("Tiempo desde que se admite un envío hasta que empieza")
+                .register(registro);
+        this.rechazados = Counter.builder("libros.correo.rechazados")
+                .description("Envíos rechazados por estar llena la cola")
+                .register(registro);
+    }
+
+    /**
+     * Indica si hay sitio para admitir otro envío.
+     *
+     * @return true si un envío enviado ahora no sería rechazado por falta de sitio
+     */
+    public boolean tienePlazaLibre() {
+        return plazas.availablePermits() > 0;
+    }
+
+    /**
+     * Número de correos admitidos que aún no han empezado a enviarse, contando
+     * todos los de cada envío por lotes.
+     *
+     * @return Correos esperando turno o fichas
+     */
+    public int correosEnEspera() {
+        return enEspera.get();
+    }
+
+    /**
+     * Admite el envío de un correo para ejecutarlo en segundo plano respetando
+     * la concurrencia máxima y la tasa de envío.
+     *
+     * @param envio Envío a ejecutar
+     * @return Resultado del envío, completado al terminar
+     * @throws RejectedExecutionException si la cola está llena
+     */
+    public CompletableFuture<Void> enviar(Runnable envio) {
+        return enviar(1, envio);
+    }
+
+    /**
+     * Admite un envío de varios correos (por ejemplo, una petición por lotes
+     * de Gmail), que ocupa una sola plaza pero toma una ficha del limitador por
+     * cada correo antes de empezar.
+     *
+     * @param correos Correos que lleva el envío, al menos uno
+     * @param envio   Envío a ejecutar
+     * @return Resultado del envío, completado al terminar
+     * @throws IllegalArgumentException   si el envío no lleva ningún correo
+     * @throws RejectedExecutionException si la cola está llena
+     */
+    public CompletableFuture<Void> enviar(int correos, Runnable envio) {
+        if (correos < 1) {
+            throw new IllegalArgumentException("Un envío debe llevar al menos un correo");
+        }
+        if (!plazas.tryAcquire()) {
+            rechazados.increment();
+            throw new RejectedExecutionException("La cola de envíos de correo está llena");
+        }
+        long admitido = System.nanoTime();
+        enEspera.addAndGet(correos);
+        try {
+            return CompletableFuture.runAsync(() -> ejecutar(envio, correos, admitido), ejecutor);
+        } catch (RejectedExecutionException e) {
+            enEspera.addAndGet(-correos);
+            plazas.release();
+            rechazados.increment();
+            throw e;
+        }
+    }
+
+    private void ejecutar(Runnable envio, int correos, long admitido) {
+        boolean conTurno = false;
+        try {
+            envios.acquire();
+            conTurno = true;
+            limitador.adquirir(correos);
+            enEspera.addAndGet(-correos);
+            espera.record(System.nanoTime() - admitido, TimeUnit.NANOSECONDS);
+            enCurso.incrementAndGet();
+            try {
+                envio.run();
+            } finally {
+                enCurso.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            enEspera.addAndGet(-correos);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Envío de correo interrumpido", e);
+        } finally {
+            if (conTurno) {
+                envios.release();
+            }
+            plazas.release();
+        }
+    }
+
+    @PreDestroy
+    public void detener() throws InterruptedException {
+        ejecutor.shutdown();
+        if (!ejecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            ejecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Crea un ejecutor de hilos virtuales si la JVM lo permite; se obtiene por
+     * reflexión para seguir compilando y funcionando en Java 17.
+     */
+    private static ExecutorService crearEjecutor(boolean hilosVirtuales, int hilos) {
+        if (hilosVirtuales) {
+            try {
+                Method fabrica = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                log.info("Envío de correo con hilos virtuales");
+                return (ExecutorService) fabrica.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.info("Hilos virtuales no disponibles, envío de correo con {} hilos", hilos);
+            }
+        }
+        AtomicInteger contador = new AtomicInteger();
+        return Executors.newFixedThreadPool(hilos, tarea -> {
+            Thread hilo = new Thread(tarea, "correo-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+}
@@ -1,5 +1,6 @@
 package com.compartir.libros.service;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
@@ -10,17 +11,22 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpStatus;
 
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpStatusCodes;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
-import com.google.api.client.auth.oauth2.BearerToken;
-import com.google.api.client.auth.oauth2.Credential;
-import com.google.api.client.auth.oauth2.TokenResponse;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.model.Message;
+import com.compartir.libros.dto.email.CorreoMasivo;
 import com.compartir.libros.dto.email.GmailCredential;
 import com.compartir.libros.dto.email.GoogleTokenResponse;
+import com.compartir.libros.dto.email.ResultadoEnvio;
 
 import jakarta.activation.DataHandler;
 import jakarta.activation.DataSource;
@@ -34,16 +40,43 @@ import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
 import jakarta.mail.util.ByteArrayDataSource;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Properties;
 
+/**
+ * Servicio de envío de correo a través de la API de Gmail.
+ *
+ * <p>El token de acceso se guarda en memoria y solo se renueva cuando está a
+ * punto de caducar; si varias peticiones lo necesitan a la vez, una sola lo
+ * renueva y el resto reutiliza el resultado. El cliente HTTP y el cliente de
+ * Gmail se crean una única vez, así que cada correo cuesta una sola llamada a
+ * la API.</p>
+ *
+ * <p>Es el {@link TransporteCorreo} por defecto; no se crea cuando
+ * {@code libros.correo.transporte} elige otro.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
 @Service
-public class GmailAPIService {
+@ConditionalOnProperty(name = "libros.correo.transporte", havingValue = "gmail", matchIfMissing = true)
+public class GmailAPIService implements TransporteCorreo {
 
     private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
-    private HttpTransport httpTransport;
-    private GmailCredential gmailCredential;
+    private static final String URL_TOKEN = "https://www.googleapis.com/oauth2/v4/token";
+    /** Margen antes de la caducidad a partir del cual el token se renueva. */
+    private static final long MARGEN_RENOVACION_MS = 60_000;
+    /** Validez supuesta si Google no indica la caducidad del token. */
+    private static final long VALIDEZ_POR_DEFECTO_MS = 5 * 60_000;
+
+    private final HttpTransport httpTransport;
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final Object candadoToken = new Object();
+    private volatile TokenAcceso tokenAcceso;
+    private volatile Gmail gmail;
 
     @Value("${spring.google.client-id}")
     private String clientId;
@@ -54,17 +87,27 @@ public class GmailAPIService {
     @Value("${spring.google.from-email}")
     private String fromEmail;
 
-    @SneakyThrows
+    /**
+     * Token de acceso junto con el instante en que deja de ser válido.
+     */
+    private record TokenAcceso(String valor, long caducaEn) {
+
+        boolean vigente() {
+            return System.currentTimeMillis() < caducaEn - MARGEN_RENOVACION_MS;
+        }
+    }
+
     public GmailAPIService() {
+        this(crearTransporte());
+    }
 
-        this.httpTransport = GoogleNetHttpTransport.newTrustedTransport();
-        this.gmailCredential = new GmailCredential(
-                clientId,
-                secretKey,
-                refreshToken,
-                null,
-                null,
-                fromEmail);
+    GmailAPIService(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    @SneakyThrows
+    private static HttpTransport crearTransporte() {
+        return GoogleNetHttpTransport.newTrustedTransport();
     }
 
     public boolean sendMessage(
@@ -73,24 +116,145 @@ public class GmailAPIService {
             String body,
             MultipartFile attachment) throws MessagingException, IOException {
 
-        refreshAccessToken();
-
         Message message = createMessageWithEmail(
-                createEmail(toEmail, gmailCredential.userEmail(), subject, body, attachment));
+                createEmail(toEmail, fromEmail, subject, body, attachment));
 
-        return createGmail()
+        return getGmail()
                 .users()
                 .messages()
-                .send(gmailCredential.userEmail(), message)
+                .send(fromEmail, message)
                 .execute()
                 .getLabelIds()
                 .contains("SENT");
     }
 
-    private Gmail createGmail() {
-        Credential credential = authorize();
-        return new Gmail.Builder(httpTransport, JSON_FACTORY, credential)
-                .build();
+    @Override
+    public boolean enviar(String destinatario, String asunto, String cuerpo) throws MessagingException, IOException {
+        return sendMessage(destinatario, asunto, cuerpo, null);
+    }
+
+    @Override
+    public List<ResultadoEnvio> enviarLote(List<CorreoMasivo> correos) {
+        return sendBatch(correos);
+    }
+
+    /**
+     * Envía muchos correos agrupándolos en peticiones por lotes de Gmail, de
+     * modo que cada {@value #MAXIMO_POR_LOTE} correos cuestan una sola llamada HTTP.
+     * El fallo de un correo no impide el envío del resto.
+     *
+     * <p>No limita la tasa por sí mismo, igual que {@link #enviar}: el buzón de
+     * correo lo llama a través de {@link EjecutorCorreo}, que antes de cada
+     * lote toma del limitador una ficha por correo.</p>
+     *
+     * @param correos Correos a enviar
+     * @return Resultado de cada correo, en el mismo orden que la entrada
+     */
+    public List<ResultadoEnvio> sendBatch(List<CorreoMasivo> correos) {
+        Gmail cliente = getGmail();
+        ResultadoEnvio[] resultados = new ResultadoEnvio[correos.size()];
+
+        for (int inicio = 0; inicio < correos.size(); inicio += MAXIMO_POR_LOTE) {
+            int fin = Math.min(correos.size(), inicio + MAXIMO_POR_LOTE);
+            BatchRequest lote = cliente.batch();
+            for (int i = inicio; i < fin; i++) {
+                CorreoMasivo correo = correos.get(i);
+                int posicion = i;
+                try {
+                    Message message = createMessageWithEmail(
+                            createEmail(correo.destinatario(), fromEmail, correo.asunto(), correo.cuerpo(), null));
+                    cliente.users().messages().send(fromEmail, message).queue(lote, new JsonBatchCallback<Message>() {
+                        @Override
+                        public void onSuccess(Message enviado, HttpHeaders cabeceras) {
+                            resultados[posicion] = new ResultadoEnvio(correo.destinatario(), true, enviado.getId(), null);
+                        }
+
+                        @Override
+                        public void onFailure(GoogleJsonError error, HttpHeaders cabeceras) {
+                            resultados[posicion] = new ResultadoEnvio(correo.destinatario(), false, null,
+                                    error.getCode() + " " + error.getMessage());
+                        }
+                    });
+                } catch (Exception e) {
+                    resultados[posicion] = new ResultadoEnvio(correo.destinatario(), false, null, e.getMessage());
+                }
+            }
+
+            if (lote.size() > 0) {
+                try {
+                    lote.execute();
+                } catch (IOException e) {
+                    log.error("Falló la petición por lotes de Gmail", e);
+                }
+            }
+            // Los correos sin respuesta (petición fallida o respuesta incompleta) se dan por no enviados
+            for (int i = inicio; i < fin; i++) {
+                if (resultados[i] == null) {
+                    resultados[i] = new ResultadoEnvio(correos.get(i).destinatario(), false, null,
+                            "Sin respuesta de Gmail");
+                }
+            }
+        }
+        return List.of(resultados);
+    }
+
+    /**
+     * Devuelve el cliente de Gmail compartido, creándolo la primera vez. Cada
+     * petición lleva el token de acceso vigente y, si Google lo rechaza por
+     * haber caducado antes de lo previsto, se renueva y se repite una vez.
+     */
+    private Gmail getGmail() {
+        Gmail actual = gmail;
+        if (actual == null) {
+            synchronized (this) {
+                if (gmail == null) {
+                    HttpRequestInitializer inicializador = request -> {
+                        request.getHeaders().setAuthorization("Bearer " + obtenerTokenAcceso());
+                        request.setUnsuccessfulResponseHandler((peticion, respuesta, reintentable) -> {
+                            if (respuesta.getStatusCode() != HttpStatusCodes.STATUS_CODE_UNAUTHORIZED || !reintentable) {
+                                return false;
+                            }
+                            invalidarToken(peticion.getHeaders().getAuthorization());
+                            peticion.getHeaders().setAuthorization("Bearer " + obtenerTokenAcceso());
+                            return true;
+                        });
+                    };
+                    gmail = new Gmail.Builder(httpTransport, JSON_FACTORY, inicializador)
+                            .setBatchPath("batch/gmail/v1")
+                            .build();
+                }
+                actual = gmail;
+            }
+        }
+        return actual;
+    }
+
+    /**
+     * Obtiene un token de acceso vigente, renovándolo solo si hace falta.
+     */
+    private String obtenerTokenAcceso() {
+        TokenAcceso actual = tokenAcceso;
+        if (actual != null && actual.vigente()) {
+            return actual.valor();
+        }
+        synchronized (candadoToken) {
+            // Otra petición puede haberlo renovado mientras se esperaba el candado
+            actual = tokenAcceso;
+            if (actual == null || !actual.vigente()) {
+                actual = refreshAccessToken();
+                tokenAcceso = actual;
+            }
+            return actual.valor();
+        }
+    }
+
+    private void invalidarToken(String cabeceraRechazada) {
+        synchronized (candadoToken) {
+            TokenAcceso actual = tokenAcceso;
+            if (actual != null && ("Bearer " + actual.valor()).equals(cabeceraRechazada)) {
+                tokenAcceso = null;
+            }
+        }
     }
 
     private MimeMessage createEmail(
@@ -120,7 +284,7 @@ public class GmailAPIService {
                 bodyPart.setFileName(attachment.getOriginalFilename());
                 multipart.addBodyPart(bodyPart);
             } catch (Exception e) {
-                e.printStackTrace();
+                log.error("No se pudo adjuntar el archivo {} al correo", attachment.getOriginalFilename(), e);
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                         "Not able to process request");
             }
@@ -141,22 +305,8 @@ public class GmailAPIService {
                 .setRaw(Base64.encodeBase64URLSafeString(buffer.toByteArray()));
     }
 
-    private Credential authorize() {
-
-        try {
-            TokenResponse tokenResponse = refreshAccessToken();
-            return new Credential(BearerToken.authorizationHeaderAccessMethod()).setFromTokenResponse(
-                    tokenResponse);
+    private TokenAcceso refreshAccessToken() {
 
-        } catch (Exception e) {
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                    "Not able to process request.");
-        }
-    }
-
-    private TokenResponse refreshAccessToken() {
-
-        RestTemplate restTemplate = new RestTemplate();
         GmailCredential gmailCredentialsDto = new GmailCredential(
                 clientId,
                 secretKey,
@@ -170,22 +320,17 @@ public class GmailAPIService {
         try {
 
             GoogleTokenResponse response = restTemplate.postForObject(
-                    "https://www.googleapis.com/oauth2/v4/token",
+                    URL_TOKEN,
                     entity,
                     GoogleTokenResponse.class);
 
-            gmailCredential = new GmailCredential(
-                    clientId,
-                    secretKey,
-                    refreshToken,
-                    null,
-                    response.getAccessToken(),
-                    fromEmail);
-
-            return response;
+            long validezMs = response.getValidezSegundos() != null
+                    ? response.getValidezSegundos() * 1000L
+                    : VALIDEZ_POR_DEFECTO_MS;
+            return new TokenAcceso(response.getAccessToken(), System.currentTimeMillis() + validezMs);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("No se pudo renovar el token de acceso de Gmail", e);
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                     "Not able to process request.");
         }
@@ -0,0 +1,93 @@
+package com.compartir.libros.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+
+/**
+ * Imagen guardada en GridFS, expuesta como recurso para servirla por HTTP.
+ *
+ * <p>El contenido no se abre hasta que se lee, y cada lectura abre su propia
+ * descarga, de modo que una respuesta 304 no toca los fragmentos y una
+ * petición con varios rangos puede recorrer el archivo más de una vez.</p>
+ *
+ * @author Sergio
+ */
+public class ImagenAlmacenada extends AbstractResource {
+
+    private final GridFsOperations gridFs;
+    private final GridFSFile archivo;
+    private final boolean definitiva;
+
+    ImagenAlmacenada(GridFsOperations gridFs, GridFSFile archivo, boolean definitiva) {
+        this.gridFs = gridFs;
+        this.archivo = archivo;
+        this.definitiva = definitiva;
+    }
+
+    /**
+     * Identificador del archivo servido (el original o una de sus variantes).
+     * Un archivo no cambia nunca: al sustituir una imagen se guarda otra con un
+     * identificador nuevo.
+     *
+     * @return Id del archivo en hexadecimal
+     */
+    public String getId() {
+        return archivo.getObjectId().toHexString();
+    }
+
+    /**
+     * Indica si es la respuesta definitiva para el tamaño pedido. No lo es
+     * cuando se sirve el original porque la variante todavía no se ha
+     * generado.
+     *
+     * @return true si la respuesta puede guardarse en caché sin revalidarla
+     */
+    public boolean isDefinitiva() {
+        return definitiva;
+    }
+
+    /**
+     * Tipo MIME con el que se guardó la imagen.
+     *
+     * @return Tipo de contenido
+     */
+    public String getContentType() {
+        return new GridFsResource(archivo).getContentType();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return gridFs.getResource(archivo).getInputStream();
+    }
+
+    @Override
+    public long contentLength() {
+        return archivo.getLength();
+    }
+
+    @Override
+    public long lastModified() {
+        return archivo.getUploadDate().getTime();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public String getFilename() {
+        return archivo.getFilename();
+    }
+
+    @Override
+    public String getDescription() {
+        return "Imagen [" + getId() + "]";
+    }
+}
@@ -0,0 +1,294 @@
+package com.compartir.libros.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import com.compartir.libros.model.Libro;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Índice invertido de trigramas en memoria sobre el título y el autor de todos
+ * los libros del catálogo. Permite resolver búsquedas por subcadena sin
+ * recorrer la colección de usuarios.
+ *
+ * <p>El índice se construye en segundo plano al arrancar la aplicación y se
+ * mantiene actualizado desde {@link LibroService} libro a libro, por su id.
+ * Cada entrada guarda la versión del libro de la que procede, de modo que una
+ * actualización que llega después de otra más reciente no la deshace.
+ * Mientras no está listo, las búsquedas deben resolverse contra la base de
+ * datos.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IndiceTrigramasLibros {
+
+    private static final int LONGITUD_TRIGRAMA = 3;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ReadWriteLock candado = new ReentrantReadWriteLock();
+    private final TreeMap<PosicionLibro, EntradaLibro> entradas = new TreeMap<>();
+    private final Map<String, NavigableSet<PosicionLibro>> trigramas = new HashMap<>();
+    // Un valor nulo indica que el libro se eliminó durante la reconstrucción
+    private final Map<PosicionLibro, EntradaLibro> cambiosDuranteReconstruccion = new HashMap<>();
+    private boolean reconstruyendo = false;
+    private volatile boolean listo = false;
+
+    /**
+     * Título y autor normalizados de un libro indexado, con la versión del
+     * libro de la que proceden.
+     */
+    private record EntradaLibro(String titulo, String autor, long version) {
+
+        boolean contiene(String texto) {
+            return titulo.contains(texto) || autor.contains(texto);
+        }
+    }
+
+    /**
+     * Indica si el índice ha terminado su construcción inicial.
+     *
+     * @return true si el índice puede usarse para buscar
+     */
+    public boolean isListo() {
+        return listo;
+    }
+
+    /**
+     * Reconstruye el índice completo leyendo únicamente el título, el autor y
+     * la versión de cada libro.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruir() {
+        candado.writeLock().lock();
+        try {
+            reconstruyendo = true;
+        } finally {
+            candado.writeLock().unlock();
+        }
+
+        try {
+            Query query = new Query();
+            query.fields().include("titulo").include("autor").include("version");
+
+            Map<PosicionLibro, EntradaLibro> nuevasEntradas = new HashMap<>();
+            try (Stream<Document> libros = mongoTemplate.stream(query, Document.class,
+                    mongoTemplate.getCollectionName(Libro.class))) {
+                libros.forEach(libro -> nuevasEntradas.put(new PosicionLibro(libro.getObjectId("_id")),
+                        crearEntrada(libro.getString("titulo"), libro.getString("autor"),
+                                version(libro))));
+            }
+
+            candado.writeLock().lock();
+            try {
+                entradas.clear();
+                trigramas.clear();
+                nuevasEntradas.forEach(this::agregarEntrada);
+                // Los cambios recibidos durante la lectura pueden no estar reflejados en ella
+                cambiosDuranteReconstruccion.forEach(this::sustituirEntrada);
+                listo = true;
+            } finally {
+                candado.writeLock().unlock();
+            }
+            log.info("Índice de búsqueda construido con {} libros", nuevasEntradas.size());
+        } catch (Exception e) {
+            log.error("No se pudo construir el índice de búsqueda de libros", e);
+        } finally {
+            candado.writeLock().lock();
+            try {
+                reconstruyendo = false;
+                cambiosDuranteReconstruccion.clear();
+            } finally {
+                candado.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Indexa el título y el autor actuales de un libro, sustituyendo los que
+     * tuviera, salvo que el índice ya refleje una versión posterior del libro.
+     *
+     * @param libro Libro tal como está guardado
+     */
+    public void actualizarLibro(Libro libro) {
+        cambiar(new PosicionLibro(libro.getId()),
+                crearEntrada(libro.getTitulo(), libro.getAutor(), libro.getVersion()));
+    }
+
+    /**
+     * Quita un libro del índice.
+     *
+     * @param libroId Id del libro eliminado
+     */
+    public void eliminarLibro(ObjectId libroId) {
+        cambiar(new PosicionLibro(libroId), null);
+    }
+
+    /**
+     * Busca los libros cuyo título o autor contienen el texto indicado, sin
+     * distinguir mayúsculas de minúsculas.
+     *
+     * @param texto   Texto a buscar
+     * @param despues Posición a partir de la cual continuar (exclusiva), o null
+     * @param limite  Número máximo de posiciones a devolver
+     * @return Posiciones de los libros encontrados, en orden de catálogo
+     */
+    public List<PosicionLibro> buscar(String texto, PosicionLibro despues, int limite) {
+        String buscado = normalizar(texto);
+        candado.readLock().lock();
+        try {
+            NavigableMap<PosicionLibro, EntradaLibro> restantes = despues == null ? entradas
+                    : entradas.tailMap(despues, false);
+
+            // Con menos de un trigrama no hay nada que consultar: se recorre en orden y se corta al llegar al límite
+            if (buscado.length() < LONGITUD_TRIGRAMA) {
+                List<PosicionLibro> resultado = new ArrayList<>();
+                for (Map.Entry<PosicionLibro, EntradaLibro> entrada : restantes.entrySet()) {
+                    if (resultado.size() >= limite) {
+                        break;
+                    }
+                    if (entrada.getValue().contiene(buscado)) {
+                        resultado.add(entrada.getKey());
+                    }
+                }
+                return resultado;
+            }
+
+            // Se parte de la lista de posiciones más corta y se comprueba el resto de trigramas
+            List<NavigableSet<PosicionLibro>> listas = new ArrayList<>();
+            for (String trigrama : trigramasDe(buscado)) {
+                NavigableSet<PosicionLibro> posiciones = trigramas.get(trigrama);
+                if (posiciones == null) {
+                    return List.of();
+                }
+                listas.add(posiciones);
+            }
+            listas.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+            // Las listas están ordenadas: se recorre desde el cursor y se corta al llegar al límite
+            NavigableSet<PosicionLibro> candidatas = despues == null ? listas.get(0)
+                    : listas.get(0).tailSet(despues, false);
+            List<PosicionLibro> resultado = new ArrayList<>();
+            for (PosicionLibro posicion : candidatas) {
+                if (resultado.size() >= limite) {
+                    break;
+                }
+                boolean candidata = true;
+                for (int i = 1; i < listas.size() && candidata; i++) {
+                    candidata = listas.get(i).contains(posicion);
+                }
+                // Los trigramas pueden coincidir por separado en título y autor: se verifica la subcadena completa
+                if (candidata && entradas.get(posicion).contiene(buscado)) {
+                    resultado.add(posicion);
+                }
+            }
+            return resultado;
+        } finally {
+            candado.readLock().unlock();
+        }
+    }
+
+    private void cambiar(PosicionLibro posicion, EntradaLibro entrada) {
+        candado.writeLock().lock();
+        try {
+            if (reconstruyendo && !esAnterior(entrada, cambiosDuranteReconstruccion.get(posicion))) {
+                cambiosDuranteReconstruccion.put(posicion, entrada);
+            }
+            sustituirEntrada(posicion, entrada);
+        } finally {
+            candado.writeLock().unlock();
+        }
+    }
+
+    private void sustituirEntrada(PosicionLibro posicion, EntradaLibro entrada) {
+        EntradaLibro anterior = entradas.get(posicion);
+        if (anterior != null) {
+            if (esAnterior(entrada, anterior)) {
+                return;
+            }
+            eliminarEntrada(posicion, anterior);
+        }
+        if (entrada != null) {
+            agregarEntrada(posicion, entrada);
+        }
+    }
+
+    // Una eliminación nunca es anterior a la entrada que elimina
+    private boolean esAnterior(EntradaLibro entrada, EntradaLibro otra) {
+        return entrada != null && otra != null && entrada.version() < otra.version();
+    }
+
+    private EntradaLibro crearEntrada(String titulo, String autor, long version) {
+        return new EntradaLibro(normalizar(titulo), normalizar(autor), version);
+    }
+
+    private static long version(Document libro) {
+        Number version = libro.get("version", Number.class);
+        return version == null ? 0 : version.longValue();
+    }
+
+    private void agregarEntrada(PosicionLibro posicion, EntradaLibro entrada) {
+        entradas.put(posicion, entrada);
+        for (String trigrama : trigramasDe(entrada)) {
+            trigramas.computeIfAbsent(trigrama, t -> new TreeSet<>()).add(posicion);
+        }
+    }
+
+    private void eliminarEntrada(PosicionLibro posicion, EntradaLibro entrada) {
+        entradas.remove(posicion);
+        for (String trigrama : trigramasDe(entrada)) {
+            NavigableSet<PosicionLibro> posiciones = trigramas.get(trigrama);
+            if (posiciones != null) {
+                posiciones.remove(posicion);
+                if (posiciones.isEmpty()) {
+                    trigramas.remove(trigrama);
+                }
+            }
+        }
+    }
+
+    private Set<String> trigramasDe(EntradaLibro entrada) {
+        Set<String> resultado = trigramasDe(entrada.titulo());
+        resultado.addAll(trigramasDe(entrada.autor()));
+        return resultado;
+    }
+
+    private Set<String> trigramasDe(String texto) {
+        Set<String> resultado = new HashSet<>();
+        for (int i = 0; i + LONGITUD_TRIGRAMA <= texto.length(); i++) {
+            resultado.add(texto.substring(i, i + LONGITUD_TRIGRAMA));
+        }
+        return resultado;
+    }
+
+    private static String normalizar(String texto) {
+        return texto == null ? "" : texto.toLowerCase(Locale.ROOT);
+    }
+}
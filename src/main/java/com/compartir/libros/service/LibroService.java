@@ -1,40 +1,68 @@
 package com.compartir.libros.service;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 
+import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import com.compartir.libros.dto.PaginaDTO;
 import com.compartir.libros.dto.libro.CambioEstadoRequest;
+import com.compartir.libros.dto.libro.FacetasDTO;
 import com.compartir.libros.dto.libro.LibroDTO;
 import com.compartir.libros.dto.libro.LibroPrestamoDTO;
 import com.compartir.libros.dto.libro.LibroRequestDTO;
-import com.compartir.libros.dto.libro.LibroReservaRequestDTO;
 import com.compartir.libros.dto.libro.LibroResponseDTO;
+import com.compartir.libros.dto.libro.SugerenciaDTO;
 import com.compartir.libros.model.Libro;
 import com.compartir.libros.model.Reserva;
 import com.compartir.libros.model.Tematica;
 import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.LibroRepository;
 import com.compartir.libros.repository.TematicaRepository;
-import com.compartir.libros.repository.UsuarioRepository;
+import com.compartir.libros.security.ContextoUsuario;
 
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Servicio que gestiona todas las operaciones relacionadas con los libros.
  * Incluye funcionalidades para agregar, actualizar, eliminar y buscar libros,
  * así como gestionar préstamos y reservas.
+ * Cada libro es un documento de la colección "libros" que referencia a su
+ * propietario y se identifica por su id.
  *
  * @author Sergio
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class LibroService {
-  private final UsuarioRepository usuarioRepository;
+  private final ContextoUsuario contextoUsuario;
+  private final LibroRepository libroRepository;
   private final TematicaRepository tematicaRepository;
-  private final GmailAPIService gmailAPIService;
+  private final BuzonCorreo buzonCorreo;
+  private final MongoTemplate mongoTemplate;
+  private final IndiceTrigramasLibros indiceTrigramas;
+  private final SugerenciasLibros sugerenciasLibros;
+  private final CatalogoLibrosService catalogoLibros;
+  private final ReintentosConcurrencia reintentos;
+  private final MigracionLibros migracionLibros;
+  private final ArchivoReservas archivoReservas;
+  private final AlmacenImagenes almacenImagenes;
 
   /**
    * Obtiene todos los libros de un usuario específico.
@@ -44,10 +72,9 @@ public class LibroService {
    * @throws RuntimeException si el usuario no existe
    */
   public List<LibroResponseDTO> obtenerLibrosUsuario(String email) {
-    Usuario usuario = usuarioRepository.findByEmail(email)
-        .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+    Usuario usuario = propietario(email);
 
-    return usuario.getLibros().stream()
+    return libroRepository.findByUsuarioIdOrderByIdAsc(new ObjectId(usuario.getId())).stream()
         .map(libro -> convertirALibroResponseDTO(libro)).toList();
   }
 
@@ -61,8 +88,7 @@ public class LibroService {
    *                          válidas
    */
   public LibroResponseDTO agregarLibro(String email, LibroRequestDTO libroRequest) {
-    Usuario usuario = usuarioRepository.findByEmail(email)
-        .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+    Usuario usuario = propietario(email);
 
     // Verificar que las temáticas existan
     List<Tematica> tematicas = tematicaRepository.findByNombreIn(libroRequest.getTematicas());
@@ -71,16 +97,23 @@ public class LibroService {
     }
 
     Libro libro = new Libro();
+    libro.setUsuarioId(new ObjectId(usuario.getId()));
     libro.setTitulo(libroRequest.getTitulo());
     libro.setAutor(libroRequest.getAutor());
     libro.setEstado("disponible");
     libro.setDescripcion(libroRequest.getDescripcion());
-    libro.setPortada(libroRequest.getPortada());
+    libro.setPortada(almacenImagenes.resolver(libroRequest.getPortada()));
     libro.setTematicas(tematicas.stream().map(Tematica::getId).toList());
     libro.setReservas(new ArrayList<>());
 
-    usuario.getLibros().add(libro);
-    usuarioRepository.save(usuario);
+    try {
+      libro = libroRepository.insert(libro);
+    } catch (RuntimeException e) {
+      // La referencia tomada sobre la portada no llega a usarse
+      almacenImagenes.liberar(libro.getPortada());
+      throw e;
+    }
+    propagarCambios(usuario, libro);
 
     return convertirALibroResponseDTO(libro);
   }
@@ -89,19 +122,15 @@ public class LibroService {
    * Actualiza la información de un libro existente.
    *
    * @param email        Email del usuario
-   * @param indice       Índice del libro en la lista del usuario
+   * @param id           Id del libro
    * @param libroRequest Nuevos datos del libro
    * @return Libro actualizado en formato DTO
-   * @throws RuntimeException si el usuario no existe, el índice es inválido o las
+   * @throws RuntimeException si el usuario no existe, el libro no es suyo o las
    *                          temáticas no son válidas
    */
-  public LibroResponseDTO actualizarLibro(String email, int indice, LibroRequestDTO libroRequest) {
-    Usuario usuario = usuarioRepository.findByEmail(email)
-        .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
-
-    if (indice < 0 || indice >= usuario.getLibros().size()) {
-      throw new RuntimeException("Índice de libro no válido");
-    }
+  public LibroResponseDTO actualizarLibro(String email, String id, LibroRequestDTO libroRequest) {
+    Usuario usuario = propietario(email);
+    ObjectId libroId = identificador(id);
 
     // Verificar que las temáticas existan
     List<Tematica> tematicas = tematicaRepository.findByNombreIn(libroRequest.getTematicas());
@@ -109,207 +138,223 @@ public class LibroService {
       throw new RuntimeException("Una o más temáticas no existen");
     }
 
-    Libro libro = usuario.getLibros().get(indice);
-    libro.setTitulo(libroRequest.getTitulo());
-    libro.setAutor(libroRequest.getAutor());
-    libro.setDescripcion(libroRequest.getDescripcion());
-    libro.setPortada(libroRequest.getPortada());
-    libro.setTematicas(tematicas.stream().map(Tematica::getId).toList());
-
-    usuarioRepository.save(usuario);
+    // Se lee la portada actual para liberar su referencia si se sustituye
+    Query actual = consultaLibro(usuario, libroId);
+    actual.fields().include("portada");
+    Libro anterior = mongoTemplate.findOne(actual, Libro.class);
+    if (anterior == null) {
+      throw new RuntimeException("Libro no encontrado");
+    }
+    // Una portada sin cambios conserva su referencia; una nueva toma la suya y suelta la anterior
+    boolean portadaNueva = !Objects.equals(anterior.getPortada(), libroRequest.getPortada());
+    String portada = portadaNueva ? almacenImagenes.resolver(libroRequest.getPortada()) : anterior.getPortada();
+
+    Update update = new Update()
+        .set("titulo", libroRequest.getTitulo())
+        .set("autor", libroRequest.getAutor())
+        .set("descripcion", libroRequest.getDescripcion())
+        .set("portada", portada)
+        .set("tematicas", tematicas.stream().map(Tematica::getId).toList());
+
+    Libro libro;
+    try {
+      libro = modificarLibro(usuario, libroId, update);
+    } catch (RuntimeException e) {
+      // La referencia tomada sobre la nueva portada no llega a usarse
+      if (portadaNueva) {
+        almacenImagenes.liberar(portada);
+      }
+      throw e;
+    }
+    if (portadaNueva) {
+      almacenImagenes.liberar(anterior.getPortada());
+    }
+    propagarCambios(usuario, libro);
     return convertirALibroResponseDTO(libro);
   }
 
   /**
    * Elimina un libro de la colección de un usuario.
    *
-   * @param email  Email del usuario
-   * @param indice Índice del libro a eliminar
-   * @throws RuntimeException si el usuario no existe o el índice es inválido
+   * @param email Email del usuario
+   * @param id    Id del libro a eliminar
+   * @throws RuntimeException si el usuario no existe o el libro no es suyo
    */
-  public void eliminarLibro(String email, int indice) {
-    Usuario usuario = usuarioRepository.findByEmail(email)
-        .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
-
-    if (indice < 0 || indice >= usuario.getLibros().size()) {
-      throw new RuntimeException("Índice de libro no válido");
+  public void eliminarLibro(String email, String id) {
+    Usuario usuario = propietario(email);
+
+    Query query = consultaLibro(usuario, identificador(id));
+    query.fields().include("portada");
+    Libro eliminado = mongoTemplate.findAndRemove(query, Libro.class);
+    if (eliminado == null) {
+      throw new RuntimeException("Libro no encontrado");
     }
-
-    usuario.getLibros().remove(indice);
-    usuarioRepository.save(usuario);
+    almacenImagenes.liberar(eliminado.getPortada());
+    indiceTrigramas.eliminarLibro(eliminado.getId());
+    sugerenciasLibros.eliminarLibro(eliminado.getId());
+    catalogoLibros.eliminarLibro(eliminado.getId());
   }
 
   /**
    * Cambia el estado de un libro (disponible, prestado, reservado).
    *
    * @param email   Email del usuario
-   * @param indice  Índice del libro
+   * @param id      Id del libro
    * @param request Solicitud con el nuevo estado
    * @return Libro actualizado en formato DTO
-   * @throws RuntimeException si el usuario no existe, el índice es inválido o el
+   * @throws RuntimeException si el usuario no existe, el libro no es suyo o el
    *                          estado no es válido
    */
-  public LibroResponseDTO cambiarEstadoLibro(String email, int indice, CambioEstadoRequest request) {
-    Usuario usuario = usuarioRepository.findByEmail(email)
-        .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
-
-    if (indice < 0 || indice >= usuario.getLibros().size()) {
-      throw new RuntimeException("Índice de libro no válido");
-    }
-
+  public LibroResponseDTO cambiarEstadoLibro(String email, String id, CambioEstadoRequest request) {
     String nuevoEstado = request.getNuevoEstado().toLowerCase();
-    if (!nuevoEstado.equals("disponible") && !nuevoEstado.equals("prestado") && !nuevoEstado.equals("reservado")) {
+    if (!CatalogoLibrosService.ESTADOS.contains(nuevoEstado)) {
       throw new RuntimeException("Estado no válido. Debe ser: disponible, prestado o reservado");
     }
 
-    Libro libro = usuario.getLibros().get(indice);
-    libro.setEstado(nuevoEstado);
+    Usuario usuario = propietario(email);
+    ObjectId libroId = identificador(id);
+    Update update = new Update().set("estado", nuevoEstado);
 
+    // Las reservas pendientes se marcan como prestadas o devueltas según el nuevo estado
     if (nuevoEstado.equals("prestado")) {
-      libro.getReservas().forEach(reserva -> {
-        if (reserva.getFechaPrestamo() == null) {
-          reserva.setFechaPrestamo(new Date());
-        }
-      });
+      update.set("reservas.$[reserva].fechaPrestamo", new Date())
+          .filterArray(Criteria.where("reserva.fechaPrestamo").is(null));
     } else if (nuevoEstado.equals("disponible")) {
-      libro.getReservas().forEach(reserva -> {
-        if (reserva.getFechaDevolucion() == null) {
-          reserva.setFechaDevolucion(new Date());
-        }
-      });
+      update.set("reservas.$[reserva].fechaDevolucion", new Date())
+          .filterArray(Criteria.where("reserva.fechaDevolucion").is(null));
     }
 
-    usuarioRepository.save(usuario);
+    Libro libro = modificarLibro(usuario, libroId, update);
+    propagarCambios(usuario, libro);
     return convertirALibroResponseDTO(libro);
   }
 
+  /**
+   * Obtiene el historial de reservas ya devueltas de un libro. El propietario
+   * ve todas las reservas del libro; cualquier otro usuario, solo las suyas,
+   * para no exponer quién más lo ha tomado prestado. Las reservas cerradas se
+   * archivan periódicamente fuera del libro, de modo que las más recientes
+   * pueden seguir todavía en él hasta la siguiente pasada.
+   *
+   * @param email  Email del usuario
+   * @param id     Id del libro
+   * @param cursor Cursor devuelto por la página anterior, o null para la primera
+   * @param limite Número máximo de reservas de la página
+   * @return Página de reservas archivadas, de la más reciente a la más antigua
+   * @throws RuntimeException si el usuario o el libro no existen
+   */
+  public PaginaDTO<Reserva> obtenerHistorial(String email, String id, String cursor, Integer limite) {
+    Usuario usuario = propietario(email);
+    ObjectId libroId = identificador(id);
+    if (mongoTemplate.exists(consultaLibro(usuario, libroId), Libro.class)) {
+      return archivoReservas.historial(libroId, null, cursor, limite);
+    }
+    if (!mongoTemplate.exists(new Query(Criteria.where("_id").is(libroId)), Libro.class)) {
+      throw new RuntimeException("Libro no encontrado");
+    }
+    return archivoReservas.historial(libroId, email, cursor, limite);
+  }
+
   /**
    * Filtra libros según diferentes criterios.
+   * La consulta se resuelve sobre el catálogo de libros, sin leer documentos de
+   * usuario.
    *
    * @param tematicaId ID de la temática
    * @param estado     Estado del libro
    * @param pais       País del usuario
    * @param provincia  Provincia del usuario
    * @param ciudad     Ciudad del usuario
-   * @return Lista de libros filtrados
+   * @param cursor     Cursor devuelto por la página anterior, o null para la primera
+   * @param limite     Número máximo de libros de la página
+   * @return Página de libros filtrados
    */
-  public List<LibroDTO> filtrarLibros(String tematicaId, String estado, String pais, String provincia, String ciudad) {
-    ObjectId tematicaObjectId = tematicaId != null ? new ObjectId(tematicaId) : null;
-    List<Usuario> usuarios = filtrarUsuarios(tematicaObjectId, estado, pais, provincia, ciudad);
-
-    List<LibroDTO> libros = convertirALibrosDTO(usuarios, tematicaId, estado);
-    return libros;
+  public PaginaDTO<LibroDTO> filtrarLibros(String tematicaId, String estado, String pais, String provincia,
+      String ciudad, String cursor, Integer limite) {
+    return catalogoLibros.filtrar(tematicaId, estado, pais, provincia, ciudad, cursor, limite);
   }
 
-  private List<Usuario> filtrarUsuarios(ObjectId tematica, String estado, String pais, String provincia,
+  /**
+   * Filtra libros según diferentes criterios y los devuelve en flujo, leyendo
+   * del cursor de MongoDB a medida que se consumen. El flujo mantiene abierto
+   * el cursor y debe cerrarse tras su uso.
+   *
+   * @param tematicaId ID de la temática
+   * @param estado     Estado del libro
+   * @param pais       País del usuario
+   * @param provincia  Provincia del usuario
+   * @param ciudad     Ciudad del usuario
+   * @return Flujo de libros filtrados
+   */
+  public Stream<LibroDTO> transmitirLibrosFiltrados(String tematicaId, String estado, String pais, String provincia,
       String ciudad) {
-    boolean tieneTematica = tematica != null;
-    boolean tieneEstado = estado != null && !estado.equalsIgnoreCase("todos");
-    boolean tienePais = pais != null && !pais.equalsIgnoreCase("todos");
-    boolean tieneProvincia = provincia != null && !provincia.equalsIgnoreCase("todos");
-    boolean tieneCiudad = ciudad != null && !ciudad.equalsIgnoreCase("todos");
-
-    // Caso: todos null
-    if (!tieneTematica && !tieneEstado && !tienePais && !tieneProvincia && !tieneCiudad) {
-      return usuarioRepository.findAll();
-    }
+    return catalogoLibros.transmitirFiltrados(tematicaId, estado, pais, provincia, ciudad);
+  }
 
-    if (tienePais) {
-      if (tieneProvincia) {
-        if (tieneCiudad) {
-          return filtrarPorRegionYCriterios(pais, provincia, ciudad, tematica, estado);
-        }
-        return filtrarPorRegionYCriterios(pais, provincia, null, tematica, estado);
-      }
-      return filtrarPorRegionYCriterios(pais, null, null, tematica, estado);
-    }
-    return filtrarPorCriteriosGenerales(tematica, estado);
+  /**
+   * Calcula, para los libros que cumplen los filtros, cuántos hay de cada
+   * temática, estado, país, provincia y ciudad.
+   *
+   * @param tematicaId ID de la temática
+   * @param estado     Estado del libro
+   * @param pais       País del usuario
+   * @param provincia  Provincia del usuario
+   * @param ciudad     Ciudad del usuario
+   * @return Recuentos por cada criterio de filtrado
+   */
+  public FacetasDTO obtenerFacetas(String tematicaId, String estado, String pais, String provincia, String ciudad) {
+    return catalogoLibros.obtenerFacetas(tematicaId, estado, pais, provincia, ciudad);
   }
 
-  private List<Usuario> filtrarPorRegionYCriterios(String pais, String provincia, String ciudad, ObjectId tematica,
-      String estado) {
-    if (tematica != null && estado != null) {
-      if (ciudad != null)
-        return usuarioRepository.findByRegionAndLibrosTematicasAndEstado(pais, provincia, ciudad, tematica, estado);
-      if (provincia != null)
-        return usuarioRepository.findByRegionAndLibrosTematicasAndEstado(pais, provincia, tematica, estado);
-      return usuarioRepository.findByRegionAndLibrosTematicasAndEstado(pais, tematica, estado);
-    }
-    if (estado != null) {
-      if (ciudad != null)
-        return usuarioRepository.findByRegionAndLibrosEstado(pais, provincia, ciudad, estado);
-      if (provincia != null)
-        return usuarioRepository.findByRegionAndLibrosEstado(pais, provincia, estado);
-      return usuarioRepository.findByRegionAndLibrosEstado(pais, estado);
-    }
-    if (tematica != null) {
-      return usuarioRepository.findAll();
-    }
-    return usuarioRepository.findAll();
+  /**
+   * Busca libros por título o autor.
+   * Con el motor de búsqueda "texto" los resultados se ordenan por relevancia
+   * y solo se devuelven los {@code limite} mejores, sin cursor de continuación.
+   *
+   * @param searchString Término de búsqueda
+   * @param cursor       Cursor devuelto por la página anterior, o null para la primera
+   * @param limite       Número máximo de libros de la página
+   * @return Página de libros que coinciden con la búsqueda
+   */
+  public PaginaDTO<LibroDTO> buscarLibros(String searchString, String cursor, Integer limite) {
+    return catalogoLibros.buscar(searchString, cursor, limite);
   }
 
-  private List<Usuario> filtrarPorCriteriosGenerales(ObjectId tematica, String estado) {
-    if (tematica != null && estado != null) {
-      return usuarioRepository.findByLibrosTematicasAndEstado(tematica, estado);
-    }
-    if (tematica != null) {
-      return usuarioRepository.findByLibrosTematicas(tematica);
-    }
-    if (estado != null) {
-      return usuarioRepository.findByLibrosEstado(estado);
-    }
-    return usuarioRepository.findAll();
+  /**
+   * Obtiene sugerencias de autocompletado de títulos y autores del catálogo.
+   *
+   * @param prefijo Texto escrito por el usuario
+   * @param limite  Número máximo de sugerencias
+   * @return Sugerencias que empiezan por el prefijo
+   */
+  public List<SugerenciaDTO> sugerirLibros(String prefijo, Integer limite) {
+    return sugerenciasLibros.sugerir(prefijo, limite);
   }
 
   /**
-   * Busca libros por título o autor.
+   * Busca libros por título o autor y los devuelve en flujo, leyendo del cursor
+   * de MongoDB a medida que se consumen. El flujo debe cerrarse tras su uso.
    *
    * @param searchString Término de búsqueda
-   * @return Lista de libros que coinciden con la búsqueda
+   * @return Flujo de libros que coinciden con la búsqueda
    */
-  public List<LibroDTO> buscarLibros(String searchString) {
-    List<Usuario> usuarios = usuarioRepository.findByLibrosTituloOrAutorContainingIgnoreCase(searchString);
-    List<LibroDTO> libros = convertirALibrosDTO(usuarios, null, null);
-    return libros.stream()
-        .filter(libro -> libro.getTitulo().toLowerCase().contains(searchString.toLowerCase()) ||
-            libro.getAutor().toLowerCase().contains(searchString.toLowerCase()))
-        .toList();
+  public Stream<LibroDTO> transmitirBusqueda(String searchString) {
+    return catalogoLibros.transmitirBusqueda(searchString);
   }
 
-  private List<LibroDTO> convertirALibrosDTO(List<Usuario> usuarios, String tematicaId, String estadoFiltro) {
-    List<LibroDTO> librosDTO = new ArrayList<>();
-
-    for (Usuario usuario : usuarios) {
-      for (Libro libro : usuario.getLibros()) {
-        // Aplicar filtros si son necesarios
-        if ((tematicaId == null || libro.getTematicas().contains(new ObjectId(tematicaId))) &&
-            (estadoFiltro == null || estadoFiltro.equalsIgnoreCase("todos") ||
-                libro.getEstado().equalsIgnoreCase(estadoFiltro))) {
-
-          LibroDTO libroDTO = new LibroDTO(
-              libro.getTitulo(),
-              libro.getAutor(),
-              libro.getDescripcion(),
-              libro.getPortada(),
-              libro.getEstado(),
-              libro.getTematicas().stream()
-                  .map(ObjectId::toHexString)
-                  .toList(),
-              libro.getReservas(),
-              usuario.getEmail(),
-              usuario.getRegion().getCiudad(),
-              usuario.getRegion().getProvincia(),
-              usuario.getRegion().getPais());
-          librosDTO.add(libroDTO);
-        }
-      }
-    }
-
-    return librosDTO;
+  /**
+   * Propaga el estado de un libro, ya guardado, al índice de búsqueda, a las
+   * sugerencias y al catálogo, sin releer el resto de libros del usuario.
+   */
+  private void propagarCambios(Usuario usuario, Libro libro) {
+    indiceTrigramas.actualizarLibro(libro);
+    sugerenciasLibros.actualizarLibro(libro);
+    catalogoLibros.sincronizarLibro(usuario, libro);
   }
 
   private LibroResponseDTO convertirALibroResponseDTO(Libro libro) {
     return new LibroResponseDTO(
+        libro.getId() != null ? libro.getId().toHexString() : null,
         libro.getTitulo(),
         libro.getAutor(),
         libro.getEstado(),
@@ -322,96 +367,137 @@ public class LibroService {
   }
 
   /**
-   * Obtiene los libros que un usuario tiene prestados.
+   * Obtiene los libros que un usuario tiene prestados o reservados, es decir,
+   * aquellos cuya última reserva es suya y sigue sin devolver.
+   *
+   * <p>La consulta parte del índice multiclave sobre
+   * {@code reservas.emailUsuario} de la colección de libros, de modo que solo
+   * se leen los libros que el usuario ha reservado alguna vez; después se leen
+   * los emails de sus propietarios en una única consulta.</p>
    *
    * @param email Email del usuario
    * @return Lista de libros prestados al usuario
    */
   public List<LibroPrestamoDTO> obtenerLibrosPrestados(String email) {
-    List<Usuario> todosUsuarios = usuarioRepository.findAll();
-    List<LibroPrestamoDTO> librosPrestados = new ArrayList<>();
-
-    for (Usuario usuario : todosUsuarios) {
-      for (Libro libro : usuario.getLibros()) {
-        if ((libro.getEstado().equals("prestado") || libro.getEstado().equals("reservado")) &&
-            libro.getReservas() != null && !libro.getReservas().isEmpty()) {
-
-          // Get the most recent reservation for this book
-          Reserva ultimaReserva = libro.getReservas().get(libro.getReservas().size() - 1);
-
-          if (ultimaReserva.getEmailUsuario().equals(email) &&
-              ultimaReserva.getFechaDevolucion() == null) {
-
-            LibroPrestamoDTO libroDTO = new LibroPrestamoDTO(
-                libro.getTitulo(),
-                libro.getAutor(),
-                libro.getDescripcion(),
-                libro.getPortada(),
-                libro.getEstado(),
-                usuario.getEmail(),
-                ultimaReserva.getFechaReserva(),
-                ultimaReserva.getFechaPrestamo(),
-                ultimaReserva.getFechaDevolucion());
-            librosPrestados.add(libroDTO);
-          }
-        }
-      }
+    Aggregation agregacion = Aggregation.newAggregation(
+        Aggregation.match(Criteria.where("reservas.emailUsuario").is(email)
+            .and("estado").in("prestado", "reservado")),
+        // Solo cuenta la reserva más reciente de cada libro
+        Aggregation.stage(new Document("$addFields", new Document("ultimaReserva",
+            new Document("$arrayElemAt", List.of("$reservas", -1))))),
+        Aggregation.match(Criteria.where("ultimaReserva.emailUsuario").is(email)
+            .and("ultimaReserva.fechaDevolucion").is(null)),
+        Aggregation.stage(new Document("$project", new Document("usuarioId", 1)
+            .append("titulo", 1)
+            .append("autor", 1)
+            .append("descripcion", 1)
+            .append("portada", 1)
+            .append("estado", 1)
+            .append("ultimaReserva", 1))));
+
+    List<Document> libros = mongoTemplate.aggregate(agregacion, Libro.class, Document.class).getMappedResults();
+    if (libros.isEmpty()) {
+      return List.of();
     }
 
-    return librosPrestados;
+    Query query = new Query(Criteria.where("_id").in(libros.stream().map(libro -> libro.get("usuarioId")).toList()));
+    query.fields().include("email");
+    Map<String, String> emails = mongoTemplate.find(query, Usuario.class).stream()
+        .collect(Collectors.toMap(Usuario::getId, Usuario::getEmail));
+
+    return libros.stream().map(libro -> {
+      Document reserva = libro.get("ultimaReserva", Document.class);
+      return new LibroPrestamoDTO(
+          libro.getString("titulo"),
+          libro.getString("autor"),
+          libro.getString("descripcion"),
+          libro.getString("portada"),
+          libro.getString("estado"),
+          emails.get(libro.getObjectId("usuarioId").toHexString()),
+          reserva.getDate("fechaReserva"),
+          reserva.getDate("fechaPrestamo"),
+          reserva.getDate("fechaDevolucion"));
+    }).toList();
   }
 
   /**
-   * Registra la devolución de un libro prestado.
+   * Registra la devolución de un libro prestado, cerrando la reserva abierta
+   * del usuario que lo devuelve.
    *
-   * @param name                 Email del usuario que devuelve el libro
-   * @param libroPrestamoRequest Información del libro a devolver
+   * @param email Email del usuario que devuelve el libro
+   * @param id    Id del libro
    * @throws RuntimeException si no se encuentra el libro o la reserva no es
    *                          válida
    */
-  public void devolverLibro(String name, LibroReservaRequestDTO libroPrestamoRequest) {
-    Usuario usuario = usuarioRepository.findByEmail(libroPrestamoRequest.getEmailUsuario())
-        .orElseThrow(() -> new RuntimeException("El libro a devolver no está asociado a ningún usuario!"));
-
-    for (Libro libro : usuario.getLibros()) {
-      if (libro.getTitulo().equals(libroPrestamoRequest.getTitulo())) {
-        for (Reserva reserva : libro.getReservas()) {
-          if (reserva.getEmailUsuario().equals(name) &&
-              reserva.getFechaDevolucion() == null) {
-
-            reserva.setFechaDevolucion(new Date());
-            libro.setEstado("disponible");
-            usuarioRepository.save(usuario);
-            return;
-          }
-        }
-      }
+  public void devolverLibro(String email, String id) {
+    ObjectId libroId = identificador(id);
+
+    Criteria reservaAbierta = Criteria.where("emailUsuario").is(email).and("fechaDevolucion").is(null);
+    Query query = new Query(Criteria.where("_id").is(libroId).and("reservas").elemMatch(reservaAbierta));
+
+    Update update = new Update()
+        .set("estado", "disponible")
+        .set("reservas.$[reserva].fechaDevolucion", new Date())
+        .inc("version", 1)
+        .filterArray(Criteria.where("reserva.emailUsuario").is(email).and("reserva.fechaDevolucion").is(null));
+
+    Libro devuelto = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),
+        Libro.class);
+    if (devuelto == null) {
+      throw new RuntimeException("No se encontró el libro o la reserva no es válida.");
     }
-
-    throw new RuntimeException("No se encontró el libro o la reserva no es válida.");
+    catalogoLibros.sincronizarLibro(devuelto);
   }
 
   /**
    * Reserva un libro para un usuario.
+   * Si la reserva choca con otro cambio simultáneo sobre el libro se repite,
+   * con una espera aleatoria y un número de intentos acotado; si entretanto el
+   * libro ha dejado de estar disponible, la reserva se rechaza.
    *
-   * @param email   Email del usuario que reserva
-   * @param reserva Información de la reserva
-   * @throws RuntimeException si el propietario no existe, el libro no existe o no
-   *                          está disponible
+   * @param email Email del usuario que reserva
+   * @param id    Id del libro
+   * @throws RuntimeException si el libro no existe o no está disponible
    */
-  public void reservarLibro(String email, LibroReservaRequestDTO reserva) {
-    // Buscar al usuario dueño del libro
-    Usuario usuarioPropietario = usuarioRepository.findByEmail(reserva.getEmailUsuario())
-        .orElseThrow(() -> new RuntimeException("Propietario del libro no encontrado"));
+  public void reservarLibro(String email, String id) {
+    ObjectId libroId = identificador(id);
+
+    Libro reservado = reintentos.ejecutar(() -> intentarReserva(email, libroId));
+    Usuario propietario = leerPropietario(reservado.getUsuarioId());
+    if (propietario == null) {
+      log.warn("El libro reservado {} no tiene propietario", libroId);
+      return;
+    }
+    catalogoLibros.sincronizarLibro(propietario, reservado);
 
-    // Encontrar el libro en la lista de libros del usuario
-    Libro libroAReservar = usuarioPropietario.getLibros().stream()
-        .filter(libro -> libro.getTitulo().equals(reserva.getTitulo()))
-        .findFirst()
-        .orElseThrow(() -> new RuntimeException("Libro no encontrado"));
+    // Encolar correo de confirmación al propietario; se envía en segundo plano
+    String subject = "Reserva de libro: " + reservado.getTitulo();
+    String body = "El libro '" + reservado.getTitulo() + "' ha sido reservado por " + email;
+    buzonCorreo.encolar(propietario.getEmail(), subject, body);
+  }
+
+  /**
+   * Intenta registrar una reserva. La reserva se añade con una actualización
+   * condicionada a que el libro siga disponible en la base de datos, de modo que
+   * de dos reservas simultáneas solo una puede tener éxito.
+   *
+   * @return Libro tal como queda tras la reserva
+   * @throws OptimisticLockingFailureException si el libro cambió entre la
+   *                                           lectura y la actualización
+   * @throws RuntimeException                  si el libro no existe o no está
+   *                                           disponible
+   */
+  private Libro intentarReserva(String email, ObjectId libroId) {
+    // Leer solo el estado del libro
+    Query query = new Query(Criteria.where("_id").is(libroId));
+    query.fields().include("estado");
+    Libro libro = mongoTemplate.findOne(query, Libro.class);
+    if (libro == null) {
+      throw new RuntimeException("Libro no encontrado");
+    }
 
     // Verificar que el libro esté disponible
-    if (!libroAReservar.getEstado().equals("disponible")) {
+    if (!"disponible".equals(libro.getEstado())) {
       throw new RuntimeException("El libro no está disponible para reservar");
     }
 
@@ -422,20 +508,69 @@ public class LibroService {
     nuevaReserva.setFechaPrestamo(null);
     nuevaReserva.setFechaDevolucion(null);
 
-    // Añadir la reserva al libro y actualizar su estado
-    libroAReservar.getReservas().add(nuevaReserva);
-    libroAReservar.setEstado("reservado");
+    // Añadir la reserva al libro y actualizar su estado, solo si nadie lo ha reservado entretanto
+    Update update = new Update()
+        .push("reservas", nuevaReserva)
+        .set("estado", "reservado")
+        .inc("version", 1);
+    Libro reservado = mongoTemplate.findAndModify(
+        new Query(Criteria.where("_id").is(libroId).and("estado").is("disponible")),
+        update, FindAndModifyOptions.options().returnNew(true), Libro.class);
+    if (reservado == null) {
+      // Otro cambio se adelantó: al repetir, la lectura mostrará si el libro sigue disponible
+      throw new OptimisticLockingFailureException("El libro ha cambiado durante la reserva");
+    }
+    return reservado;
+  }
 
-    //Enviar correo de confirmación al propietario
-    String subject = "Reserva de libro: " + reserva.getTitulo();
-    String body = "El libro '" + reserva.getTitulo() + "' ha sido reservado por " + email;
-    try {
-      gmailAPIService.sendMessage(usuarioPropietario.getEmail(), subject, body, null);
-    } catch (Exception e) {
-      throw new RuntimeException("Error al enviar el correo de confirmación: " + e.getMessage());
+  /**
+   * Obtiene el usuario con su email y región, reutilizando los datos ya leídos
+   * al autenticarlo en esta petición, y migra antes sus libros si aún estaban
+   * embebidos en su documento.
+   *
+   * @throws RuntimeException si el usuario no existe
+   */
+  private Usuario propietario(String email) {
+    Usuario usuario = contextoUsuario.propietario(email)
+        .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+    migracionLibros.asegurarMigrado(new ObjectId(usuario.getId()));
+    return usuario;
+  }
+
+  /**
+   * Lee el email y la región del propietario de un libro.
+   */
+  private Usuario leerPropietario(ObjectId usuarioId) {
+    Query query = new Query(Criteria.where("_id").is(usuarioId));
+    query.fields().include("email").include("region");
+    return mongoTemplate.findOne(query, Usuario.class);
+  }
+
+  private ObjectId identificador(String id) {
+    if (id == null || !ObjectId.isValid(id)) {
+      throw new RuntimeException("Libro no encontrado");
     }
+    return new ObjectId(id);
+  }
+
+  /**
+   * Aplica una actualización a un libro del usuario, incrementando su versión.
+   * Solo viajan los campos modificados; el resultado debe propagarse después
+   * con {@link #propagarCambios(Usuario, Libro)}.
+   *
+   * @return Libro tal como queda tras la actualización
+   * @throws RuntimeException si el libro no existe o no es del usuario
+   */
+  private Libro modificarLibro(Usuario usuario, ObjectId libroId, Update update) {
+    Libro libro = mongoTemplate.findAndModify(consultaLibro(usuario, libroId), update.inc("version", 1),
+        FindAndModifyOptions.options().returnNew(true), Libro.class);
+    if (libro == null) {
+      throw new RuntimeException("Libro no encontrado");
+    }
+    return libro;
+  }
 
-    // Guardar los cambios
-    usuarioRepository.save(usuarioPropietario);
+  private Query consultaLibro(Usuario usuario, ObjectId libroId) {
+    return new Query(Criteria.where("_id").is(libroId).and("usuarioId").is(new ObjectId(usuario.getId())));
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+package com.compartir.libros.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limitador de tasa de tipo "cubo de fichas": admite ráfagas de hasta
+ * {@code capacidad} operaciones y, en promedio, {@code porSegundo} operaciones
+ * por segundo. Es seguro para su uso desde varios hilos.
+ *
+ * @author Sergio
+ */
+public class LimitadorTasa {
+
+    private final double capacidad;
+    private final double fichasPorNano;
+    private double fichas;
+    private long ultimaRecarga;
+
+    /**
+     * @param porSegundo Operaciones por segundo admitidas de forma sostenida
+     * @param capacidad  Tamaño máximo de una ráfaga
+     */
+    public LimitadorTasa(double porSegundo, int capacidad) {
+        if (porSegundo <= 0 || capacidad < 1) {
+            throw new IllegalArgumentException("La tasa y la capacidad del limitador deben ser positivas");
+        }
+        this.capacidad = capacidad;
+        this.fichasPorNano = porSegundo / TimeUnit.SECONDS.toNanos(1);
+        this.fichas = capacidad;
+        this.ultimaRecarga = System.nanoTime();
+    }
+
+    /**
+     * Toma una ficha si hay alguna disponible, sin esperar.
+     *
+     * @return true si se ha tomado la ficha
+     */
+    public synchronized boolean intentarAdquirir() {
+        recargar();
+        if (fichas >= 1) {
+            fichas -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Toma una ficha, esperando el tiempo necesario hasta que haya una.
+     *
+     * @throws InterruptedException si el hilo se interrumpe durante la espera
+     */
+    public void adquirir() throws InterruptedException {
+        adquirir(1);
+    }
+
+    /**
+     * Toma varias fichas, las disponibles primero y el resto a medida que se
+     * recargan, de modo que pedir más fichas que la capacidad retrasa la
+     * operación lo necesario para respetar la tasa media.
+     *
+     * @param cantidad Fichas a tomar
+     * @throws InterruptedException si el hilo se interrumpe durante la espera;
+     *                              las fichas ya tomadas no se devuelven
+     */
+    public void adquirir(int cantidad) throws InterruptedException {
+        if (cantidad < 1) {
+            throw new IllegalArgumentException("Hay que tomar al menos una ficha");
+        }
+        int pendientes = cantidad;
+        while (true) {
+            long espera;
+            synchronized (this) {
+                recargar();
+                int tomadas = (int) Math.min(pendientes, Math.floor(fichas));
+                fichas -= tomadas;
+                pendientes -= tomadas;
+                if (pendientes == 0) {
+                    return;
+                }
+                // Se espera a poder tomar de una vez lo que falta, o una ráfaga completa
+                espera = (long) Math.ceil((Math.min(pendientes, capacidad) - fichas) / fichasPorNano);
+            }
+            TimeUnit.NANOSECONDS.sleep(espera);
+        }
+    }
+
+    private void recargar() {
+        long ahora = System.nanoTime();
+        fichas = Math.min(capacidad, fichas + (ahora - ultimaRecarga) * fichasPorNano);
+        ultimaRecarga = ahora;
+    }
+}
@@ -0,0 +1,219 @@
+package com.compartir.libros.service;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.Usuario;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Migración de las imágenes guardadas en línea (URI {@code data:}) en las
+ * fotos de perfil y las portadas de los libros a {@link AlmacenImagenes}.
+ *
+ * <p>La lanza {@link MigracionLibros} al terminar, para que las portadas de
+ * los libros que estaban embebidos ya estén en la colección de libros. Recorre
+ * por lotes los documentos que todavía tienen una imagen en línea: cada
+ * imagen se guarda y el documento se actualiza solo si la imagen no ha
+ * cambiado entretanto; si ha cambiado, la copia se descarta. Después asigna el
+ * recuento de referencias a los originales guardados antes de que existiera,
+ * contando los documentos que usan su URL, y genera las variantes reducidas
+ * que falten ({@link VariantesImagenes}). La aplicación
+ * sigue atendiendo peticiones mientras tanto, y una migración interrumpida se
+ * reanuda en el siguiente arranque.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MigracionImagenes {
+
+    private final MongoTemplate mongoTemplate;
+    private final AlmacenImagenes almacenImagenes;
+    private final CatalogoLibrosService catalogoLibros;
+    private final VariantesImagenes variantesImagenes;
+
+    @Value("${libros.migracion.tamano-lote:100}")
+    private int tamanoLote;
+
+    /**
+     * Traslada al almacén las fotos de perfil y las portadas en línea, asigna
+     * el recuento de referencias a los originales que no lo tienen y genera
+     * las variantes de las imágenes que todavía no las tienen.
+     */
+    public void migrar() {
+        try {
+            long usuarios = migrarCampo(mongoTemplate.getCollectionName(Usuario.class), "imagen", false);
+            long portadas = migrarCampo(mongoTemplate.getCollectionName(Libro.class), "portada", true);
+            if (usuarios + portadas > 0) {
+                log.info("Migradas {} fotos de perfil y {} portadas al almacén de imágenes", usuarios, portadas);
+            }
+            long recontadas = asignarRecuentosPendientes();
+            if (recontadas > 0) {
+                log.info("Asignado el recuento de referencias a {} imágenes", recontadas);
+            }
+            long procesadas = generarVariantesPendientes();
+            if (procesadas > 0) {
+                log.info("Generadas las variantes de {} imágenes", procesadas);
+            }
+        } catch (Exception e) {
+            log.error("No se pudo completar la migración de imágenes; se reanudará en el siguiente arranque", e);
+        }
+    }
+
+    /**
+     * Migra un campo de imagen de una colección, por lotes en orden de id.
+     *
+     * @param libros Si la colección es la de libros, cuyo catálogo debe
+     *               sincronizarse, libro a libro, tras cada imagen migrada
+     * @return Número de imágenes migradas
+     */
+    private long migrarCampo(String coleccion, String campo, boolean libros) {
+        int tamano = Math.max(1, tamanoLote);
+        long migradas = 0;
+        ObjectId ultimo = null;
+        List<Document> lote;
+        do {
+            Criteria criterio = Criteria.where(campo).regex("^data:");
+            if (ultimo != null) {
+                criterio.and("_id").gt(ultimo);
+            }
+            Query query = new Query(criterio).with(Sort.by("_id")).limit(tamano);
+            query.fields().include(campo);
+            lote = mongoTemplate.find(query, Document.class, coleccion);
+
+            for (Document documento : lote) {
+                ultimo = documento.getObjectId("_id");
+                if (migrarImagen(coleccion, campo, documento, libros)) {
+                    migradas++;
+                    if (libros) {
+                        catalogoLibros.sincronizarLibro(ultimo);
+                    }
+                }
+            }
+        } while (lote.size() >= tamano);
+        return migradas;
+    }
+
+    /**
+     * Asigna, uno a uno y por lotes en orden de id, el recuento de referencias
+     * a los originales que no lo tienen: el número de fotos de perfil y
+     * portadas que usan su URL. Los que no usa nadie se eliminan.
+     *
+     * @return Número de originales recontados
+     */
+    private long asignarRecuentosPendientes() {
+        int tamano = Math.max(1, tamanoLote);
+        long recontadas = 0;
+        ObjectId ultimo = null;
+        List<Document> lote;
+        do {
+            Criteria criterio = Criteria.where("metadata.original").exists(false)
+                    .and("metadata.referencias").exists(false);
+            if (ultimo != null) {
+                criterio.and("_id").gt(ultimo);
+            }
+            Query query = new Query(criterio).with(Sort.by("_id")).limit(tamano);
+            query.fields().include("_id");
+            lote = mongoTemplate.find(query, Document.class, VariantesImagenes.COLECCION_ARCHIVOS);
+
+            // Se cuentan de una vez los usos de todas las URL del lote
+            List<String> urls = lote.stream()
+                    .map(archivo -> AlmacenImagenes.RUTA + archivo.getObjectId("_id").toHexString())
+                    .toList();
+            Map<String, Long> referencias = new HashMap<>();
+            contarReferencias(Usuario.class, "imagen", urls, referencias);
+            contarReferencias(Libro.class, "portada", urls, referencias);
+
+            for (Document archivo : lote) {
+                ultimo = archivo.getObjectId("_id");
+                try {
+                    almacenImagenes.asignarRecuento(ultimo,
+                            referencias.getOrDefault(AlmacenImagenes.RUTA + ultimo.toHexString(), 0L));
+                    recontadas++;
+                } catch (IOException e) {
+                    log.warn("No se pudo leer la imagen {} para asignarle el recuento", ultimo, e);
+                }
+            }
+        } while (lote.size() >= tamano);
+        return recontadas;
+    }
+
+    private void contarReferencias(Class<?> entidad, String campo, List<String> urls, Map<String, Long> referencias) {
+        Aggregation agregacion = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where(campo).in(urls)),
+                Aggregation.group(campo).count().as("total"));
+        mongoTemplate.aggregate(agregacion, entidad, Document.class).forEach(grupo -> referencias.merge(
+                grupo.getString("_id"), ((Number) grupo.get("total")).longValue(), Long::sum));
+    }
+
+    /**
+     * Genera, una a una y en este mismo hilo, las variantes de las imágenes
+     * originales que no se han procesado, como las guardadas antes de que
+     * existieran las variantes o cuya generación se interrumpió.
+     *
+     * @return Número de imágenes procesadas
+     */
+    private long generarVariantesPendientes() {
+        int tamano = Math.max(1, tamanoLote);
+        long procesadas = 0;
+        ObjectId ultimo = null;
+        List<Document> lote;
+        do {
+            Criteria criterio = Criteria.where("metadata.original").exists(false).and("metadata.procesada").ne(true);
+            if (ultimo != null) {
+                criterio.and("_id").gt(ultimo);
+            }
+            Query query = new Query(criterio).with(Sort.by("_id")).limit(tamano);
+            query.fields().include("_id");
+            lote = mongoTemplate.find(query, Document.class, VariantesImagenes.COLECCION_ARCHIVOS);
+
+            for (Document archivo : lote) {
+                ultimo = archivo.getObjectId("_id");
+                variantesImagenes.generar(ultimo);
+                procesadas++;
+            }
+        } while (lote.size() >= tamano);
+        return procesadas;
+    }
+
+    private boolean migrarImagen(String coleccion, String campo, Document documento, boolean libro) {
+        String enLinea = documento.getString(campo);
+        String url;
+        try {
+            url = almacenImagenes.guardar(enLinea);
+        } catch (IllegalArgumentException e) {
+            log.warn("Imagen en línea no válida en {} {}: se conserva sin migrar", coleccion, documento.get("_id"));
+            return false;
+        }
+
+        Update update = new Update().set(campo, url);
+        if (libro) {
+            update.inc("version", 1);
+        }
+        boolean actualizado = mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(documento.get("_id")).and(campo).is(enLinea)),
+                update,
+                coleccion).getModifiedCount() > 0;
+        if (!actualizado) {
+            almacenImagenes.liberar(url);
+        }
+        return actualizado;
+    }
+}
@@ -0,0 +1,190 @@
+package com.compartir.libros.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.LibroRepository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Migración de los libros embebidos en los documentos de usuario (campo
+ * {@code libros}) a la colección "libros", con un documento por libro.
+ *
+ * <p>Se ejecuta en segundo plano al arrancar, por lotes de usuarios, mientras
+ * la aplicación sigue atendiendo peticiones. El progreso es el propio campo
+ * {@code libros}: se elimina del usuario cuando sus libros ya están copiados,
+ * así que la migración puede interrumpirse y se reanuda en el siguiente
+ * arranque. Las copias solo insertan libros que no existan, por lo que repetir
+ * un usuario no pisa cambios posteriores. Hasta que termina,
+ * {@link LibroService} llama a {@link #asegurarMigrado(ObjectId)} antes de
+ * operar sobre los libros de un usuario para migrarlo en ese momento.
+ * Al terminar lanza la migración de imágenes ({@link MigracionImagenes}).</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MigracionLibros {
+
+    private static final String CAMPO_LIBROS = "libros";
+
+    private final MongoTemplate mongoTemplate;
+    private final LibroRepository libroRepository;
+    private final IndiceTrigramasLibros indiceTrigramas;
+    private final SugerenciasLibros sugerenciasLibros;
+    private final CatalogoLibrosService catalogoLibros;
+    private final MigracionImagenes migracionImagenes;
+
+    @Value("${libros.migracion.tamano-lote:100}")
+    private int tamanoLote;
+
+    private volatile boolean completada = false;
+
+    /**
+     * Migra, por lotes de usuarios en orden de id, todos los usuarios que
+     * todavía tienen libros embebidos.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrar() {
+        try {
+            long usuarios = 0;
+            long libros = 0;
+            ObjectId ultimo = null;
+            List<Document> lote;
+            do {
+                Criteria criterio = Criteria.where(CAMPO_LIBROS).exists(true);
+                if (ultimo != null) {
+                    criterio.and("_id").gt(ultimo);
+                }
+                Query query = new Query(criterio).with(Sort.by("_id")).limit(Math.max(1, tamanoLote));
+                query.fields().include(CAMPO_LIBROS);
+                lote = mongoTemplate.find(query, Document.class, coleccionUsuarios());
+
+                for (Document usuario : lote) {
+                    libros += migrarUsuario(usuario);
+                    ultimo = usuario.getObjectId("_id");
+                }
+                usuarios += lote.size();
+            } while (!lote.isEmpty());
+
+            completada = true;
+            if (usuarios > 0) {
+                log.info("Migrados {} libros de {} usuarios a la colección de libros", libros, usuarios);
+            }
+            migracionImagenes.migrar();
+        } catch (Exception e) {
+            log.error("No se pudo completar la migración de libros; se reanudará en el siguiente arranque", e);
+        }
+    }
+
+    /**
+     * Migra los libros embebidos de un usuario si todavía los tiene. Una vez
+     * terminada la migración completa no hace ninguna consulta.
+     *
+     * @param usuarioId Id del usuario
+     */
+    public void asegurarMigrado(ObjectId usuarioId) {
+        if (completada) {
+            return;
+        }
+        Query query = new Query(Criteria.where("_id").is(usuarioId).and(CAMPO_LIBROS).exists(true));
+        query.fields().include(CAMPO_LIBROS);
+        Document usuario = mongoTemplate.findOne(query, Document.class, coleccionUsuarios());
+        if (usuario != null) {
+            migrarUsuario(usuario);
+        }
+    }
+
+    /**
+     * Copia los libros embebidos de un usuario a la colección de libros y los
+     * elimina del usuario, siempre que la lista no haya cambiado entretanto.
+     *
+     * @return Número de libros copiados
+     */
+    private int migrarUsuario(Document usuario) {
+        ObjectId usuarioId = usuario.getObjectId("_id");
+        List<Document> embebidos = usuario.getList(CAMPO_LIBROS, Document.class, List.of());
+
+        // Los libros sin identificador lo reciben antes de copiarse, para que una repetición use el mismo
+        if (embebidos.stream().anyMatch(libro -> libro.getObjectId("_id") == null)) {
+            List<Document> conIdentificador = new ArrayList<>();
+            for (Document libro : embebidos) {
+                Document copia = new Document("_id", libro.getObjectId("_id") != null ? libro.getObjectId("_id")
+                        : new ObjectId());
+                libro.forEach((campo, valor) -> copia.putIfAbsent(campo, valor));
+                conIdentificador.add(copia);
+            }
+            if (mongoTemplate.updateFirst(
+                    new Query(Criteria.where("_id").is(usuarioId).and(CAMPO_LIBROS).is(embebidos)),
+                    new Update().set(CAMPO_LIBROS, conIdentificador),
+                    coleccionUsuarios()).getMatchedCount() == 0) {
+                return 0;
+            }
+            embebidos = conIdentificador;
+        }
+
+        if (!embebidos.isEmpty()) {
+            BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                    mongoTemplate.getCollectionName(Libro.class));
+            for (Document libro : embebidos) {
+                Update update = new Update().setOnInsert("usuarioId", usuarioId);
+                libro.forEach((campo, valor) -> {
+                    if (!"_id".equals(campo)) {
+                        update.setOnInsert(campo, valor);
+                    }
+                });
+                operaciones.upsert(new Query(Criteria.where("_id").is(libro.getObjectId("_id"))), update);
+            }
+            operaciones.execute();
+        }
+
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("_id").is(usuarioId).and(CAMPO_LIBROS).is(embebidos)),
+                new Update().unset(CAMPO_LIBROS),
+                coleccionUsuarios());
+        propagar(usuarioId);
+        return embebidos.size();
+    }
+
+    /**
+     * Añade al índice de búsqueda, a las sugerencias y al catálogo los libros
+     * del usuario ya migrados.
+     */
+    private void propagar(ObjectId usuarioId) {
+        Query query = new Query(Criteria.where("_id").is(usuarioId));
+        query.fields().include("email").include("region");
+        Usuario propietario = mongoTemplate.findOne(query, Usuario.class);
+        if (propietario == null) {
+            return;
+        }
+        for (Libro libro : libroRepository.findByUsuarioIdOrderByIdAsc(usuarioId)) {
+            indiceTrigramas.actualizarLibro(libro);
+            sugerenciasLibros.actualizarLibro(libro);
+            catalogoLibros.sincronizarLibro(propietario, libro);
+        }
+    }
+
+    private String coleccionUsuarios() {
+        return mongoTemplate.getCollectionName(Usuario.class);
+    }
+}
@@ -0,0 +1,66 @@
+package com.compartir.libros.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Reglas comunes de la paginación por cursor: los límites de tamaño de página
+ * y la codificación de los cursores, que se transmiten al cliente como el id
+ * del último elemento devuelto en Base64, sin exponer su formato.
+ *
+ * @author Sergio
+ */
+final class Paginacion {
+    /** Tamaño de página usado cuando el cliente no indica un límite. */
+    static final int LIMITE_POR_DEFECTO = 20;
+    /** Tamaño de página máximo admitido. */
+    static final int LIMITE_MAXIMO = 100;
+
+    private Paginacion() {
+    }
+
+    /**
+     * Ajusta el límite pedido por el cliente a los admitidos.
+     *
+     * @param limite Límite pedido, o null para el valor por defecto
+     * @return Tamaño de página a usar
+     */
+    static int limitar(Integer limite) {
+        if (limite == null) {
+            return LIMITE_POR_DEFECTO;
+        }
+        return Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+    }
+
+    /**
+     * Codifica el id del último elemento de una página como cursor para el
+     * cliente.
+     *
+     * @param id Id del último elemento devuelto
+     * @return Cursor opaco
+     */
+    static String codificarCursor(ObjectId id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(id.toHexString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodifica un cursor recibido del cliente.
+     *
+     * @param cursor Cursor opaco, o null
+     * @return Id codificado en el cursor, o null si no se indicó cursor
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    static ObjectId decodificarCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            return new ObjectId(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor de paginación no válido");
+        }
+    }
+}
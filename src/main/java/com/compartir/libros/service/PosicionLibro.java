@@ -0,0 +1,41 @@
+package com.compartir.libros.service;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Posición de un libro en el recorrido del catálogo: el id del propio libro.
+ * Define el orden estable de las consultas de catálogo, que no se altera al
+ * añadir o eliminar otros libros, y se transmite al cliente como cursor opaco
+ * codificado con {@link Paginacion}.
+ *
+ * @param libroId Id del libro
+ * @author Sergio
+ */
+record PosicionLibro(ObjectId libroId) implements Comparable<PosicionLibro> {
+
+    @Override
+    public int compareTo(PosicionLibro otra) {
+        return libroId.compareTo(otra.libroId);
+    }
+
+    /**
+     * Codifica la posición como cursor para el cliente.
+     *
+     * @return Cursor opaco
+     */
+    String codificar() {
+        return Paginacion.codificarCursor(libroId);
+    }
+
+    /**
+     * Decodifica un cursor recibido del cliente.
+     *
+     * @param cursor Cursor opaco, o null
+     * @return Posición codificada en el cursor, o null si no se indicó cursor
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    static PosicionLibro decodificar(String cursor) {
+        ObjectId libroId = Paginacion.decodificarCursor(cursor);
+        return libroId == null ? null : new PosicionLibro(libroId);
+    }
+}
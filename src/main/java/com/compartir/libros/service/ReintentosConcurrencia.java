@@ -0,0 +1,77 @@
+package com.compartir.libros.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Política de reintentos acotados para operaciones que pueden perder una
+ * carrera con otra petición concurrente.
+ *
+ * <p>Se reintenta ante errores transitorios de acceso a datos
+ * ({@link TransientDataAccessException}), entre ellos los conflictos de
+ * concurrencia como {@code OptimisticLockingFailureException}.
+ * Entre intentos se espera un tiempo aleatorio entre cero y un máximo que se
+ * duplica en cada intento ("full jitter"), para que las peticiones que
+ * chocaron no vuelvan a coincidir.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+public class ReintentosConcurrencia {
+
+    private final int intentosMaximos;
+    private final long esperaBaseMs;
+    private final long esperaMaximaMs;
+
+    public ReintentosConcurrencia(
+            @Value("${libros.reintentos.intentos-maximos:4}") int intentosMaximos,
+            @Value("${libros.reintentos.espera-base-ms:10}") long esperaBaseMs,
+            @Value("${libros.reintentos.espera-maxima-ms:200}") long esperaMaximaMs) {
+        this.intentosMaximos = Math.max(1, intentosMaximos);
+        this.esperaBaseMs = Math.max(0, esperaBaseMs);
+        this.esperaMaximaMs = Math.max(this.esperaBaseMs, esperaMaximaMs);
+    }
+
+    /**
+     * Ejecuta la operación, reintentándola mientras falle por un conflicto de
+     * concurrencia o un error transitorio y queden intentos.
+     *
+     * @param operacion Operación a ejecutar; debe poder repetirse desde el principio
+     * @param <T>       Tipo del resultado
+     * @return Resultado del primer intento que termina sin conflicto
+     * @throws RuntimeException si se agotan los intentos
+     */
+    public <T> T ejecutar(Supplier<T> operacion) {
+        for (int intento = 1; ; intento++) {
+            try {
+                return operacion.get();
+            } catch (TransientDataAccessException e) {
+                if (intento >= intentosMaximos) {
+                    log.warn("Operación abandonada tras {} intentos por conflictos concurrentes", intento);
+                    throw new RuntimeException("La operación no pudo completarse por cambios simultáneos, vuelve a intentarlo");
+                }
+                esperar(intento);
+            }
+        }
+    }
+
+    private void esperar(int intento) {
+        long tope = Math.min(esperaMaximaMs, esperaBaseMs << Math.min(intento - 1, 20));
+        if (tope <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(tope + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Operación interrumpida");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.compartir.libros.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import com.compartir.libros.dto.libro.SugerenciaDTO;
+import com.compartir.libros.model.Libro;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Estructura de autocompletado en memoria sobre los títulos y autores del
+ * catálogo. Las sugerencias se guardan en un mapa ordenado por su texto
+ * normalizado (minúsculas y sin tildes), de modo que todas las que empiezan
+ * por un prefijo forman un rango contiguo que se recorre sin búsqueda lineal.
+ *
+ * <p>Cada texto lleva un contador de los libros que lo aportan, para que
+ * desaparezca cuando deja de estar en el catálogo y para ordenar las
+ * sugerencias por popularidad. Se construye en segundo
+ * plano al arrancar y {@link LibroService} lo mantiene actualizado libro a
+ * libro; los textos de un libro no se sustituyen por los de una versión
+ * anterior del mismo libro.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SugerenciasLibros {
+
+    /** Número de sugerencias devueltas cuando el cliente no indica un límite. */
+    public static final int LIMITE_POR_DEFECTO = 10;
+    /** Número máximo de sugerencias por consulta. */
+    public static final int LIMITE_MAXIMO = 20;
+
+    /** Más libros primero y, a igualdad, por orden alfabético. */
+    private static final Comparator<Candidata> POR_POPULARIDAD = Comparator.comparingInt(Candidata::libros)
+            .reversed()
+            .thenComparing(Candidata::clave);
+
+    private static final String TITULO = "titulo";
+    private static final String AUTOR = "autor";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final ConcurrentSkipListMap<String, Sugerencia> sugerencias = new ConcurrentSkipListMap<>();
+    private final Map<ObjectId, Aportacion> aportadasPorLibro = new HashMap<>();
+    // Un valor nulo indica que el libro se eliminó durante la reconstrucción
+    private final Map<ObjectId, Aportacion> cambiosDuranteReconstruccion = new HashMap<>();
+    private boolean reconstruyendo = false;
+
+    /**
+     * Texto sugerido y número de libros del catálogo que lo contienen.
+     */
+    private static final class Sugerencia {
+        private final SugerenciaDTO dto;
+        private volatile int libros;
+
+        private Sugerencia(SugerenciaDTO dto) {
+            this.dto = dto;
+        }
+    }
+
+    /**
+     * Copia de una sugerencia tomada al consultar, para que su orden no cambie
+     * si otro hilo actualiza el contador mientras se elige.
+     */
+    private record Candidata(String clave, SugerenciaDTO dto, int libros) {
+    }
+
+    /**
+     * Textos aportados por un libro y versión del libro de la que proceden.
+     */
+    private record Aportacion(long version, List<SugerenciaDTO> textos) {
+    }
+
+    /**
+     * Reconstruye las sugerencias leyendo únicamente el título, el autor y la
+     * versión de cada libro.
+     */
+    @Async
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruir() {
+        synchronized (this) {
+            reconstruyendo = true;
+        }
+
+        try {
+            Query query = new Query();
+            query.fields().include("titulo").include("autor").include("version");
+
+            Map<ObjectId, Aportacion> leidas = new HashMap<>();
+            try (Stream<Document> libros = mongoTemplate.stream(query, Document.class,
+                    mongoTemplate.getCollectionName(Libro.class))) {
+                libros.forEach(libro -> {
+                    Number version = libro.get("version", Number.class);
+                    leidas.put(libro.getObjectId("_id"), aportacion(libro.getString("titulo"),
+                            libro.getString("autor"), version == null ? 0 : version.longValue()));
+                });
+            }
+
+            synchronized (this) {
+                sugerencias.clear();
+                aportadasPorLibro.clear();
+                leidas.forEach(this::sustituirAportadas);
+                // Los cambios recibidos durante la lectura pueden no estar reflejados en ella
+                cambiosDuranteReconstruccion.forEach(this::sustituirAportadas);
+            }
+            log.info("Sugerencias de catálogo construidas con {} textos", sugerencias.size());
+        } catch (Exception e) {
+            log.error("No se pudieron construir las sugerencias de catálogo", e);
+        } finally {
+            synchronized (this) {
+                reconstruyendo = false;
+                cambiosDuranteReconstruccion.clear();
+            }
+        }
+    }
+
+    /**
+     * Sustituye los títulos y autores aportados por un libro por los actuales,
+     * salvo que ya se reflejen los de una versión posterior del libro.
+     *
+     * @param libro Libro tal como está guardado
+     */
+    public synchronized void actualizarLibro(Libro libro) {
+        cambiar(libro.getId(), aportacion(libro.getTitulo(), libro.getAutor(), libro.getVersion()));
+    }
+
+    /**
+     * Retira los títulos y autores aportados por un libro eliminado.
+     *
+     * @param libroId Id del libro
+     */
+    public synchronized void eliminarLibro(ObjectId libroId) {
+        cambiar(libroId, null);
+    }
+
+    /**
+     * Obtiene los títulos y autores que empiezan por el prefijo indicado, sin
+     * distinguir mayúsculas ni tildes, empezando por los que aparecen en más
+     * libros del catálogo y, a igualdad, en orden alfabético.
+     *
+     * <p>Se recorre el rango del prefijo conservando solo las {@code limite}
+     * mejores en un montículo, así que la memoria no depende de cuántos textos
+     * empiecen por él.</p>
+     *
+     * @param prefijo Prefijo escrito por el usuario
+     * @param limite  Número máximo de sugerencias, o null para el valor por defecto
+     * @return Sugerencias encontradas
+     */
+    public List<SugerenciaDTO> sugerir(String prefijo, Integer limite) {
+        String normalizado = normalizar(prefijo);
+        if (normalizado.isEmpty()) {
+            return List.of();
+        }
+        int maximo = limite == null ? LIMITE_POR_DEFECTO : Math.max(1, Math.min(limite, LIMITE_MAXIMO));
+
+        // La cabeza del montículo es la peor de las elegidas, la primera en salir si llega una mejor
+        PriorityQueue<Candidata> mejores = new PriorityQueue<>(maximo + 1, POR_POPULARIDAD.reversed());
+        sugerencias.subMap(normalizado, true, normalizado + Character.MAX_VALUE, false).forEach((clave, sugerencia) -> {
+            mejores.add(new Candidata(clave, sugerencia.dto, sugerencia.libros));
+            if (mejores.size() > maximo) {
+                mejores.poll();
+            }
+        });
+
+        return mejores.stream()
+                .sorted(POR_POPULARIDAD)
+                .map(Candidata::dto)
+                .toList();
+    }
+
+    private void cambiar(ObjectId libroId, Aportacion aportacion) {
+        if (reconstruyendo && !esAnterior(aportacion, cambiosDuranteReconstruccion.get(libroId))) {
+            cambiosDuranteReconstruccion.put(libroId, aportacion);
+        }
+        sustituirAportadas(libroId, aportacion);
+    }
+
+    private void sustituirAportadas(ObjectId libroId, Aportacion aportacion) {
+        Aportacion anterior = aportadasPorLibro.get(libroId);
+        if (esAnterior(aportacion, anterior)) {
+            return;
+        }
+        if (anterior != null) {
+            anterior.textos().forEach(this::descontar);
+        }
+        if (aportacion != null) {
+            aportadasPorLibro.put(libroId, aportacion);
+            aportacion.textos().forEach(this::contar);
+        } else {
+            aportadasPorLibro.remove(libroId);
+        }
+    }
+
+    // Una eliminación nunca es anterior a la aportación que retira
+    private boolean esAnterior(Aportacion aportacion, Aportacion otra) {
+        return aportacion != null && otra != null && aportacion.version() < otra.version();
+    }
+
+    private void contar(SugerenciaDTO dto) {
+        sugerencias.computeIfAbsent(clave(dto), c -> new Sugerencia(dto)).libros++;
+    }
+
+    private void descontar(SugerenciaDTO dto) {
+        sugerencias.computeIfPresent(clave(dto), (c, sugerencia) -> --sugerencia.libros > 0 ? sugerencia : null);
+    }
+
+    private Aportacion aportacion(String titulo, String autor, long version) {
+        List<SugerenciaDTO> textos = new ArrayList<>();
+        if (titulo != null && !titulo.isBlank()) {
+            textos.add(new SugerenciaDTO(titulo.trim(), TITULO));
+        }
+        if (autor != null && !autor.isBlank()) {
+            textos.add(new SugerenciaDTO(autor.trim(), AUTOR));
+        }
+        return new Aportacion(version, textos);
+    }
+
+    // El tipo va tras un separador menor que cualquier carácter para no alterar el orden alfabético
+    private String clave(SugerenciaDTO dto) {
+        return normalizar(dto.getTexto()) + '\u0000' + dto.getTipo();
+    }
+
+    private static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        return Normalizer.normalize(texto.trim(), Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+    }
+}
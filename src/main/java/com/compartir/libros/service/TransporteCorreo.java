@@ -0,0 +1,44 @@
+package com.compartir.libros.service;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.compartir.libros.dto.email.CorreoMasivo;
+import com.compartir.libros.dto.email.ResultadoEnvio;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Medio por el que la aplicación envía correo. Se elige con la propiedad
+ * {@code libros.correo.transporte}: {@code gmail} (por defecto) envía a través
+ * de la API de Gmail y {@code simulado} no sale de la JVM, para pruebas de
+ * carga y entornos sin conexión.
+ *
+ * @author Sergio
+ */
+public interface TransporteCorreo {
+
+    /** Máximo de correos por envío por lotes; Gmail recomienda no pasar de 50 por petición. */
+    int MAXIMO_POR_LOTE = 50;
+
+    /**
+     * Envía un correo.
+     *
+     * @param destinatario Email del destinatario
+     * @param asunto       Asunto del correo
+     * @param cuerpo       Cuerpo del correo en HTML
+     * @return true si el correo consta como enviado
+     * @throws MessagingException si el correo no puede construirse
+     * @throws IOException        si el envío falla
+     */
+    boolean enviar(String destinatario, String asunto, String cuerpo) throws MessagingException, IOException;
+
+    /**
+     * Envía muchos correos a la vez, en peticiones de hasta
+     * {@value #MAXIMO_POR_LOTE}. El fallo de uno no impide el envío del resto.
+     *
+     * @param correos Correos a enviar
+     * @return Resultado de cada correo, en el mismo orden que la entrada
+     */
+    List<ResultadoEnvio> enviarLote(List<CorreoMasivo> correos);
+}
@@ -0,0 +1,128 @@
+package com.compartir.libros.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import com.compartir.libros.dto.email.CorreoMasivo;
+import com.compartir.libros.dto.email.ResultadoEnvio;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Transporte de correo simulado, activo con
+ * {@code libros.correo.transporte=simulado}. No realiza ninguna llamada de red:
+ * cada envío espera una latencia configurable y falla con la probabilidad
+ * indicada, de modo que las pruebas de carga de reservas y registros se
+ * comporten como con Gmail sin enviar correo real.
+ *
+ * <p>Si se indica {@code libros.correo.simulado.directorio}, cada correo
+ * enviado se escribe allí como un fichero; si no, solo se cuentan.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "libros.correo.transporte", havingValue = "simulado")
+public class TransporteCorreoSimulado implements TransporteCorreo {
+
+    private final long latenciaMs;
+    private final long variacionMs;
+    private final double probabilidadFallo;
+    private final Path directorio;
+    private final AtomicLong enviados = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+
+    public TransporteCorreoSimulado(
+            @Value("${libros.correo.simulado.latencia-ms:200}") long latenciaMs,
+            @Value("${libros.correo.simulado.variacion-ms:100}") long variacionMs,
+            @Value("${libros.correo.simulado.probabilidad-fallo:0}") double probabilidadFallo,
+            @Value("${libros.correo.simulado.directorio:}") String directorio) throws IOException {
+        if (probabilidadFallo < 0 || probabilidadFallo > 1) {
+            throw new IllegalArgumentException("La probabilidad de fallo debe estar entre 0 y 1");
+        }
+        this.latenciaMs = Math.max(0, latenciaMs);
+        this.variacionMs = Math.max(0, variacionMs);
+        this.probabilidadFallo = probabilidadFallo;
+        this.directorio = directorio.isBlank() ? null : Files.createDirectories(Path.of(directorio));
+        log.warn("Transporte de correo simulado activo: no se enviará correo real");
+    }
+
+    @Override
+    public boolean enviar(String destinatario, String asunto, String cuerpo) throws IOException {
+        esperarLatencia();
+        registrar(destinatario, asunto, cuerpo);
+        return true;
+    }
+
+    @Override
+    public List<ResultadoEnvio> enviarLote(List<CorreoMasivo> correos) {
+        // Un lote de Gmail es una sola llamada: se simula una única latencia para todo él
+        esperarLatencia();
+        List<ResultadoEnvio> resultados = new ArrayList<>();
+        for (CorreoMasivo correo : correos) {
+            try {
+                String id = registrar(correo.destinatario(), correo.asunto(), correo.cuerpo());
+                resultados.add(new ResultadoEnvio(correo.destinatario(), true, id, null));
+            } catch (IOException e) {
+                resultados.add(new ResultadoEnvio(correo.destinatario(), false, null, e.getMessage()));
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * @return Correos enviados con éxito desde el arranque
+     */
+    public long getEnviados() {
+        return enviados.get();
+    }
+
+    /**
+     * @return Envíos fallidos simulados desde el arranque
+     */
+    public long getFallidos() {
+        return fallidos.get();
+    }
+
+    /**
+     * Decide si el envío falla y, si no, lo anota.
+     *
+     * @return Id asignado al correo simulado
+     */
+    private String registrar(String destinatario, String asunto, String cuerpo) throws IOException {
+        if (ThreadLocalRandom.current().nextDouble() < probabilidadFallo) {
+            fallidos.incrementAndGet();
+            throw new IOException("Fallo simulado al enviar correo a " + destinatario);
+        }
+        String id = UUID.randomUUID().toString();
+        if (directorio != null) {
+            String contenido = "To: " + destinatario + "\nSubject: " + asunto + "\n\n" + cuerpo + "\n";
+            Files.writeString(directorio.resolve(id + ".eml"), contenido, StandardCharsets.UTF_8);
+        }
+        enviados.incrementAndGet();
+        return id;
+    }
+
+    private void esperarLatencia() {
+        long espera = latenciaMs + (variacionMs > 0 ? ThreadLocalRandom.current().nextLong(variacionMs + 1) : 0);
+        if (espera <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(espera);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
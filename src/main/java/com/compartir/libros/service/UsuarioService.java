@@ -1,19 +1,28 @@
 package com.compartir.libros.service;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import com.compartir.libros.dto.usuario.CambioPasswordRequestDTO;
+import com.compartir.libros.dto.usuario.CredencialesUsuarioDTO;
 import com.compartir.libros.dto.usuario.LoginRequestDTO;
 import com.compartir.libros.dto.usuario.LoginResponseDTO;
 import com.compartir.libros.dto.usuario.RegistroRequestDTO;
+import com.compartir.libros.dto.usuario.TokensDTO;
 import com.compartir.libros.dto.usuario.UsuarioUpdateRequestDTO;
 import com.compartir.libros.model.RegionUsuario;
 import com.compartir.libros.model.Usuario;
 import com.compartir.libros.repository.UsuarioRepository;
+import com.compartir.libros.security.ContextoUsuario;
+import com.compartir.libros.security.ProveedorAutenticacionCacheado;
+import com.compartir.libros.security.ServicioTokens;
 
 import java.util.UUID;
 
@@ -34,18 +43,27 @@ public class UsuarioService {
 
     private final UsuarioRepository usuarioRepository;
     private final PasswordEncoder passwordEncoder;
-    private final GmailAPIService gmailAPIService;
+    private final MongoTemplate mongoTemplate;
+    private final BuzonCorreo buzonCorreo;
+    private final CatalogoLibrosService catalogoLibros;
+    private final ServicioTokens servicioTokens;
+    private final ProveedorAutenticacionCacheado proveedorAutenticacion;
+    private final ContextoUsuario contextoUsuario;
+    private final AlmacenImagenes almacenImagenes;
 
     /**
-     * Autentica a un usuario y devuelve sus datos.
+     * Autentica a un usuario y devuelve sus datos junto con los tokens de
+     * sesión, de modo que las siguientes peticiones no tengan que volver a
+     * comprobar la contraseña.
      *
      * @param loginRequest Datos de inicio de sesión
-     * @return Datos del usuario autenticado
+     * @return Datos del usuario autenticado y sus tokens
      * @throws RuntimeException si el usuario no existe o la contraseña es incorrecta
      */
     public LoginResponseDTO login(LoginRequestDTO loginRequest) {
 
-        Usuario usuario = usuarioRepository.findByEmail(loginRequest.getEmail())
+        // Los libros no forman parte de la respuesta: no se leen
+        Usuario usuario = usuarioRepository.findPerfilByEmail(loginRequest.getEmail())
             .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
 
         if (!passwordEncoder.matches(loginRequest.getPassword(), usuario.getPassword())) {
@@ -68,10 +86,36 @@ public class UsuarioService {
             usuario.getRegion().getCiudad(),
             usuario.getRegion().getProvincia(),
             usuario.getRegion().getPais(),
-            usuario.getRegion().getContinente()
+            usuario.getRegion().getContinente(),
+            servicioTokens.emitir(usuario.getEmail(), usuario.getNombre(), usuario.getPassword())
         );
     }
 
+    /**
+     * Emite un nuevo par de tokens a partir de un token de refresco válido.
+     * Se rechaza si el usuario ya no existe o ha cambiado su contraseña desde
+     * que se emitió el token.
+     *
+     * @param tokenRefresco Token de refresco recibido
+     * @return Nuevos tokens de sesión
+     * @throws RuntimeException si el token no es válido o ha sido revocado
+     */
+    public TokensDTO refrescarToken(String tokenRefresco) {
+        ServicioTokens.DatosToken datos = servicioTokens.validar(tokenRefresco, ServicioTokens.REFRESCO);
+        if (datos == null) {
+            throw new RuntimeException("Token de refresco no válido o caducado");
+        }
+
+        CredencialesUsuarioDTO usuario = contextoUsuario.credenciales(datos.email())
+            .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+
+        if (!servicioTokens.huella(usuario.password()).equals(datos.huella())) {
+            throw new RuntimeException("La sesión ha caducado, vuelve a iniciar sesión");
+        }
+
+        return servicioTokens.emitir(usuario.email(), usuario.nombre(), usuario.password());
+    }
+
     /**
      * Registra un nuevo usuario en el sistema.
      *
@@ -96,7 +140,6 @@ public class UsuarioService {
         usuario.setEmail(registroRequest.getEmail());
         usuario.setPassword(passwordEncoder.encode(registroRequest.getPassword()));
         usuario.setRegion(region);
-        usuario.setLibros(new ArrayList<>());
 
         // Generate verification token
         generateVerificationToken(usuario);
@@ -104,20 +147,14 @@ public class UsuarioService {
         // Save user first to get the ID
         usuario = usuarioRepository.save(usuario);
 
-        // Send verification email
-        try {
-            String verificationUrl = "http://localhost:3000/verificacion?token=" + usuario.getVerificationToken();
-            String emailBody = "Por favor verifica tu email haciendo clic en el siguiente enlace: <a href=\"" + verificationUrl + "\">Verificar Email</a>";
-            
-            gmailAPIService.sendMessage(
-                usuario.getEmail(),
-                "Verifica tu cuenta en Leer es Compartir",
-                emailBody,
-                null
-            );
-        } catch (Exception e) {
-            log.error("Error al enviar el email de verificación", e);
-        }
+        // Queue verification email; it is sent in the background
+        String verificationUrl = "http://localhost:3000/verificacion?token=" + usuario.getVerificationToken();
+        String emailBody = "Por favor verifica tu email haciendo clic en el siguiente enlace: <a href=\"" + verificationUrl + "\">Verificar Email</a>";
+        buzonCorreo.encolar(
+            usuario.getEmail(),
+            "Verifica tu cuenta en Leer es Compartir",
+            emailBody
+        );
 
         return usuario;
     }
@@ -152,15 +189,19 @@ public class UsuarioService {
      * @throws RuntimeException si el usuario no existe o la contraseña actual es incorrecta
      */
     public void cambiarPassword(String email, CambioPasswordRequestDTO request) {
-        Usuario usuario = usuarioRepository.findByEmail(email)
+        CredencialesUsuarioDTO usuario = contextoUsuario.credenciales(email)
             .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
 
-        if (!passwordEncoder.matches(request.getPasswordActual(), usuario.getPassword())) {
+        if (!passwordEncoder.matches(request.getPasswordActual(), usuario.password())) {
             throw new RuntimeException("Contraseña actual incorrecta");
         }
 
-        usuario.setPassword(passwordEncoder.encode(request.getNuevaPassword()));
-        usuarioRepository.save(usuario);
+        // Solo se escribe la contraseña, sin volver a guardar la imagen ni los libros
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(usuario.id())),
+            new Update().set("password", passwordEncoder.encode(request.getNuevaPassword())),
+            Usuario.class);
+        contextoUsuario.olvidar();
+        proveedorAutenticacion.invalidar(email);
     }
 
     /**
@@ -172,27 +213,27 @@ public class UsuarioService {
      * @throws RuntimeException si el usuario no existe
      */
     public Usuario actualizarUsuario(String email, UsuarioUpdateRequestDTO request) {
-        Usuario usuario = usuarioRepository.findByEmail(email)
-            .orElseThrow(() -> new RuntimeException("Usuario no encontrado"));
+        Update update = new Update()
+            .set("nombre", request.getNombre())
+            .set("email", request.getEmail());
 
-        usuario.setNombre(request.getNombre());
-        usuario.setEmail(request.getEmail());
-
-        if (request.getImagen() != null) {
-            // Verificar si la imagen es válida (por ejemplo, comienza con "data:")
-            if (request.getImagen().startsWith("data:")) {
-                log.debug("Actualizando imagen de usuario");
-                usuario.setImagen(request.getImagen());
-            } else {
-                log.warn("Formato de imagen no válido: no comienza con 'data:'");
-                // No actualizamos la imagen si no tiene formato válido
-            }
+        // Solo una imagen nueva (URI "data:") sustituye a la actual; cualquier otro valor, como la URL actual, la conserva
+        String imagenAnterior = null;
+        String imagenNueva = null;
+        if (almacenImagenes.esEnLinea(request.getImagen())) {
+            log.debug("Actualizando imagen de usuario");
+            Query actual = new Query(Criteria.where("email").is(email));
+            actual.fields().include("imagen");
+            Usuario anterior = mongoTemplate.findOne(actual, Usuario.class);
+            imagenAnterior = anterior != null ? anterior.getImagen() : null;
+            imagenNueva = almacenImagenes.guardar(request.getImagen());
+            update.set("imagen", imagenNueva);
         }
 
-        usuario.setCp(request.getCp());
-        usuario.setTelefono(request.getTelefono());
-        usuario.setBiografia(request.getBiografia());
-        usuario.setIntereses(request.getIntereses());
+        update.set("cp", request.getCp());
+        update.set("telefono", request.getTelefono());
+        update.set("biografia", request.getBiografia());
+        update.set("intereses", request.getIntereses());
 
         RegionUsuario region = new RegionUsuario(
             request.getCiudad(),
@@ -200,9 +241,22 @@ public class UsuarioService {
             request.getPais(),
             request.getContinente()
         );
-        usuario.setRegion(region);
+        update.set("region", region);
+
+        // Solo se escriben los campos del perfil; los libros no se reenvían a la base de datos
+        Usuario guardado = mongoTemplate.findAndModify(new Query(Criteria.where("email").is(email)), update,
+            FindAndModifyOptions.options().returnNew(true), Usuario.class);
+        if (guardado == null) {
+            almacenImagenes.liberar(imagenNueva);
+            throw new RuntimeException("Usuario no encontrado");
+        }
+        almacenImagenes.liberar(imagenAnterior);
 
-        return usuarioRepository.save(usuario);
+        // El catálogo guarda el email y la región del propietario junto a cada libro
+        catalogoLibros.sincronizarUsuario(guardado);
+        contextoUsuario.olvidar();
+        proveedorAutenticacion.invalidar(email);
+        return guardado;
     }
 
     /**
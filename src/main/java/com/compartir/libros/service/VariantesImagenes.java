@@ -0,0 +1,223 @@
+package com.compartir.libros.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Genera las variantes reducidas de cada imagen guardada: una miniatura para
+ * las cuadrículas del catálogo y un tamaño medio para las fichas.
+ *
+ * <p>Cada variante se escala para que su lado mayor no supere el de la
+ * variante, se recomprime (JPEG, o PNG si la imagen tiene transparencia) y
+ * se guarda en GridFS junto al original, con el id de este en
+ * {@code metadata.original}. Al terminar, el original se marca como
+ * procesado ({@code metadata.procesada}); las variantes que no aportarían
+ * nada, porque el original ya es más pequeño, o que no se pueden generar
+ * porque ImageIO no reconoce el formato, no se guardan y se sirve el
+ * original en su lugar.</p>
+ *
+ * @author Sergio
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VariantesImagenes {
+
+    public static final String MINIATURA = "miniatura";
+    public static final String MEDIANA = "mediana";
+    public static final String ORIGINAL = "original";
+
+    /**
+     * Colección de metadatos de GridFS (bucket por defecto).
+     */
+    public static final String COLECCION_ARCHIVOS = "fs.files";
+
+    /**
+     * Lado mayor, en píxeles, de cada variante reducida.
+     */
+    private static final Map<String, Integer> LADOS = Map.of(MINIATURA, 150, MEDIANA, 600);
+
+    private final GridFsOperations gridFs;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${libros.imagenes.calidad:0.8}")
+    private float calidad = 0.8f;
+
+    /**
+     * Indica si un nombre de tamaño es válido.
+     *
+     * @param tamano Nombre del tamaño
+     * @return true si es {@value #MINIATURA}, {@value #MEDIANA} o {@value #ORIGINAL}
+     */
+    public static boolean esTamano(String tamano) {
+        return ORIGINAL.equals(tamano) || LADOS.containsKey(tamano);
+    }
+
+    /**
+     * Genera en segundo plano las variantes de una imagen recién guardada.
+     *
+     * @param original Id de la imagen original
+     */
+    @Async
+    public void generarEnSegundoPlano(ObjectId original) {
+        generar(original);
+    }
+
+    /**
+     * Genera las variantes de una imagen y la marca como procesada. Los errores
+     * se registran y la imagen queda marcada igualmente, de modo que se sirve
+     * el original.
+     *
+     * @param original Id de la imagen original
+     */
+    public void generar(ObjectId original) {
+        try {
+            GridFSFile archivo = gridFs.findOne(new Query(Criteria.where("_id").is(original)));
+            if (archivo == null) {
+                return;
+            }
+            byte[] contenido;
+            try (InputStream entrada = gridFs.getResource(archivo).getInputStream()) {
+                contenido = entrada.readAllBytes();
+            }
+
+            BufferedImage imagen = leer(contenido, LADOS.get(MEDIANA));
+            if (imagen == null) {
+                log.debug("Formato de imagen no reconocido para {}: se servirá el original", original);
+            } else {
+                for (Map.Entry<String, Integer> variante : LADOS.entrySet()) {
+                    guardarVariante(original, variante.getKey(), imagen, variante.getValue());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("No se pudieron generar las variantes de la imagen {}", original, e);
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(original)),
+                new Update().set("metadata.procesada", true), COLECCION_ARCHIVOS);
+    }
+
+    private void guardarVariante(ObjectId original, String nombre, BufferedImage imagen, int lado)
+            throws IOException {
+        if (Math.max(imagen.getWidth(), imagen.getHeight()) <= lado) {
+            return;
+        }
+        // Si ya existía (una generación repetida), no se duplica
+        if (gridFs.findOne(new Query(Criteria.where("metadata.original").is(original)
+                .and("metadata.variante").is(nombre))) != null) {
+            return;
+        }
+
+        boolean transparente = imagen.getColorModel().hasAlpha();
+        byte[] codificada = codificar(escalar(imagen, lado), transparente);
+        gridFs.store(new ByteArrayInputStream(codificada), "imagen", transparente ? "image/png" : "image/jpeg",
+                new Document("original", original).append("variante", nombre));
+    }
+
+    /**
+     * Decodifica la imagen submuestreando al leer cuando es mucho mayor que la
+     * variante más grande, para no ocupar memoria con píxeles que se descartan.
+     *
+     * @return Imagen decodificada, o null si el formato no es reconocido
+     */
+    private BufferedImage leer(byte[] contenido, int ladoMaximo) throws IOException {
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(new ByteArrayInputStream(contenido))) {
+            Iterator<ImageReader> lectores = ImageIO.getImageReaders(entrada);
+            if (!lectores.hasNext()) {
+                return null;
+            }
+            ImageReader lector = lectores.next();
+            try {
+                lector.setInput(entrada, true, true);
+                int lado = Math.max(lector.getWidth(0), lector.getHeight(0));
+                int submuestreo = Math.max(1, lado / (2 * ladoMaximo));
+                ImageReadParam parametros = lector.getDefaultReadParam();
+                parametros.setSourceSubsampling(submuestreo, submuestreo, 0, 0);
+                return lector.read(0, parametros);
+            } finally {
+                lector.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reduce la imagen a la mitad sucesivamente y termina con un último paso
+     * bilineal, que da mejor resultado que un único escalado grande.
+     */
+    private BufferedImage escalar(BufferedImage imagen, int lado) {
+        double factor = (double) lado / Math.max(imagen.getWidth(), imagen.getHeight());
+        int anchoFinal = Math.max(1, (int) Math.round(imagen.getWidth() * factor));
+        int altoFinal = Math.max(1, (int) Math.round(imagen.getHeight() * factor));
+        int tipo = imagen.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage actual = imagen;
+        int ancho = imagen.getWidth();
+        int alto = imagen.getHeight();
+        do {
+            ancho = Math.max(anchoFinal, ancho / 2);
+            alto = Math.max(altoFinal, alto / 2);
+            BufferedImage reducida = new BufferedImage(ancho, alto, tipo);
+            Graphics2D lienzo = reducida.createGraphics();
+            try {
+                lienzo.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                lienzo.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                lienzo.drawImage(actual, 0, 0, ancho, alto, null);
+            } finally {
+                lienzo.dispose();
+            }
+            actual = reducida;
+        } while (ancho != anchoFinal || alto != altoFinal);
+        return actual;
+    }
+
+    private byte[] codificar(BufferedImage imagen, boolean transparente) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        if (transparente) {
+            ImageIO.write(imagen, "png", salida);
+            return salida.toByteArray();
+        }
+
+        ImageWriter escritor = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream destino = ImageIO.createImageOutputStream(salida)) {
+            escritor.setOutput(destino);
+            ImageWriteParam parametros = escritor.getDefaultWriteParam();
+            parametros.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            parametros.setCompressionQuality(calidad);
+            escritor.write(null, new IIOImage(imagen, null, null), parametros);
+        } finally {
+            escritor.dispose();
+        }
+        return salida.toByteArray();
+    }
+}
@@ -0,0 +1,86 @@
+package com.compartir.libros.controller;
+
+import com.compartir.libros.dto.libro.LibroDTO;
+import com.compartir.libros.security.ProveedorAutenticacionCacheado;
+import com.compartir.libros.security.SecurityConfig;
+import com.compartir.libros.security.ServicioTokens;
+import com.compartir.libros.service.LibroService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(LibroController.class)
+@Import(SecurityConfig.class)
+class LibroControllerTest {
+
+    private static final String NDJSON = "application/x-ndjson";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockitoBean
+    private LibroService libroService;
+
+    @MockitoBean
+    private ServicioTokens servicioTokens;
+
+    @MockitoBean
+    private ProveedorAutenticacionCacheado proveedorAutenticacion;
+
+    @Test
+    void transmitirLibrosFiltrados_DebeEscribirUnLibroPorLinea_YCerrarElFlujo() throws Exception {
+        // Arrange
+        boolean[] cerrado = { false };
+        when(libroService.transmitirLibrosFiltrados(null, "disponible", "España", null, null))
+            .thenReturn(Stream.of(libro("Rayuela"), libro("Aura")).onClose(() -> cerrado[0] = true));
+
+        // Act
+        MvcResult resultado = mockMvc.perform(get("/api/libros/filtrar")
+                .header(HttpHeaders.ACCEPT, NDJSON)
+                .param("estado", "disponible")
+                .param("pais", "España"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // Assert
+        String cuerpo = mockMvc.perform(asyncDispatch(resultado))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(NDJSON))
+            .andReturn().getResponse().getContentAsString();
+        assertEquals(objectMapper.writeValueAsString(libro("Rayuela")) + "\n"
+            + objectMapper.writeValueAsString(libro("Aura")) + "\n", cuerpo);
+        assertTrue(cerrado[0]);
+        verify(libroService, never()).filtrarLibros(any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void filtrarLibros_DebeDevolverLaPaginaJson_CuandoNoSePideNdjson() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/api/libros/filtrar").param("cursor", "abc").param("limite", "5"))
+            .andExpect(status().isOk());
+        verify(libroService).filtrarLibros(null, null, null, null, null, "abc", 5);
+        verify(libroService, never()).transmitirLibrosFiltrados(any(), any(), any(), any(), any());
+    }
+
+    private LibroDTO libro(String titulo) {
+        LibroDTO libro = new LibroDTO();
+        libro.setTitulo(titulo);
+        return libro;
+    }
+}
@@ -0,0 +1,91 @@
+package com.compartir.libros.security;
+
+import com.compartir.libros.dto.usuario.CredencialesUsuarioDTO;
+import com.compartir.libros.model.RegionUsuario;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.UsuarioRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ContextoUsuarioTest {
+
+    @Mock
+    private UsuarioRepository usuarioRepository;
+
+    @InjectMocks
+    private ContextoUsuario contexto;
+
+    private final CredencialesUsuarioDTO ana =
+        new CredencialesUsuarioDTO("1", "ana@correo.es", "$2a$10$hash", "Ana", true,
+            new RegionUsuario("Sevilla", "Sevilla", "España", "Europa"));
+
+    @Test
+    void credenciales_DebeConsultarUnaSolaVez_CuandoSePidenVariasVecesEnLaPeticion() {
+        // Arrange
+        when(usuarioRepository.findCredencialesByEmail("ana@correo.es")).thenReturn(Optional.of(ana));
+
+        // Act
+        contexto.credenciales("ana@correo.es");
+        Optional<CredencialesUsuarioDTO> resultado = contexto.credenciales("ana@correo.es");
+
+        // Assert
+        assertEquals(Optional.of(ana), resultado);
+        verify(usuarioRepository, times(1)).findCredencialesByEmail("ana@correo.es");
+    }
+
+    @Test
+    void olvidar_DebeObligarAConsultarDeNuevo() {
+        // Arrange
+        when(usuarioRepository.findCredencialesByEmail("ana@correo.es")).thenReturn(Optional.of(ana));
+        contexto.credenciales("ana@correo.es");
+
+        // Act
+        contexto.olvidar();
+        contexto.credenciales("ana@correo.es");
+
+        // Assert
+        verify(usuarioRepository, times(2)).findCredencialesByEmail("ana@correo.es");
+    }
+
+    @Test
+    void propietario_DebeReutilizarLasCredenciales_CuandoEsElUsuarioAutenticado() {
+        // Arrange
+        when(usuarioRepository.findCredencialesByEmail("ana@correo.es")).thenReturn(Optional.of(ana));
+        contexto.credenciales("ana@correo.es");
+
+        // Act
+        Usuario resultado = contexto.propietario("ana@correo.es").orElseThrow();
+
+        // Assert
+        assertEquals("1", resultado.getId());
+        assertEquals("Sevilla", resultado.getRegion().getCiudad());
+        verify(usuarioRepository, never()).findPropietarioByEmail(anyString());
+    }
+
+    @Test
+    void propietario_DebeConsultarUnaSolaVez_CuandoEsOtroUsuario() {
+        // Arrange
+        Usuario luis = new Usuario();
+        luis.setId("2");
+        luis.setEmail("luis@correo.es");
+        when(usuarioRepository.findPropietarioByEmail("luis@correo.es")).thenReturn(Optional.of(luis));
+
+        // Act
+        contexto.propietario("luis@correo.es");
+        Optional<Usuario> resultado = contexto.propietario("luis@correo.es");
+
+        // Assert
+        assertEquals(Optional.of(luis), resultado);
+        verify(usuarioRepository, times(1)).findPropietarioByEmail("luis@correo.es");
+    }
+}
@@ -0,0 +1,88 @@
+package com.compartir.libros.security;
+
+import com.compartir.libros.controller.UsuarioController;
+import com.compartir.libros.dto.usuario.TokensDTO;
+import com.compartir.libros.service.UsuarioService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(UsuarioController.class)
+@Import({ SecurityConfig.class, FiltroTokenAccesoTest.Tokens.class })
+class FiltroTokenAccesoTest {
+
+    @TestConfiguration
+    static class Tokens {
+
+        // Los tokens de acceso nacen caducados; los de refresco duran una semana
+        @Bean
+        ServicioTokens servicioTokens() {
+            return new ServicioTokens(new ObjectMapper(), Base64.getEncoder().encodeToString(new byte[32]),
+                Duration.ofMinutes(-1), Duration.ofDays(7));
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ServicioTokens servicioTokens;
+
+    @MockitoBean
+    private UsuarioService usuarioService;
+
+    @MockitoBean
+    private ProveedorAutenticacionCacheado proveedorAutenticacion;
+
+    @Test
+    void refrescar_DebeEmitirNuevosTokens_CuandoElTokenDeAccesoHaCaducado() throws Exception {
+        // Arrange
+        TokensDTO tokens = servicioTokens.emitir("ana@correo.es", "Ana", "$2a$10$hash");
+        when(usuarioService.refrescarToken(tokens.getTokenRefresco()))
+            .thenReturn(new TokensDTO("nuevo-acceso", "nuevo-refresco", 900));
+
+        // Act & Assert
+        mockMvc.perform(post("/api/usuarios/token/refrescar")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + tokens.getTokenAcceso())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"tokenRefresco\":\"" + tokens.getTokenRefresco() + "\"}"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.tokenAcceso").value("nuevo-acceso"));
+    }
+
+    @Test
+    void perfil_DebeResponder401ConErrorBearer_CuandoElTokenDeAccesoHaCaducado() throws Exception {
+        // Arrange
+        String tokenAcceso = servicioTokens.emitir("ana@correo.es", "Ana", "$2a$10$hash").getTokenAcceso();
+
+        // Act & Assert
+        mockMvc.perform(get("/api/usuarios/perfil")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + tokenAcceso))
+            .andExpect(status().isUnauthorized())
+            .andExpect(header().string(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\""));
+        verifyNoInteractions(usuarioService);
+    }
+
+    @Test
+    void perfil_DebePedirAutenticacionBasic_CuandoNoHayToken() throws Exception {
+        // Act & Assert
+        mockMvc.perform(get("/api/usuarios/perfil"))
+            .andExpect(status().isUnauthorized())
+            .andExpect(header().string(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"MyAppRealm\""));
+    }
+}
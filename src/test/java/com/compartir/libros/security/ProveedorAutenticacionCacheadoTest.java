@@ -0,0 +1,97 @@
+package com.compartir.libros.security;
+
+import com.compartir.libros.model.Usuario;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProveedorAutenticacionCacheadoTest {
+
+    @Mock
+    private UsuarioDetallesService usuarioDetallesService;
+
+    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+    private final SimpleMeterRegistry registro = new SimpleMeterRegistry();
+    private ProveedorAutenticacionCacheado proveedor;
+
+    @BeforeEach
+    void setUp() {
+        proveedor = new ProveedorAutenticacionCacheado(usuarioDetallesService, passwordEncoder, registro,
+            100, Duration.ofMinutes(5));
+
+        Usuario usuario = new Usuario();
+        usuario.setEmail("ana@correo.es");
+        usuario.setNombre("Ana");
+        usuario.setPassword(passwordEncoder.encode("secreta"));
+        lenient().when(usuarioDetallesService.loadUserByUsername("ana@correo.es"))
+            .thenAnswer(invocacion -> new UsuarioDetalles(usuario, Collections.emptyList()));
+    }
+
+    @Test
+    void authenticate_DebeUsarLaCache_CuandoLasCredencialesYaSeVerificaron() {
+        // Act
+        proveedor.authenticate(solicitud("secreta"));
+        Authentication segunda = proveedor.authenticate(solicitud("secreta"));
+
+        // Assert
+        verify(usuarioDetallesService, times(1)).loadUserByUsername("ana@correo.es");
+        assertTrue(segunda.isAuthenticated());
+        assertEquals("Ana", ((UsuarioDetalles) segunda.getPrincipal()).getNombre());
+        assertEquals(1.0, registro.get("libros.autenticacion.cache").tag("resultado", "acierto").counter().count());
+    }
+
+    @Test
+    void authenticate_DebeVerificar_CuandoLaContrasenaNoCoincideConLaCacheada() {
+        // Arrange
+        proveedor.authenticate(solicitud("secreta"));
+
+        // Act & Assert
+        assertThrows(BadCredentialsException.class, () -> proveedor.authenticate(solicitud("otra")));
+        verify(usuarioDetallesService, times(2)).loadUserByUsername("ana@correo.es");
+    }
+
+    @Test
+    void invalidar_DebeObligarAVerificarDeNuevo() {
+        // Arrange
+        proveedor.authenticate(solicitud("secreta"));
+
+        // Act
+        proveedor.invalidar("ana@correo.es");
+        proveedor.authenticate(solicitud("secreta"));
+
+        // Assert
+        verify(usuarioDetallesService, times(2)).loadUserByUsername("ana@correo.es");
+    }
+
+    @Test
+    void authenticate_DebeVerificar_CuandoLaEntradaHaCaducado() {
+        // Arrange
+        proveedor = new ProveedorAutenticacionCacheado(usuarioDetallesService, passwordEncoder, registro,
+            100, Duration.ZERO);
+        proveedor.authenticate(solicitud("secreta"));
+
+        // Act
+        proveedor.authenticate(solicitud("secreta"));
+
+        // Assert
+        verify(usuarioDetallesService, times(2)).loadUserByUsername("ana@correo.es");
+    }
+
+    private Authentication solicitud(String password) {
+        return UsernamePasswordAuthenticationToken.unauthenticated("ana@correo.es", password);
+    }
+}
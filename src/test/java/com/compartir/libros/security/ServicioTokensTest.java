@@ -0,0 +1,71 @@
+package com.compartir.libros.security;
+
+import com.compartir.libros.dto.usuario.TokensDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServicioTokensTest {
+
+    private static final String SECRETO = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private final ServicioTokens servicio = new ServicioTokens(new ObjectMapper(), SECRETO,
+        Duration.ofMinutes(15), Duration.ofDays(7));
+
+    @Test
+    void validar_DebeDevolverLosDatos_CuandoElTokenEsValido() {
+        // Arrange
+        TokensDTO tokens = servicio.emitir("ana@correo.es", "Ana", "$2a$10$hash");
+
+        // Act
+        ServicioTokens.DatosToken acceso = servicio.validar(tokens.getTokenAcceso(), ServicioTokens.ACCESO);
+        ServicioTokens.DatosToken refresco = servicio.validar(tokens.getTokenRefresco(), ServicioTokens.REFRESCO);
+
+        // Assert
+        assertEquals("ana@correo.es", acceso.email());
+        assertEquals("Ana", acceso.nombre());
+        assertNull(acceso.huella());
+        assertEquals(servicio.huella("$2a$10$hash"), refresco.huella());
+    }
+
+    @Test
+    void validar_DebeRechazar_CuandoElTipoNoCoincide() {
+        // Arrange
+        TokensDTO tokens = servicio.emitir("ana@correo.es", "Ana", "$2a$10$hash");
+
+        // Act & Assert
+        assertNull(servicio.validar(tokens.getTokenRefresco(), ServicioTokens.ACCESO));
+        assertNull(servicio.validar(tokens.getTokenAcceso(), ServicioTokens.REFRESCO));
+    }
+
+    @Test
+    void validar_DebeRechazar_CuandoLaFirmaNoCoincide() {
+        // Arrange
+        String token = servicio.emitir("ana@correo.es", "Ana", "$2a$10$hash").getTokenAcceso();
+        ServicioTokens otro = new ServicioTokens(new ObjectMapper(),
+            Base64.getEncoder().encodeToString(new byte[] {
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32 }),
+            Duration.ofMinutes(15), Duration.ofDays(7));
+
+        // Act & Assert
+        assertNull(otro.validar(token, ServicioTokens.ACCESO));
+        assertNull(servicio.validar(token + "x", ServicioTokens.ACCESO));
+        assertNull(servicio.validar("no-es-un-token", ServicioTokens.ACCESO));
+    }
+
+    @Test
+    void validar_DebeRechazar_CuandoElTokenHaCaducado() {
+        // Arrange
+        ServicioTokens caducado = new ServicioTokens(new ObjectMapper(), SECRETO,
+            Duration.ofSeconds(-1), Duration.ofSeconds(-1));
+        TokensDTO tokens = caducado.emitir("ana@correo.es", "Ana", "$2a$10$hash");
+
+        // Act & Assert
+        assertNull(caducado.validar(tokens.getTokenAcceso(), ServicioTokens.ACCESO));
+    }
+}
@@ -0,0 +1,230 @@
+package com.compartir.libros.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AlmacenImagenesTest {
+
+    @Mock
+    private GridFsOperations gridFs;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private VariantesImagenes variantesImagenes;
+
+    @InjectMocks
+    private AlmacenImagenes almacen;
+
+    private final byte[] contenido = png();
+    private final String datos = "data:image/png;base64," + Base64.getEncoder().encodeToString(contenido);
+
+    @Test
+    void resolver_DebeGuardarLaImagenEnLineaYDevolverSuUrl() throws Exception {
+        // Arrange
+        ObjectId id = new ObjectId();
+        when(gridFs.store(any(InputStream.class), anyString(), eq("image/png"), any(Document.class))).thenReturn(id);
+
+        // Act
+        String url = almacen.resolver(datos);
+
+        // Assert
+        assertEquals(AlmacenImagenes.RUTA + id.toHexString(), url);
+        ArgumentCaptor<InputStream> guardado = ArgumentCaptor.forClass(InputStream.class);
+        ArgumentCaptor<Document> metadatos = ArgumentCaptor.forClass(Document.class);
+        verify(gridFs).store(guardado.capture(), anyString(), eq("image/png"), metadatos.capture());
+        assertArrayEquals(contenido, guardado.getValue().readAllBytes());
+        assertEquals(1, metadatos.getValue().get("referencias"));
+        assertEquals(64, metadatos.getValue().getString("sha256").length());
+        verify(variantesImagenes).generarEnSegundoPlano(id);
+    }
+
+    @Test
+    void guardar_DebeReutilizarUnaImagenIdenticaYaGuardada() {
+        // Arrange
+        ObjectId existente = new ObjectId();
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), eq(Document.class),
+            eq(VariantesImagenes.COLECCION_ARCHIVOS))).thenReturn(new Document("_id", existente));
+
+        // Act
+        String url = almacen.guardar(datos);
+
+        // Assert
+        assertEquals(AlmacenImagenes.RUTA + existente.toHexString(), url);
+        verify(gridFs, never()).store(any(InputStream.class), anyString(), anyString(), any(Document.class));
+        verifyNoInteractions(variantesImagenes);
+    }
+
+    @Test
+    void resolver_DebeConservarLasUrlExternasSinGuardarNada() {
+        // Act
+        String url = almacen.resolver("https://ejemplo.com/portada.jpg");
+
+        // Assert
+        assertEquals("https://ejemplo.com/portada.jpg", url);
+        verifyNoInteractions(gridFs, mongoTemplate);
+    }
+
+    @Test
+    void resolver_DebeRechazarUrlsDeVariantesUOriginalesSinRecuento() {
+        // Arrange: la consulta solo coincide con originales que tienen recuento
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class),
+            eq(VariantesImagenes.COLECCION_ARCHIVOS))).thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        String url = AlmacenImagenes.RUTA + new ObjectId().toHexString();
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> almacen.resolver(url));
+        ArgumentCaptor<Query> consulta = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateFirst(consulta.capture(), any(UpdateDefinition.class),
+            eq(VariantesImagenes.COLECCION_ARCHIVOS));
+        assertEquals(new Document("$gt", 0), consulta.getValue().getQueryObject().get("metadata.referencias"));
+    }
+
+    @Test
+    void guardar_DebeRechazarDatosQueNoSonUnaImagen() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+            () -> almacen.guardar("data:text/html;base64,PGgxPmhvbGE8L2gxPg=="));
+        assertThrows(IllegalArgumentException.class, () -> almacen.guardar("data:image/png;base64,%%%"));
+        verifyNoInteractions(gridFs);
+    }
+
+    @Test
+    void guardar_DebeRechazarImagenesDeTiposNoAdmitidos() {
+        // Arrange
+        String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\"><script>alert(1)</script></svg>";
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> almacen.guardar("data:image/svg+xml;base64,"
+            + Base64.getEncoder().encodeToString(svg.getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IllegalArgumentException.class, () -> almacen.guardar("data:image/png;base64,"
+            + Base64.getEncoder().encodeToString(new byte[] {1, 2, 3, 4})));
+        verifyNoInteractions(gridFs);
+    }
+
+    @Test
+    void guardar_DebeGuardarElTipoDetectadoEnLugarDelDeclarado() {
+        // Arrange
+        when(gridFs.store(any(InputStream.class), anyString(), anyString(), any(Document.class))).thenReturn(new ObjectId());
+
+        // Act
+        almacen.guardar("data:image/svg+xml;base64," + Base64.getEncoder().encodeToString(contenido));
+
+        // Assert
+        verify(gridFs).store(any(InputStream.class), anyString(), eq("image/png"), any(Document.class));
+    }
+
+    @Test
+    void liberar_DebeEliminarLaImagenSoloAlSoltarLaUltimaReferencia() {
+        // Arrange
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+            eq(Document.class), eq(VariantesImagenes.COLECCION_ARCHIVOS)))
+            .thenReturn(restantes(1), restantes(0));
+        String url = AlmacenImagenes.RUTA + new ObjectId().toHexString();
+
+        // Act
+        almacen.liberar("https://ejemplo.com/portada.jpg");
+        almacen.liberar(url);
+        verify(gridFs, never()).delete(any(Query.class));
+        almacen.liberar(url);
+
+        // Assert: el original y sus variantes
+        verify(gridFs, times(2)).delete(any(Query.class));
+    }
+
+    @Test
+    void liberar_NoDebeEliminarVariantesNiOriginalesSinRecuento() {
+        // Arrange: la consulta con recuento no encuentra el archivo
+        String url = AlmacenImagenes.RUTA + new ObjectId().toHexString();
+
+        // Act
+        almacen.liberar(url);
+
+        // Assert
+        ArgumentCaptor<Query> consulta = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndModify(consulta.capture(), any(UpdateDefinition.class),
+            any(FindAndModifyOptions.class), eq(Document.class), eq(VariantesImagenes.COLECCION_ARCHIVOS));
+        assertEquals(new Document("$gt", 0), consulta.getValue().getQueryObject().get("metadata.referencias"));
+        verify(gridFs, never()).delete(any(Query.class));
+    }
+
+    @Test
+    void asignarRecuento_DebeEliminarElOriginal_CuandoNadieLoUsa() throws Exception {
+        // Arrange
+        ObjectId original = new ObjectId();
+        when(gridFs.findOne(any(Query.class))).thenReturn(mock(GridFSFile.class));
+
+        // Act
+        almacen.asignarRecuento(original, 0);
+
+        // Assert: el original y sus variantes
+        verify(gridFs, times(2)).delete(any(Query.class));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), anyString());
+    }
+
+    @Test
+    void asignarRecuento_DebeGuardarResumenYReferencias_CuandoSeUsa() throws Exception {
+        // Arrange
+        ObjectId original = new ObjectId();
+        GridFSFile archivo = mock(GridFSFile.class);
+        GridFsResource recurso = mock(GridFsResource.class);
+        when(gridFs.findOne(any(Query.class))).thenReturn(archivo);
+        when(gridFs.getResource(archivo)).thenReturn(recurso);
+        when(recurso.getInputStream()).thenReturn(new ByteArrayInputStream(contenido));
+
+        // Act
+        almacen.asignarRecuento(original, 2);
+
+        // Assert
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(VariantesImagenes.COLECCION_ARCHIVOS));
+        Document asignado = update.getValue().getUpdateObject().get("$set", Document.class);
+        assertEquals(2L, asignado.get("metadata.referencias"));
+        assertEquals(64, asignado.getString("metadata.sha256").length());
+        verify(gridFs, never()).delete(any(Query.class));
+    }
+
+    private static byte[] png() {
+        try {
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB), "png", salida);
+            return salida.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Document restantes(int referencias) {
+        return new Document("metadata", new Document("referencias", referencias));
+    }
+}
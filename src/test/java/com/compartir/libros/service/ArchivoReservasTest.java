@@ -0,0 +1,131 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.dto.PaginaDTO;
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.Reserva;
+import com.compartir.libros.model.ReservaArchivada;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ArchivoReservasTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private CatalogoLibrosService catalogoLibros;
+
+    @Mock
+    private BulkOperations operaciones;
+
+    @InjectMocks
+    private ArchivoReservas archivo;
+
+    @Test
+    void archivar_DebeMoverSoloLasReservasDevueltasYSincronizarElCatalogo() {
+        // Arrange
+        Date reservaCerrada = new Date(1000);
+        Libro libro = new Libro();
+        libro.setId(new ObjectId());
+        libro.setUsuarioId(new ObjectId());
+        libro.setTitulo("Rayuela");
+        libro.setReservas(new ArrayList<>(List.of(
+            new Reserva(reservaCerrada, new Date(2000), new Date(3000), "lector@correo.es"),
+            new Reserva(new Date(4000), null, null, "otro@correo.es"))));
+        when(mongoTemplate.find(any(Query.class), eq(Libro.class))).thenReturn(List.of(libro), List.of());
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(ReservaArchivada.class))).thenReturn(operaciones);
+        Libro actualizado = new Libro();
+        actualizado.setId(libro.getId());
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+            eq(Libro.class))).thenReturn(actualizado);
+
+        // Act
+        int archivadas = archivo.archivar();
+
+        // Assert
+        assertEquals(1, archivadas);
+        ArgumentCaptor<Update> copia = ArgumentCaptor.forClass(Update.class);
+        verify(operaciones).upsert(any(Query.class), copia.capture());
+        assertEquals("Rayuela", copia.getValue().getUpdateObject().get("$setOnInsert", Document.class).get("titulo"));
+        verify(operaciones).execute();
+
+        ArgumentCaptor<Update> retirada = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), retirada.capture(), any(FindAndModifyOptions.class),
+            eq(Libro.class));
+        Document condicion = retirada.getValue().getUpdateObject().get("$pull", Document.class).get("reservas", Document.class);
+        assertEquals(List.of(reservaCerrada), condicion.get("fechaReserva", Document.class).get("$in"));
+        assertEquals(1, retirada.getValue().getUpdateObject().get("$inc", Document.class).get("version"));
+        verify(catalogoLibros).sincronizarLibro(actualizado);
+    }
+
+    @Test
+    void historial_DebeDevolverCursorSoloSiHayMasReservas() {
+        // Arrange
+        ObjectId libroId = new ObjectId();
+        List<ReservaArchivada> archivadas = List.of(archivada(libroId), archivada(libroId), archivada(libroId));
+        when(mongoTemplate.find(any(Query.class), eq(ReservaArchivada.class))).thenReturn(archivadas);
+
+        // Act
+        PaginaDTO<Reserva> pagina = archivo.historial(libroId, null, null, 2);
+
+        // Assert
+        assertEquals(2, pagina.getContenido().size());
+        assertEquals(Paginacion.codificarCursor(archivadas.get(1).getId()), pagina.getSiguiente());
+    }
+
+    @Test
+    void historial_DebeContinuarDespuesDelCursor_YFiltrarPorUsuario() {
+        // Arrange
+        ObjectId libroId = new ObjectId();
+        ObjectId ultima = new ObjectId();
+        when(mongoTemplate.find(any(Query.class), eq(ReservaArchivada.class))).thenReturn(List.of());
+
+        // Act
+        archivo.historial(libroId, "lector@correo.es", Paginacion.codificarCursor(ultima), 2);
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(ReservaArchivada.class));
+        assertEquals(new Document("libroId", libroId).append("emailUsuario", "lector@correo.es")
+            .append("_id", new Document("$lt", ultima)), query.getValue().getQueryObject());
+        assertEquals(3, query.getValue().getLimit());
+    }
+
+    @Test
+    void historial_DebeRechazarCursorNoValido() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+            () -> archivo.historial(new ObjectId(), null, "no-es-un-cursor", 10));
+        assertThrows(IllegalArgumentException.class,
+            () -> archivo.historial(new ObjectId(), null, new ObjectId().toHexString(), 10));
+    }
+
+    private ReservaArchivada archivada(ObjectId libroId) {
+        ReservaArchivada reserva = new ReservaArchivada();
+        reserva.setId(new ObjectId());
+        reserva.setLibroId(libroId);
+        reserva.setEmailUsuario("lector@correo.es");
+        reserva.setFechaReserva(new Date());
+        return reserva;
+    }
+}
@@ -0,0 +1,237 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.dto.email.CorreoMasivo;
+import com.compartir.libros.dto.email.ResultadoEnvio;
+import com.compartir.libros.model.CorreoPendiente;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@SuppressWarnings("unchecked")
+class BuzonCorreoTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private TransporteCorreo transporteCorreo;
+
+    @Mock
+    private EjecutorCorreo ejecutorCorreo;
+
+    @InjectMocks
+    private BuzonCorreo buzonCorreo;
+
+    private CorreoPendiente correo;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(buzonCorreo, "tamanoLote", 10);
+        ReflectionTestUtils.setField(buzonCorreo, "intentosMaximos", 3);
+        ReflectionTestUtils.setField(buzonCorreo, "esperaBaseMs", 1000L);
+        ReflectionTestUtils.setField(buzonCorreo, "esperaMaximaMs", 60000L);
+
+        correo = new CorreoPendiente(new ObjectId(), "lector@ejemplo.com", "Asunto", "Cuerpo",
+                BuzonCorreo.ENVIANDO, 0, new Date(), new Date(), new Date(), null);
+    }
+
+    @Test
+    void despachar_DebeEliminarElCorreo_CuandoSeEnvia() throws Exception {
+        // Arrange
+        ejecutarEnElMismoHilo();
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo, (CorreoPendiente) null);
+
+        // Act
+        int despachados = buzonCorreo.despachar();
+
+        // Assert
+        assertEquals(1, despachados);
+        verify(transporteCorreo).enviar("lector@ejemplo.com", "Asunto", "Cuerpo");
+        verify(mongoTemplate).remove(any(Query.class), eq(CorreoPendiente.class));
+    }
+
+    @Test
+    void despachar_DebeProgramarReintento_CuandoFallaElEnvio() throws Exception {
+        // Arrange
+        ejecutarEnElMismoHilo();
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo, (CorreoPendiente) null);
+        when(transporteCorreo.enviar(any(), any(), any())).thenThrow(new IOException("sin conexión"));
+
+        // Act
+        buzonCorreo.despachar();
+
+        // Assert
+        Document cambios = capturarActualizacion().getUpdateObject().get("$set", Document.class);
+        assertEquals(BuzonCorreo.PENDIENTE, cambios.get("estado"));
+        assertEquals(1, cambios.get("intentos"));
+        assertTrue(((Date) cambios.get("siguienteIntento")).after(new Date()));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(CorreoPendiente.class));
+    }
+
+    @Test
+    void despachar_DebeDescartarElCorreo_CuandoSeAgotanLosIntentos() throws Exception {
+        // Arrange
+        correo.setIntentos(2);
+        ejecutarEnElMismoHilo();
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo, (CorreoPendiente) null);
+        when(transporteCorreo.enviar(any(), any(), any())).thenThrow(new IOException("sin conexión"));
+
+        // Act
+        buzonCorreo.despachar();
+
+        // Assert
+        Document cambios = capturarActualizacion().getUpdateObject().get("$set", Document.class);
+        assertEquals(BuzonCorreo.DESCARTADO, cambios.get("estado"));
+        assertEquals(3, cambios.get("intentos"));
+    }
+
+    @Test
+    void despachar_DebeDevolverElCorreoAlBuzon_CuandoElEjecutorLoRechaza() throws Exception {
+        // Arrange
+        when(ejecutorCorreo.tienePlazaLibre()).thenReturn(true);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo, (CorreoPendiente) null);
+        when(ejecutorCorreo.enviar(anyInt(), any())).thenThrow(new RejectedExecutionException("cola llena"));
+
+        // Act
+        int despachados = buzonCorreo.despachar();
+
+        // Assert
+        assertEquals(0, despachados);
+        Document cambios = capturarActualizacion().getUpdateObject().get("$set", Document.class);
+        assertEquals(BuzonCorreo.PENDIENTE, cambios.get("estado"));
+        verifyNoInteractions(transporteCorreo);
+    }
+
+    @Test
+    void despachar_DebeEnviarUnLoteYTratarCadaCorreo_SegunSuResultado() throws Exception {
+        // Arrange
+        CorreoPendiente rechazado = new CorreoPendiente(new ObjectId(), "otro@ejemplo.com", "Asunto", "Cuerpo",
+                BuzonCorreo.ENVIANDO, 0, new Date(), new Date(), new Date(), null);
+        ejecutarEnElMismoHilo();
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo, rechazado, null);
+        when(transporteCorreo.enviarLote(any())).thenReturn(List.of(
+                new ResultadoEnvio("lector@ejemplo.com", true, "m1", null),
+                new ResultadoEnvio("otro@ejemplo.com", false, null, "400 Invalid To header")));
+
+        // Act
+        int despachados = buzonCorreo.despachar();
+
+        // Assert
+        assertEquals(2, despachados);
+        verify(ejecutorCorreo).enviar(eq(2), any());
+        verify(transporteCorreo).enviarLote(List.of(
+                new CorreoMasivo("lector@ejemplo.com", "Asunto", "Cuerpo"),
+                new CorreoMasivo("otro@ejemplo.com", "Asunto", "Cuerpo")));
+        ArgumentCaptor<Query> eliminado = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(eliminado.capture(), eq(CorreoPendiente.class));
+        assertEquals(correo.getId(), eliminado.getValue().getQueryObject().get("_id"));
+        ArgumentCaptor<Query> fallido = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(fallido.capture(), update.capture(), eq(CorreoPendiente.class));
+        assertEquals(rechazado.getId(), fallido.getValue().getQueryObject().get("_id"));
+        Document cambios = update.getValue().getUpdateObject().get("$set", Document.class);
+        assertEquals(BuzonCorreo.PENDIENTE, cambios.get("estado"));
+        assertEquals("400 Invalid To header", cambios.get("ultimoError"));
+        verify(transporteCorreo, never()).enviar(any(), any(), any());
+    }
+
+    @Test
+    void despachar_DebeAgruparLosCorreos_EnLotesDelMaximoPorPeticion() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(buzonCorreo, "tamanoLote", 60);
+        ejecutarEnElMismoHilo();
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo);
+        when(transporteCorreo.enviarLote(any())).thenAnswer(invocacion -> ((List<CorreoMasivo>) invocacion
+                .getArgument(0)).stream()
+                .map(masivo -> new ResultadoEnvio(masivo.destinatario(), true, "m", null))
+                .toList());
+
+        // Act
+        int despachados = buzonCorreo.despachar();
+
+        // Assert: cada lote toma tantas fichas como correos lleva, aunque supere la ráfaga
+        assertEquals(60, despachados);
+        verify(ejecutorCorreo).enviar(eq(TransporteCorreo.MAXIMO_POR_LOTE), any());
+        verify(ejecutorCorreo).enviar(eq(10), any());
+        verify(transporteCorreo, times(2)).enviarLote(any());
+    }
+
+    @Test
+    void despachar_DebeDescontarLosCorreosQueYaEsperanEnElEjecutor() throws Exception {
+        // Arrange
+        ejecutarEnElMismoHilo();
+        when(ejecutorCorreo.correosEnEspera()).thenReturn(8);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(CorreoPendiente.class))).thenReturn(correo);
+        when(transporteCorreo.enviarLote(any())).thenReturn(List.of(
+                new ResultadoEnvio("lector@ejemplo.com", true, "m1", null),
+                new ResultadoEnvio("lector@ejemplo.com", true, "m2", null)));
+
+        // Act
+        int despachados = buzonCorreo.despachar();
+
+        // Assert
+        assertEquals(2, despachados);
+        verify(ejecutorCorreo).enviar(eq(2), any());
+    }
+
+    @Test
+    void encolarMasivo_DebeGuardarTodosLosCorreos_EnUnaSolaEscritura() {
+        // Arrange
+        List<CorreoMasivo> correos = List.of(
+                new CorreoMasivo("lector@ejemplo.com", "Anuncio", "Cuerpo"),
+                new CorreoMasivo("otro@ejemplo.com", "Anuncio", "Cuerpo"));
+
+        // Act
+        buzonCorreo.encolarMasivo(correos);
+
+        // Assert
+        ArgumentCaptor<List<CorreoPendiente>> guardados = ArgumentCaptor.forClass(List.class);
+        verify(mongoTemplate).insert(guardados.capture(), eq(CorreoPendiente.class));
+        assertEquals(List.of("lector@ejemplo.com", "otro@ejemplo.com"),
+                guardados.getValue().stream().map(CorreoPendiente::getDestinatario).toList());
+        assertTrue(guardados.getValue().stream().allMatch(guardado -> BuzonCorreo.PENDIENTE.equals(guardado.getEstado())));
+    }
+
+    private void ejecutarEnElMismoHilo() {
+        when(ejecutorCorreo.tienePlazaLibre()).thenReturn(true);
+        when(ejecutorCorreo.enviar(anyInt(), any())).thenAnswer(invocacion -> {
+            ((Runnable) invocacion.getArgument(1)).run();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private Update capturarActualizacion() {
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(CorreoPendiente.class));
+        return update.getValue();
+    }
+}
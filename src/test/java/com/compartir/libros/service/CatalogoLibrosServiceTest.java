@@ -0,0 +1,327 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.config.IndicesMongoConfig;
+import com.compartir.libros.dto.PaginaDTO;
+import com.compartir.libros.dto.libro.LibroDTO;
+import com.compartir.libros.dto.libro.FacetasDTO;
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.LibroCatalogo;
+import com.compartir.libros.model.RegionUsuario;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.LibroRepository;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogoLibrosServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private LibroRepository libroRepository;
+
+    @Mock
+    private IndiceTrigramasLibros indiceTrigramas;
+
+    @Mock
+    private IndicesMongoConfig indicesMongo;
+
+    @Mock
+    private ApplicationArguments argumentos;
+
+    @InjectMocks
+    private CatalogoLibrosService catalogo;
+
+    private Usuario propietario;
+    private Libro libro;
+
+    @BeforeEach
+    void setUp() {
+        propietario = new Usuario();
+        propietario.setId(new ObjectId().toHexString());
+        propietario.setEmail("propietario@correo.es");
+        propietario.setRegion(new RegionUsuario("Sevilla", "Sevilla", "España", "Europa"));
+
+        libro = new Libro();
+        libro.setId(new ObjectId());
+        libro.setUsuarioId(new ObjectId(propietario.getId()));
+        libro.setTitulo("Rayuela");
+        libro.setEstado("disponible");
+        libro.setTematicas(List.of());
+        libro.setReservas(List.of());
+        libro.setVersion(3);
+
+        lenient().when(mongoTemplate.getCollectionName(LibroCatalogo.class)).thenReturn("catalogo_libros");
+    }
+
+    @Test
+    void filtrar_DebePedirTodosLosEstados_CuandoNoSeIndicaNinguno() {
+        // Arrange
+        when(mongoTemplate.find(any(Query.class), eq(LibroCatalogo.class))).thenReturn(List.of());
+
+        // Act
+        catalogo.filtrar(null, "todos", "España", null, null, null, null);
+
+        // Assert: el estado precede al id en los índices, que así sirven también el orden
+        ArgumentCaptor<Query> consulta = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(consulta.capture(), eq(LibroCatalogo.class));
+        assertEquals(CatalogoLibrosService.ESTADOS,
+            consulta.getValue().getQueryObject().get("estado", Document.class).get("$in"));
+        assertEquals("España", consulta.getValue().getQueryObject().get("paisUsuario"));
+        assertEquals(new Document("_id", 1), consulta.getValue().getSortObject());
+    }
+
+    @Test
+    void filtrar_DebeDevolverCursorDelUltimoLibro_YContinuarJustoDespuesDeEl() {
+        // Arrange
+        List<LibroCatalogo> primeros = List.of(copia("Rayuela"), copia("Ficciones"), copia("Aura"));
+        when(mongoTemplate.find(any(Query.class), eq(LibroCatalogo.class))).thenReturn(primeros, List.of());
+
+        // Act
+        PaginaDTO<LibroDTO> primera = catalogo.filtrar(null, "disponible", null, null, null, null, 2);
+        PaginaDTO<LibroDTO> segunda = catalogo.filtrar(null, "disponible", null, null, null,
+            primera.getSiguiente(), 2);
+
+        // Assert
+        assertEquals(List.of("Rayuela", "Ficciones"),
+            primera.getContenido().stream().map(LibroDTO::getTitulo).toList());
+        assertNull(segunda.getSiguiente());
+        ArgumentCaptor<Query> consultas = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(consultas.capture(), eq(LibroCatalogo.class));
+        Query continuacion = consultas.getAllValues().get(1);
+        assertEquals(new Document("$and", List.of(new Document("estado", "disponible"),
+            new Document("_id", new Document("$gt", primeros.get(1).getId())))), continuacion.getQueryObject());
+        assertEquals(new Document("_id", 1), continuacion.getSortObject());
+        assertEquals(3, continuacion.getLimit());
+    }
+
+    @Test
+    void buscar_DebeContinuarElIndiceDeTrigramasDesdeElCursor() {
+        // Arrange
+        List<LibroCatalogo> copias = List.of(copia("Rayuela"), copia("Rayuela II"), copia("Rayuela III"));
+        List<PosicionLibro> posiciones = copias.stream().map(copia -> new PosicionLibro(copia.getId())).toList();
+        when(indiceTrigramas.isListo()).thenReturn(true);
+        when(indiceTrigramas.buscar("rayuela", null, 3)).thenReturn(posiciones);
+        when(mongoTemplate.find(any(Query.class), eq(LibroCatalogo.class))).thenReturn(copias.subList(0, 2));
+
+        // Act
+        PaginaDTO<LibroDTO> primera = catalogo.buscar("rayuela", null, 2);
+        catalogo.buscar("rayuela", primera.getSiguiente(), 2);
+
+        // Assert
+        assertEquals(2, primera.getContenido().size());
+        verify(indiceTrigramas).buscar("rayuela", posiciones.get(1), 3);
+    }
+
+    @Test
+    void filtrar_DebeRechazarCursorNoValido() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class,
+            () -> catalogo.filtrar(null, null, null, null, null, "no-es-un-cursor", 10));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void transmitirFiltrados_DebeLeerEnOrdenDeCatalogo_YCerrarElCursorAlCerrarElFlujo() {
+        // Arrange
+        boolean[] cerrado = { false };
+        when(mongoTemplate.stream(any(Query.class), eq(LibroCatalogo.class)))
+            .thenReturn(Stream.of(copia("Rayuela"), copia("Aura")).onClose(() -> cerrado[0] = true));
+
+        // Act
+        List<String> titulos;
+        try (Stream<LibroDTO> libros = catalogo.transmitirFiltrados(null, "disponible", null, null, null)) {
+            titulos = libros.map(LibroDTO::getTitulo).toList();
+        }
+
+        // Assert
+        assertEquals(List.of("Rayuela", "Aura"), titulos);
+        assertTrue(cerrado[0]);
+        ArgumentCaptor<Query> consulta = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).stream(consulta.capture(), eq(LibroCatalogo.class));
+        assertEquals(new Document("estado", "disponible"), consulta.getValue().getQueryObject());
+        assertEquals(new Document("_id", 1), consulta.getValue().getSortObject());
+    }
+
+    @Test
+    void obtenerFacetas_DebeContarCadaFacetaSinSuPropioFiltro() {
+        // Arrange
+        String tematicaId = new ObjectId().toHexString();
+        Document resultado = new Document("total", List.of(new Document("total", 2)))
+                .append("estados", List.of(new Document("_id", "prestado").append("total", 2),
+                        new Document("_id", "disponible").append("total", 5)));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(LibroCatalogo.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(resultado), new Document()));
+
+        // Act
+        FacetasDTO facetas = catalogo.obtenerFacetas(tematicaId, "prestado", "España", "Sevilla", null);
+
+        // Assert
+        assertEquals(2, facetas.getTotal());
+        assertEquals(5L, facetas.getEstados().get("disponible"));
+        ArgumentCaptor<Aggregation> agregacion = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(agregacion.capture(), eq(LibroCatalogo.class), eq(Document.class));
+        Document etapas = agregacion.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).stream()
+                .filter(etapa -> etapa.containsKey("$facet"))
+                .findFirst().orElseThrow()
+                .get("$facet", Document.class);
+
+        Document total = filtroDeFaceta(etapas, "total");
+        assertEquals("prestado", total.get("estado"));
+        assertEquals("Sevilla", total.get("provinciaUsuario"));
+
+        Document estados = filtroDeFaceta(etapas, "estados");
+        assertEquals(new Document("$in", CatalogoLibrosService.ESTADOS), estados.get("estado"));
+        assertEquals(new ObjectId(tematicaId), estados.get("tematicas"));
+
+        Document tematicas = filtroDeFaceta(etapas, "tematicas");
+        assertFalse(tematicas.containsKey("tematicas"));
+        assertEquals("prestado", tematicas.get("estado"));
+
+        Document paises = filtroDeFaceta(etapas, "paises");
+        assertFalse(paises.containsKey("paisUsuario"));
+        assertFalse(paises.containsKey("provinciaUsuario"));
+
+        Document provincias = filtroDeFaceta(etapas, "provincias");
+        assertEquals("España", provincias.get("paisUsuario"));
+        assertFalse(provincias.containsKey("provinciaUsuario"));
+    }
+
+    @Test
+    void sincronizarLibro_DebeEscribirSoloSobreVersionesAnterioresDelLibro() {
+        // Arrange
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(LibroCatalogo.class), eq("catalogo_libros")))
+            .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // Act
+        catalogo.sincronizarLibro(propietario, libro);
+
+        // Assert
+        ArgumentCaptor<Query> consulta = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(consulta.capture(), update.capture(), eq(LibroCatalogo.class),
+            eq("catalogo_libros"));
+        assertEquals(libro.getId(), consulta.getValue().getQueryObject().get("_id"));
+        assertEquals(3L, consulta.getValue().getQueryObject().get("version", Document.class).get("$lt"));
+        assertEquals("Rayuela", update.getValue().getUpdateObject().get("$set", Document.class).get("titulo"));
+        assertEquals("propietario@correo.es",
+            update.getValue().getUpdateObject().get("$setOnInsert", Document.class).get("emailUsuario"));
+    }
+
+    @Test
+    void sincronizarLibro_DebeIgnorarLaCopia_CuandoElCatalogoTieneUnaVersionPosterior() {
+        // Arrange
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(LibroCatalogo.class), eq("catalogo_libros")))
+            .thenThrow(new DuplicateKeyException("E11000"));
+
+        // Act & Assert
+        assertDoesNotThrow(() -> catalogo.sincronizarLibro(propietario, libro));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(LibroCatalogo.class), anyString());
+    }
+
+    @Test
+    void sincronizarLibro_DebeRetirarLaCopia_CuandoElLibroSeEliminoAntesDeInsertarla() {
+        // Arrange
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(LibroCatalogo.class), eq("catalogo_libros")))
+            .thenReturn(UpdateResult.acknowledged(0, 0L, new BsonObjectId(libro.getId())));
+        when(mongoTemplate.exists(any(Query.class), eq(Libro.class))).thenReturn(false);
+
+        // Act
+        catalogo.sincronizarLibro(propietario, libro);
+
+        // Assert
+        verify(mongoTemplate).remove(any(Query.class), eq(LibroCatalogo.class), eq("catalogo_libros"));
+    }
+
+    @Test
+    void conciliar_DebeCorregirLibrosYPropietarios_QueNoCoincidenConLaBaseDeDatos() {
+        // Arrange
+        ObjectId eliminado = new ObjectId();
+        when(mongoTemplate.getCollectionName(Libro.class)).thenReturn("libros");
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), eq("libros"), eq(Document.class)))
+                .thenReturn(Stream.of(new Document("_id", libro.getId())));
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), eq("catalogo_libros"), eq(Document.class)))
+                .thenReturn(Stream.of(new Document("_id", eliminado)),
+                        Stream.of(new Document("_id", libro.getUsuarioId())
+                                .append("emailUsuario", "antiguo@correo.es")
+                                .append("ciudadUsuario", "Sevilla")
+                                .append("provinciaUsuario", "Sevilla")
+                                .append("paisUsuario", "España")));
+        when(mongoTemplate.findById(libro.getId(), Libro.class)).thenReturn(libro);
+        when(mongoTemplate.findOne(any(Query.class), eq(Usuario.class))).thenReturn(propietario);
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(LibroCatalogo.class), eq("catalogo_libros")))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        // Act
+        catalogo.conciliar();
+
+        // Assert
+        verify(mongoTemplate).upsert(any(Query.class), any(Update.class), eq(LibroCatalogo.class), eq("catalogo_libros"));
+        ArgumentCaptor<Query> retirado = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(retirado.capture(), eq(LibroCatalogo.class));
+        assertEquals(eliminado, retirado.getValue().getQueryObject().get("_id"));
+        ArgumentCaptor<Update> propietarioActualizado = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(any(Query.class), propietarioActualizado.capture(), eq(LibroCatalogo.class));
+        assertEquals("propietario@correo.es",
+                propietarioActualizado.getValue().getUpdateObject().get("$set", Document.class).get("emailUsuario"));
+    }
+
+    @Test
+    void conciliar_NoDebeActualizarPropietarios_CuandoSusDatosCoinciden() {
+        // Arrange
+        when(mongoTemplate.getCollectionName(Libro.class)).thenReturn("libros");
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), eq("libros"), eq(Document.class)))
+                .thenReturn(Stream.empty());
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), eq("catalogo_libros"), eq(Document.class)))
+                .thenReturn(Stream.empty(),
+                        Stream.of(new Document("_id", libro.getUsuarioId())
+                                .append("emailUsuario", "propietario@correo.es")
+                                .append("ciudadUsuario", "Sevilla")
+                                .append("provinciaUsuario", "Sevilla")
+                                .append("paisUsuario", "España")));
+        when(mongoTemplate.findOne(any(Query.class), eq(Usuario.class))).thenReturn(propietario);
+
+        // Act
+        catalogo.conciliar();
+
+        // Assert
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(LibroCatalogo.class));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(LibroCatalogo.class));
+    }
+
+    private Document filtroDeFaceta(Document etapas, String faceta) {
+        return etapas.getList(faceta, Document.class).get(0).get("$match", Document.class);
+    }
+
+    private LibroCatalogo copia(String titulo) {
+        LibroCatalogo copia = new LibroCatalogo();
+        copia.setId(new ObjectId());
+        copia.setTitulo(titulo);
+        copia.setEstado("disponible");
+        return copia;
+    }
+}
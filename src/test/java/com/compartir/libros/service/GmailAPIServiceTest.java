@@ -0,0 +1,241 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.dto.email.CorreoMasivo;
+import com.compartir.libros.dto.email.GoogleTokenResponse;
+import com.compartir.libros.dto.email.ResultadoEnvio;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class GmailAPIServiceTest {
+
+    private static final String SEPARADOR = "batch_respuesta";
+    private static final int HILOS = 8;
+
+    private MockLowLevelHttpResponse respuesta;
+    private RestTemplate restTemplate;
+    private GmailAPIService servicio;
+    private final List<String> autorizaciones = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        respuesta = new MockLowLevelHttpResponse();
+        restTemplate = mock(RestTemplate.class);
+        when(restTemplate.postForObject(anyString(), any(), eq(GoogleTokenResponse.class)))
+                .thenReturn(token("token", null));
+        servicio = crearServicio(new MockHttpTransport.Builder().setLowLevelHttpResponse(respuesta).build());
+    }
+
+    @Test
+    void sendBatch_DebeInformarDeCadaCorreo_SegunSuRespuestaEnElLote() {
+        // Arrange
+        respuesta.setContentType("multipart/mixed; boundary=" + SEPARADOR);
+        respuesta.setContent(parte(1, "200 OK", "{\"id\":\"m1\",\"labelIds\":[\"SENT\"]}")
+                + parte(2, "400 Bad Request", "{\"error\":{\"code\":400,\"message\":\"Invalid To header\"}}")
+                + "--" + SEPARADOR + "--\r\n");
+        List<CorreoMasivo> correos = List.of(
+                new CorreoMasivo("lector@ejemplo.com", "Asunto", "Cuerpo"),
+                new CorreoMasivo("otro@ejemplo.com", "Asunto", "Cuerpo"));
+
+        // Act
+        List<ResultadoEnvio> resultados = servicio.sendBatch(correos);
+
+        // Assert
+        assertEquals(List.of(
+                new ResultadoEnvio("lector@ejemplo.com", true, "m1", null),
+                new ResultadoEnvio("otro@ejemplo.com", false, null, "400 Invalid To header")), resultados);
+    }
+
+    @Test
+    void sendBatch_DebeDarLosCorreosPorNoEnviados_CuandoFallaLaPeticion() {
+        // Arrange
+        respuesta.setStatusCode(503);
+        respuesta.setContent("");
+
+        // Act
+        List<ResultadoEnvio> resultados = servicio.sendBatch(List.of(
+                new CorreoMasivo("lector@ejemplo.com", "Asunto", "Cuerpo")));
+
+        // Assert
+        assertEquals(List.of(new ResultadoEnvio("lector@ejemplo.com", false, null, "Sin respuesta de Gmail")),
+                resultados);
+    }
+
+    @Test
+    void enviar_DebeReutilizarElToken_MientrasNoEsteCercaDeCaducar() throws Exception {
+        // Arrange
+        servicio = crearServicio(transporte());
+        when(restTemplate.postForObject(anyString(), any(), eq(GoogleTokenResponse.class)))
+                .thenReturn(token("token", 3600));
+
+        // Act
+        servicio.enviar("lector@ejemplo.com", "Asunto", "Cuerpo");
+        servicio.enviar("otro@ejemplo.com", "Asunto", "Cuerpo");
+
+        // Assert
+        verify(restTemplate, times(1)).postForObject(anyString(), any(), eq(GoogleTokenResponse.class));
+        assertEquals(List.of("Bearer token", "Bearer token"), autorizaciones);
+    }
+
+    @Test
+    void enviar_DebeRenovarElToken_CuandoCaducaDentroDelMargen() throws Exception {
+        // Arrange: el token caduca en 30 s, antes del margen de renovación de un minuto
+        servicio = crearServicio(transporte());
+        when(restTemplate.postForObject(anyString(), any(), eq(GoogleTokenResponse.class)))
+                .thenReturn(token("primero", 30), token("segundo", 30));
+
+        // Act
+        servicio.enviar("lector@ejemplo.com", "Asunto", "Cuerpo");
+        servicio.enviar("otro@ejemplo.com", "Asunto", "Cuerpo");
+
+        // Assert
+        verify(restTemplate, times(2)).postForObject(anyString(), any(), eq(GoogleTokenResponse.class));
+        assertEquals(List.of("Bearer primero", "Bearer segundo"), autorizaciones);
+    }
+
+    @Test
+    void enviar_DebeRenovarElTokenUnaSolaVez_CuandoVariasPeticionesLoNecesitanALaVez() throws Exception {
+        // Arrange
+        servicio = crearServicio(transporte());
+        when(restTemplate.postForObject(anyString(), any(), eq(GoogleTokenResponse.class))).thenAnswer(invocacion -> {
+            Thread.sleep(100);
+            return token("token", 3600);
+        });
+
+        // Act
+        List<Boolean> enviados = aLaVez(() -> servicio.enviar("lector@ejemplo.com", "Asunto", "Cuerpo"));
+
+        // Assert
+        assertEquals(Collections.nCopies(HILOS, true), enviados);
+        verify(restTemplate, times(1)).postForObject(anyString(), any(), eq(GoogleTokenResponse.class));
+        assertEquals(Collections.nCopies(HILOS, "Bearer token"), autorizaciones);
+    }
+
+    @Test
+    void getGmail_DebeCrearUnUnicoCliente_CompartidoPorTodasLasPeticiones() throws Exception {
+        // Act
+        List<Object> clientes = aLaVez(() -> ReflectionTestUtils.invokeMethod(servicio, "getGmail"));
+
+        // Assert
+        assertNotNull(clientes.get(0));
+        clientes.forEach(cliente -> assertSame(clientes.get(0), cliente));
+    }
+
+    @Test
+    void enviar_DebeRenovarElTokenYRepetirUnaVez_CuandoGmailLoRechaza() throws Exception {
+        // Arrange: Gmail rechaza la primera petición con 401
+        servicio = crearServicio(transporte(401));
+        when(restTemplate.postForObject(anyString(), any(), eq(GoogleTokenResponse.class)))
+                .thenReturn(token("revocado", 3600), token("nuevo", 3600));
+
+        // Act
+        boolean enviado = servicio.enviar("lector@ejemplo.com", "Asunto", "Cuerpo");
+
+        // Assert
+        assertTrue(enviado);
+        verify(restTemplate, times(2)).postForObject(anyString(), any(), eq(GoogleTokenResponse.class));
+        assertEquals(List.of("Bearer revocado", "Bearer nuevo"), autorizaciones);
+    }
+
+    private GmailAPIService crearServicio(HttpTransport transporte) {
+        GmailAPIService nuevo = new GmailAPIService(transporte);
+        ReflectionTestUtils.setField(nuevo, "fromEmail", "libros@ejemplo.com");
+        ReflectionTestUtils.setField(nuevo, "restTemplate", restTemplate);
+        return nuevo;
+    }
+
+    /**
+     * Transporte que anota la cabecera Authorization de cada petición y
+     * responde con los estados indicados, por orden, y después con envíos
+     * correctos.
+     */
+    private MockHttpTransport transporte(int... estados) {
+        AtomicInteger peticiones = new AtomicInteger();
+        return new MockHttpTransport() {
+            @Override
+            public LowLevelHttpRequest buildRequest(String method, String url) {
+                return new MockLowLevelHttpRequest(url) {
+                    @Override
+                    public LowLevelHttpResponse execute() {
+                        autorizaciones.add(getFirstHeaderValue("Authorization"));
+                        int peticion = peticiones.getAndIncrement();
+                        int estado = peticion < estados.length ? estados[peticion] : 200;
+                        return new MockLowLevelHttpResponse()
+                                .setStatusCode(estado)
+                                .setContentType(Json.MEDIA_TYPE)
+                                .setContent(estado == 200 ? "{\"id\":\"m1\",\"labelIds\":[\"SENT\"]}"
+                                        : "{\"error\":{\"code\":" + estado + ",\"message\":\"Rechazada\"}}");
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Ejecuta la misma tarea desde varios hilos que arrancan a la vez.
+     */
+    private static <T> List<T> aLaVez(Callable<T> tarea) throws Exception {
+        ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+        CountDownLatch salida = new CountDownLatch(1);
+        try {
+            List<Future<T>> pendientes = new ArrayList<>();
+            for (int i = 0; i < HILOS; i++) {
+                pendientes.add(hilos.submit(() -> {
+                    salida.await();
+                    return tarea.call();
+                }));
+            }
+            salida.countDown();
+            List<T> resultados = new ArrayList<>();
+            for (Future<T> pendiente : pendientes) {
+                resultados.add(pendiente.get(10, TimeUnit.SECONDS));
+            }
+            return resultados;
+        } finally {
+            hilos.shutdownNow();
+        }
+    }
+
+    private static GoogleTokenResponse token(String valor, Integer validezSegundos) {
+        GoogleTokenResponse token = new GoogleTokenResponse();
+        token.setAccessToken(valor);
+        ReflectionTestUtils.setField(token, "expiresInSeconds", validezSegundos, Integer.class);
+        return token;
+    }
+
+    private static String parte(int numero, String estado, String cuerpo) {
+        return "--" + SEPARADOR + "\r\n"
+                + "Content-Type: application/http\r\n"
+                + "Content-ID: <response-" + numero + ">\r\n"
+                + "\r\n"
+                + "HTTP/1.1 " + estado + "\r\n"
+                + "Content-Type: application/json; charset=UTF-8\r\n"
+                + "Content-Length: " + cuerpo.length() + "\r\n"
+                + "\r\n"
+                + cuerpo + "\r\n";
+    }
+}
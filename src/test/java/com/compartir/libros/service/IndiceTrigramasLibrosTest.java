@@ -0,0 +1,148 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.model.Libro;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class IndiceTrigramasLibrosTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private IndiceTrigramasLibros indice;
+
+    private final ObjectId cienAnos = new ObjectId("507f1f77bcf86cd799439011");
+    private final ObjectId elAmor = new ObjectId("507f1f77bcf86cd799439012");
+    private final ObjectId laSombra = new ObjectId("507f1f77bcf86cd799439013");
+    private final ObjectId soledades = new ObjectId("507f1f77bcf86cd799439014");
+
+    @BeforeEach
+    void setUp() {
+        indice.actualizarLibro(libro(cienAnos, "Cien años de soledad", "Gabriel García Márquez", 0));
+        indice.actualizarLibro(libro(elAmor, "El amor en los tiempos del cólera", "Gabriel García Márquez", 0));
+        indice.actualizarLibro(libro(laSombra, "La sombra del viento", "Carlos Ruiz Zafón", 0));
+        indice.actualizarLibro(libro(soledades, "Soledades", "Antonio Machado", 0));
+    }
+
+    @Test
+    void buscar_DebeEncontrarSubcadenaEnTituloSinDistinguirMayusculas() {
+        // Act
+        List<PosicionLibro> resultado = indice.buscar("SOLEDAD", null, 10);
+
+        // Assert
+        assertEquals(List.of(posicion(cienAnos), posicion(soledades)), resultado);
+    }
+
+    @Test
+    void buscar_DebeEncontrarSubcadenaEnAutor() {
+        // Act
+        List<PosicionLibro> resultado = indice.buscar("garcía", null, 10);
+
+        // Assert
+        assertEquals(List.of(posicion(cienAnos), posicion(elAmor)), resultado);
+    }
+
+    @Test
+    void buscar_NoDebeCombinarTrigramasDeTituloYAutor() {
+        // Act: "viento" está en un título y "carlos" en el autor, pero no forman una subcadena
+        List<PosicionLibro> resultado = indice.buscar("vientocarlos", null, 10);
+
+        // Assert
+        assertTrue(resultado.isEmpty());
+    }
+
+    @Test
+    void buscar_DebeResolverTextosCortosSinTrigramas() {
+        // Act
+        List<PosicionLibro> resultado = indice.buscar("EL", null, 10);
+
+        // Assert
+        assertEquals(List.of(posicion(cienAnos), posicion(elAmor), posicion(laSombra)), resultado);
+    }
+
+    @Test
+    void buscar_DebePaginarAPartirDeLaPosicionIndicada() {
+        // Act
+        List<PosicionLibro> primera = indice.buscar("a", null, 2);
+        List<PosicionLibro> segunda = indice.buscar("a", primera.get(1), 2);
+
+        // Assert
+        assertEquals(List.of(posicion(cienAnos), posicion(elAmor)), primera);
+        assertEquals(List.of(posicion(laSombra), posicion(soledades)), segunda);
+    }
+
+    @Test
+    void buscar_DebePaginarPorTrigramasEnOrdenDeCatalogo() {
+        // Arrange
+        indice.actualizarLibro(libro(new ObjectId("507f1f77bcf86cd799439010"), "Soledad", "Anónimo", 0));
+
+        // Act
+        List<PosicionLibro> primera = indice.buscar("soledad", null, 2);
+        List<PosicionLibro> segunda = indice.buscar("soledad", primera.get(1), 2);
+
+        // Assert
+        assertEquals(List.of(posicion(new ObjectId("507f1f77bcf86cd799439010")), posicion(cienAnos)), primera);
+        assertEquals(List.of(posicion(soledades)), segunda);
+    }
+
+    @Test
+    void buscar_NoDebeSaltarNiRepetirLibros_CuandoSeEliminaUnoEntrePaginas() {
+        // Arrange
+        List<PosicionLibro> primera = indice.buscar("a", null, 2);
+
+        // Act
+        indice.eliminarLibro(cienAnos);
+        List<PosicionLibro> segunda = indice.buscar("a", primera.get(1), 2);
+
+        // Assert
+        assertEquals(List.of(posicion(laSombra), posicion(soledades)), segunda);
+    }
+
+    @Test
+    void actualizarLibro_DebeSustituirLosTextosAnterioresDelLibro() {
+        // Act
+        indice.actualizarLibro(libro(cienAnos, "Rayuela", "Julio Cortázar", 1));
+
+        // Assert
+        assertEquals(List.of(posicion(soledades)), indice.buscar("soledad", null, 10));
+        assertEquals(List.of(posicion(cienAnos)), indice.buscar("rayuela", null, 10));
+    }
+
+    @Test
+    void actualizarLibro_NoDebeAplicarUnaVersionAnterior() {
+        // Arrange
+        indice.actualizarLibro(libro(cienAnos, "Rayuela", "Julio Cortázar", 2));
+
+        // Act: llega tarde la sincronización de un cambio anterior
+        indice.actualizarLibro(libro(cienAnos, "Cien años de soledad", "Gabriel García Márquez", 1));
+
+        // Assert
+        assertEquals(List.of(posicion(cienAnos)), indice.buscar("rayuela", null, 10));
+        assertEquals(List.of(posicion(soledades)), indice.buscar("soledad", null, 10));
+    }
+
+    private Libro libro(ObjectId id, String titulo, String autor, long version) {
+        Libro libro = new Libro();
+        libro.setId(id);
+        libro.setTitulo(titulo);
+        libro.setAutor(autor);
+        libro.setVersion(version);
+        return libro;
+    }
+
+    private PosicionLibro posicion(ObjectId libroId) {
+        return new PosicionLibro(libroId);
+    }
+}
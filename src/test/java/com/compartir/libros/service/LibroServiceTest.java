@@ -0,0 +1,459 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.dto.libro.CambioEstadoRequest;
+import com.compartir.libros.dto.libro.LibroPrestamoDTO;
+import com.compartir.libros.dto.libro.LibroRequestDTO;
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.RegionUsuario;
+import com.compartir.libros.model.Reserva;
+import com.compartir.libros.model.Tematica;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.LibroRepository;
+import com.compartir.libros.repository.TematicaRepository;
+import com.compartir.libros.security.ContextoUsuario;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LibroServiceTest {
+
+    @Mock
+    private ContextoUsuario contextoUsuario;
+
+    @Mock
+    private LibroRepository libroRepository;
+
+    @Mock
+    private TematicaRepository tematicaRepository;
+
+    @Mock
+    private BuzonCorreo buzonCorreo;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private IndiceTrigramasLibros indiceTrigramas;
+
+    @Mock
+    private SugerenciasLibros sugerenciasLibros;
+
+    @Mock
+    private CatalogoLibrosService catalogoLibros;
+
+    @Mock
+    private ReintentosConcurrencia reintentos;
+
+    @Mock
+    private MigracionLibros migracionLibros;
+
+    @Mock
+    private ArchivoReservas archivoReservas;
+
+    @Mock
+    private AlmacenImagenes almacenImagenes;
+
+    @InjectMocks
+    private LibroService libroService;
+
+    private Usuario propietario;
+    private Libro libro;
+
+    @BeforeEach
+    void setUp() {
+        propietario = new Usuario();
+        propietario.setId(new ObjectId().toHexString());
+        propietario.setEmail("propietario@correo.es");
+        propietario.setRegion(new RegionUsuario("Sevilla", "Sevilla", "España", "Europa"));
+
+        libro = new Libro();
+        libro.setId(new ObjectId());
+        libro.setUsuarioId(new ObjectId(propietario.getId()));
+        libro.setTitulo("Rayuela");
+        libro.setEstado("disponible");
+        libro.setTematicas(List.of());
+        libro.setReservas(new ArrayList<>());
+    }
+
+    @Test
+    void reservarLibro_DebeReservarElLibroPorSuId_YAvisarAlPropietario() {
+        // Arrange
+        ejecutarSinReintentos();
+        when(mongoTemplate.findOne(any(Query.class), eq(Libro.class))).thenReturn(libro);
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Libro.class))).thenReturn(libro);
+        when(mongoTemplate.findOne(any(Query.class), eq(Usuario.class))).thenReturn(propietario);
+
+        // Act
+        libroService.reservarLibro("lector@correo.es", libro.getId().toHexString());
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(Libro.class));
+        assertEquals(new Document("_id", libro.getId()).append("estado", "disponible"),
+                query.getValue().getQueryObject());
+        Document cambios = update.getValue().getUpdateObject();
+        assertEquals("reservado", cambios.get("$set", Document.class).get("estado"));
+        assertEquals("lector@correo.es",
+                ((Reserva) cambios.get("$push", Document.class).get("reservas")).getEmailUsuario());
+        verify(catalogoLibros).sincronizarLibro(propietario, libro);
+        verify(buzonCorreo).encolar(eq("propietario@correo.es"), contains("Rayuela"), contains("lector@correo.es"));
+    }
+
+    @Test
+    void reservarLibro_DebeLanzarExcepcion_CuandoElLibroNoEstaDisponible() {
+        // Arrange
+        ejecutarSinReintentos();
+        libro.setEstado("reservado");
+        when(mongoTemplate.findOne(any(Query.class), eq(Libro.class))).thenReturn(libro);
+
+        // Act & Assert
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> libroService.reservarLibro("lector@correo.es", libro.getId().toHexString()));
+        assertEquals("El libro no está disponible para reservar", error.getMessage());
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class),
+                any(FindAndModifyOptions.class), eq(Libro.class));
+    }
+
+    @Test
+    void devolverLibro_DebeCerrarLaReservaAbiertaDelUsuario_EnElLibroIndicado() {
+        // Arrange
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Libro.class))).thenReturn(libro);
+
+        // Act
+        libroService.devolverLibro("lector@correo.es", libro.getId().toHexString());
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(Libro.class));
+        Document filtro = query.getValue().getQueryObject();
+        assertEquals(libro.getId(), filtro.get("_id"));
+        assertEquals(new Document("$elemMatch", new Document("emailUsuario", "lector@correo.es")
+                .append("fechaDevolucion", null)), filtro.get("reservas"));
+        Update cambios = update.getValue();
+        assertEquals("disponible", cambios.getUpdateObject().get("$set", Document.class).get("estado"));
+        assertTrue(cambios.getUpdateObject().get("$set", Document.class)
+                .containsKey("reservas.$[reserva].fechaDevolucion"));
+        assertEquals(List.of(new Document("reserva.emailUsuario", "lector@correo.es")
+                .append("reserva.fechaDevolucion", null)), cambios.getArrayFilters().stream()
+                .map(Update.ArrayFilter::asDocument).toList());
+        verify(catalogoLibros).sincronizarLibro(libro);
+    }
+
+    @Test
+    void devolverLibro_DebeLanzarExcepcion_CuandoElIdNoEsValido() {
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> libroService.devolverLibro("lector@correo.es", "no-es-un-id"));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void cambiarEstadoLibro_DebeMarcarComoPrestadasLasReservasPendientes_CuandoPasaAPrestado() {
+        // Arrange
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Libro.class))).thenReturn(libro);
+
+        // Act
+        libroService.cambiarEstadoLibro("propietario@correo.es", libro.getId().toHexString(), cambioEstado("Prestado"));
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(Libro.class));
+        assertEquals(new Document("_id", libro.getId()).append("usuarioId", libro.getUsuarioId()),
+                query.getValue().getQueryObject());
+        Document cambios = update.getValue().getUpdateObject();
+        assertEquals("prestado", cambios.get("$set", Document.class).get("estado"));
+        assertTrue(cambios.get("$set", Document.class).containsKey("reservas.$[reserva].fechaPrestamo"));
+        assertEquals(1, cambios.get("$inc", Document.class).get("version"));
+        assertEquals(List.of(new Document("reserva.fechaPrestamo", null)), update.getValue().getArrayFilters()
+                .stream().map(Update.ArrayFilter::asDocument).toList());
+        verify(indiceTrigramas).actualizarLibro(libro);
+        verify(sugerenciasLibros).actualizarLibro(libro);
+        verify(catalogoLibros).sincronizarLibro(propietario, libro);
+    }
+
+    @Test
+    void cambiarEstadoLibro_DebeCerrarLasReservasAbiertas_CuandoPasaADisponible() {
+        // Arrange
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Libro.class))).thenReturn(libro);
+
+        // Act
+        libroService.cambiarEstadoLibro("propietario@correo.es", libro.getId().toHexString(),
+                cambioEstado("disponible"));
+
+        // Assert
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                eq(Libro.class));
+        assertTrue(update.getValue().getUpdateObject().get("$set", Document.class)
+                .containsKey("reservas.$[reserva].fechaDevolucion"));
+        assertEquals(List.of(new Document("reserva.fechaDevolucion", null)), update.getValue().getArrayFilters()
+                .stream().map(Update.ArrayFilter::asDocument).toList());
+    }
+
+    @Test
+    void cambiarEstadoLibro_NoDebeTocarLasReservas_CuandoPasaAReservado() {
+        // Arrange
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Libro.class))).thenReturn(libro);
+
+        // Act
+        libroService.cambiarEstadoLibro("propietario@correo.es", libro.getId().toHexString(),
+                cambioEstado("reservado"));
+
+        // Assert
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class),
+                eq(Libro.class));
+        assertEquals(new Document("estado", "reservado"), update.getValue().getUpdateObject().get("$set"));
+        assertTrue(update.getValue().getArrayFilters().isEmpty());
+    }
+
+    @Test
+    void cambiarEstadoLibro_DebeLanzarExcepcion_CuandoElEstadoNoEsValido() {
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> libroService.cambiarEstadoLibro("propietario@correo.es",
+                libro.getId().toHexString(), cambioEstado("perdido")));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void actualizarLibro_DebeEnviarSoloLosCamposEditables_YCambiarLaReferenciaDeLaPortada() {
+        // Arrange
+        Tematica novela = new Tematica(new ObjectId(), "Novela", null, null);
+        Libro anterior = new Libro();
+        anterior.setPortada("portada-antigua");
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(tematicaRepository.findByNombreIn(List.of("Novela"))).thenReturn(List.of(novela));
+        when(mongoTemplate.findOne(any(Query.class), eq(Libro.class))).thenReturn(anterior);
+        when(almacenImagenes.resolver("portada-nueva")).thenReturn("portada-nueva");
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(Libro.class))).thenReturn(libro);
+
+        // Act
+        libroService.actualizarLibro("propietario@correo.es", libro.getId().toHexString(),
+                libroRequest("portada-nueva", "Novela"));
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).findAndModify(query.capture(), update.capture(), any(FindAndModifyOptions.class),
+                eq(Libro.class));
+        assertEquals(new Document("_id", libro.getId()).append("usuarioId", libro.getUsuarioId()),
+                query.getValue().getQueryObject());
+        assertEquals(new Document("titulo", "Rayuela")
+                .append("autor", "Julio Cortázar")
+                .append("descripcion", "Novela")
+                .append("portada", "portada-nueva")
+                .append("tematicas", List.of(novela.getId())),
+                update.getValue().getUpdateObject().get("$set"));
+        assertEquals(1, update.getValue().getUpdateObject().get("$inc", Document.class).get("version"));
+        verify(almacenImagenes).liberar("portada-antigua");
+        verify(catalogoLibros).sincronizarLibro(propietario, libro);
+    }
+
+    @Test
+    void actualizarLibro_DebeLiberarLaPortadaNueva_CuandoElLibroNoEsDelUsuario() {
+        // Arrange
+        Libro anterior = new Libro();
+        anterior.setPortada("portada-antigua");
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(tematicaRepository.findByNombreIn(List.of())).thenReturn(List.of());
+        when(mongoTemplate.findOne(any(Query.class), eq(Libro.class))).thenReturn(anterior);
+        when(almacenImagenes.resolver("portada-nueva")).thenReturn("portada-nueva");
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> libroService.actualizarLibro("propietario@correo.es",
+                libro.getId().toHexString(), libroRequest("portada-nueva")));
+        verify(almacenImagenes).liberar("portada-nueva");
+        verify(almacenImagenes, never()).liberar("portada-antigua");
+        verifyNoInteractions(catalogoLibros);
+    }
+
+    @Test
+    void eliminarLibro_DebeEliminarElLibroDelUsuario_YRetirarloDeIndicesYCatalogo() {
+        // Arrange
+        libro.setPortada("portada");
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(Libro.class))).thenReturn(libro);
+
+        // Act
+        libroService.eliminarLibro("propietario@correo.es", libro.getId().toHexString());
+
+        // Assert
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndRemove(query.capture(), eq(Libro.class));
+        assertEquals(new Document("_id", libro.getId()).append("usuarioId", libro.getUsuarioId()),
+                query.getValue().getQueryObject());
+        assertEquals(new Document("portada", 1), query.getValue().getFieldsObject());
+        verify(almacenImagenes).liberar("portada");
+        verify(indiceTrigramas).eliminarLibro(libro.getId());
+        verify(sugerenciasLibros).eliminarLibro(libro.getId());
+        verify(catalogoLibros).eliminarLibro(libro.getId());
+    }
+
+    @Test
+    void eliminarLibro_DebeLanzarExcepcion_CuandoElLibroNoEsDelUsuario() {
+        // Arrange
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+
+        // Act & Assert
+        assertThrows(RuntimeException.class,
+                () -> libroService.eliminarLibro("propietario@correo.es", libro.getId().toHexString()));
+        verifyNoInteractions(almacenImagenes, indiceTrigramas, sugerenciasLibros, catalogoLibros);
+    }
+
+    @Test
+    void devolverLibro_DebeLanzarExcepcion_CuandoElUsuarioNoTieneReservaAbierta() {
+        // Act & Assert
+        assertThrows(RuntimeException.class,
+                () -> libroService.devolverLibro("lector@correo.es", libro.getId().toHexString()));
+        verifyNoInteractions(catalogoLibros);
+    }
+
+    @Test
+    void obtenerLibrosPrestados_DebeQuedarseConLosLibrosCuyaUltimaReservaEsDelUsuario() {
+        // Arrange
+        Date fechaReserva = new Date();
+        Document prestado = new Document("_id", libro.getId())
+                .append("usuarioId", libro.getUsuarioId())
+                .append("titulo", "Rayuela")
+                .append("estado", "prestado")
+                .append("ultimaReserva", new Document("emailUsuario", "lector@correo.es")
+                        .append("fechaReserva", fechaReserva));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Libro.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(prestado), new Document()));
+        when(mongoTemplate.find(any(Query.class), eq(Usuario.class))).thenReturn(List.of(propietario));
+
+        // Act
+        List<LibroPrestamoDTO> prestados = libroService.obtenerLibrosPrestados("lector@correo.es");
+
+        // Assert
+        ArgumentCaptor<Aggregation> agregacion = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(agregacion.capture(), eq(Libro.class), eq(Document.class));
+        List<Document> etapas = agregacion.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+        assertEquals(new Document("$match", new Document("reservas.emailUsuario", "lector@correo.es")
+                .append("estado", new Document("$in", List.of("prestado", "reservado")))), etapas.get(0));
+        assertEquals(new Document("$addFields", new Document("ultimaReserva",
+                new Document("$arrayElemAt", List.of("$reservas", -1)))), etapas.get(1));
+        assertEquals(new Document("$match", new Document("ultimaReserva.emailUsuario", "lector@correo.es")
+                .append("ultimaReserva.fechaDevolucion", null)), etapas.get(2));
+
+        ArgumentCaptor<Query> propietarios = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(propietarios.capture(), eq(Usuario.class));
+        assertEquals(new Document("_id", new Document("$in", List.of(libro.getUsuarioId()))),
+                propietarios.getValue().getQueryObject());
+        assertEquals(List.of(new LibroPrestamoDTO("Rayuela", null, null, null, "prestado",
+                "propietario@correo.es", fechaReserva, null, null)), prestados);
+    }
+
+    @Test
+    void obtenerLibrosPrestados_NoDebeLeerPropietarios_CuandoNoHayLibrosPrestados() {
+        // Arrange
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Libro.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+
+        // Act
+        List<LibroPrestamoDTO> prestados = libroService.obtenerLibrosPrestados("lector@correo.es");
+
+        // Assert
+        assertTrue(prestados.isEmpty());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Usuario.class));
+    }
+
+    @Test
+    void obtenerHistorial_DebeDevolverTodasLasReservas_CuandoElLibroEsDelUsuario() {
+        // Arrange
+        when(contextoUsuario.propietario("propietario@correo.es")).thenReturn(Optional.of(propietario));
+        when(mongoTemplate.exists(any(Query.class), eq(Libro.class))).thenReturn(true);
+
+        // Act
+        libroService.obtenerHistorial("propietario@correo.es", libro.getId().toHexString(), null, 10);
+
+        // Assert
+        verify(archivoReservas).historial(libro.getId(), null, null, 10);
+    }
+
+    @Test
+    void obtenerHistorial_DebeDevolverSoloLasReservasPropias_CuandoElLibroEsDeOtroUsuario() {
+        // Arrange
+        Usuario lector = new Usuario();
+        lector.setId(new ObjectId().toHexString());
+        lector.setEmail("lector@correo.es");
+        when(contextoUsuario.propietario("lector@correo.es")).thenReturn(Optional.of(lector));
+        when(mongoTemplate.exists(any(Query.class), eq(Libro.class))).thenReturn(false, true);
+
+        // Act
+        libroService.obtenerHistorial("lector@correo.es", libro.getId().toHexString(), "cursor", 10);
+
+        // Assert
+        verify(archivoReservas).historial(libro.getId(), "lector@correo.es", "cursor", 10);
+    }
+
+    @Test
+    void obtenerHistorial_DebeLanzarExcepcion_CuandoElLibroNoExiste() {
+        // Arrange
+        when(contextoUsuario.propietario("lector@correo.es")).thenReturn(Optional.of(propietario));
+        when(mongoTemplate.exists(any(Query.class), eq(Libro.class))).thenReturn(false);
+
+        // Act & Assert
+        assertThrows(RuntimeException.class,
+                () -> libroService.obtenerHistorial("lector@correo.es", libro.getId().toHexString(), null, 10));
+        verifyNoInteractions(archivoReservas);
+    }
+
+    private CambioEstadoRequest cambioEstado(String estado) {
+        CambioEstadoRequest request = new CambioEstadoRequest();
+        request.setNuevoEstado(estado);
+        return request;
+    }
+
+    private LibroRequestDTO libroRequest(String portada, String... tematicas) {
+        LibroRequestDTO request = new LibroRequestDTO();
+        request.setTitulo("Rayuela");
+        request.setAutor("Julio Cortázar");
+        request.setDescripcion("Novela");
+        request.setPortada(portada);
+        request.setTematicas(List.of(tematicas));
+        return request;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void ejecutarSinReintentos() {
+        when(reintentos.ejecutar(any())).thenAnswer(invocacion -> ((Supplier<Object>) invocacion.getArgument(0)).get());
+    }
+}
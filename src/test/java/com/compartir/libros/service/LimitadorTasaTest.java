@@ -0,0 +1,76 @@
+package com.compartir.libros.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LimitadorTasaTest {
+
+    @Test
+    void intentarAdquirir_DebePermitirUnaRafaga_HastaLaCapacidad() {
+        // Arrange
+        LimitadorTasa limitador = new LimitadorTasa(0.01, 3);
+
+        // Act & Assert
+        assertTrue(limitador.intentarAdquirir());
+        assertTrue(limitador.intentarAdquirir());
+        assertTrue(limitador.intentarAdquirir());
+        assertFalse(limitador.intentarAdquirir());
+    }
+
+    @Test
+    void adquirir_DebeEsperarALaRecarga_CuandoNoQuedanFichas() throws InterruptedException {
+        // Arrange
+        LimitadorTasa limitador = new LimitadorTasa(50, 1);
+        limitador.adquirir();
+        long inicio = System.nanoTime();
+
+        // Act
+        limitador.adquirir();
+
+        // Assert: a 50 fichas por segundo, la siguiente tarda unos 20 ms
+        assertTrue(System.nanoTime() - inicio >= 15_000_000L);
+    }
+
+    @Test
+    void adquirir_DebeEsperarATenerTodasLasFichas_CuandoSePidenVarias() throws InterruptedException {
+        // Arrange
+        LimitadorTasa limitador = new LimitadorTasa(50, 3);
+        limitador.adquirir(3);
+        long inicio = System.nanoTime();
+
+        // Act
+        limitador.adquirir(2);
+
+        // Assert: a 50 fichas por segundo, dos fichas tardan unos 40 ms
+        assertTrue(System.nanoTime() - inicio >= 35_000_000L);
+    }
+
+    @Test
+    void adquirir_DebeIrTomandoFichas_CuandoSePidenMasQueLaCapacidad() throws InterruptedException {
+        // Arrange
+        LimitadorTasa limitador = new LimitadorTasa(100, 2);
+        long inicio = System.nanoTime();
+
+        // Act
+        limitador.adquirir(6);
+
+        // Assert: las dos primeras salen de la ráfaga y las otras cuatro tardan unos 40 ms
+        assertTrue(System.nanoTime() - inicio >= 35_000_000L);
+    }
+
+    @Test
+    void adquirir_DebeLanzarExcepcion_CuandoNoSePideNingunaFicha() {
+        // Arrange
+        LimitadorTasa limitador = new LimitadorTasa(1, 3);
+
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> limitador.adquirir(0));
+    }
+
+    @Test
+    void constructor_DebeLanzarExcepcion_CuandoLaTasaNoEsPositiva() {
+        // Act & Assert
+        assertThrows(IllegalArgumentException.class, () -> new LimitadorTasa(0, 1));
+    }
+}
@@ -0,0 +1,118 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.model.Libro;
+import com.compartir.libros.model.Usuario;
+import com.compartir.libros.repository.LibroRepository;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MigracionLibrosTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private LibroRepository libroRepository;
+
+    @Mock
+    private IndiceTrigramasLibros indiceTrigramas;
+
+    @Mock
+    private SugerenciasLibros sugerenciasLibros;
+
+    @Mock
+    private CatalogoLibrosService catalogoLibros;
+
+    @Mock
+    private BulkOperations operaciones;
+
+    @InjectMocks
+    private MigracionLibros migracion;
+
+    private final ObjectId usuarioId = new ObjectId();
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(Usuario.class)).thenReturn("usuarios");
+        lenient().when(mongoTemplate.getCollectionName(Libro.class)).thenReturn("libros");
+        lenient().when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq("libros"))).thenReturn(operaciones);
+        lenient().when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq("usuarios")))
+            .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+    }
+
+    @Test
+    void asegurarMigrado_DebeCopiarLosLibrosYQuitarlosDelUsuario() {
+        // Arrange
+        ObjectId libroId = new ObjectId();
+        Document usuario = new Document("_id", usuarioId)
+            .append("libros", List.of(new Document("_id", libroId).append("titulo", "Rayuela")));
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("usuarios"))).thenReturn(usuario);
+
+        // Act
+        migracion.asegurarMigrado(usuarioId);
+
+        // Assert
+        ArgumentCaptor<Update> copia = ArgumentCaptor.forClass(Update.class);
+        verify(operaciones).upsert(any(Query.class), copia.capture());
+        Document insertado = copia.getValue().getUpdateObject().get("$setOnInsert", Document.class);
+        assertEquals(usuarioId, insertado.get("usuarioId"));
+        assertEquals("Rayuela", insertado.get("titulo"));
+        verify(operaciones).execute();
+
+        ArgumentCaptor<Update> quitar = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), quitar.capture(), eq("usuarios"));
+        assertTrue(quitar.getValue().getUpdateObject().containsKey("$unset"));
+    }
+
+    @Test
+    void asegurarMigrado_DebeAsignarIdentificador_CuandoUnLibroNoLoTiene() {
+        // Arrange
+        List<Document> libros = new ArrayList<>(List.of(new Document("titulo", "Rayuela")));
+        Document usuario = new Document("_id", usuarioId).append("libros", libros);
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("usuarios"))).thenReturn(usuario);
+
+        // Act
+        migracion.asegurarMigrado(usuarioId);
+
+        // Assert: primero se guardan los identificadores en el usuario y después se quitan los libros
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(any(Query.class), updates.capture(), eq("usuarios"));
+        List<?> conIdentificador = updates.getAllValues().get(0).getUpdateObject()
+            .get("$set", Document.class).get("libros", List.class);
+        assertNotNull(((Document) conIdentificador.get(0)).getObjectId("_id"));
+        verify(operaciones).upsert(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void asegurarMigrado_NoDebeConsultar_CuandoElUsuarioYaEstaMigrado() {
+        // Arrange
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("usuarios"))).thenReturn(null);
+
+        // Act
+        migracion.asegurarMigrado(usuarioId);
+
+        // Assert
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), anyString());
+        verifyNoInteractions(catalogoLibros);
+    }
+}
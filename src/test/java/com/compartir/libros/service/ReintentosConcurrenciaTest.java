@@ -0,0 +1,60 @@
+package com.compartir.libros.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReintentosConcurrenciaTest {
+
+    private final ReintentosConcurrencia reintentos = new ReintentosConcurrencia(3, 1, 2);
+
+    @Test
+    void ejecutar_DebeReintentar_CuandoHayConflictoConcurrente() {
+        // Arrange
+        AtomicInteger intentos = new AtomicInteger();
+
+        // Act
+        String resultado = reintentos.ejecutar(() -> {
+            if (intentos.incrementAndGet() < 3) {
+                throw new OptimisticLockingFailureException("conflicto");
+            }
+            return "ok";
+        });
+
+        // Assert
+        assertEquals("ok", resultado);
+        assertEquals(3, intentos.get());
+    }
+
+    @Test
+    void ejecutar_DebeFallar_CuandoSeAgotanLosIntentos() {
+        // Arrange
+        AtomicInteger intentos = new AtomicInteger();
+
+        // Act & Assert
+        assertThrows(RuntimeException.class, () -> reintentos.ejecutar(() -> {
+            intentos.incrementAndGet();
+            throw new OptimisticLockingFailureException("conflicto");
+        }));
+        assertEquals(3, intentos.get());
+    }
+
+    @Test
+    void ejecutar_NoDebeReintentar_CuandoElErrorNoEsDeConcurrencia() {
+        // Arrange
+        AtomicInteger intentos = new AtomicInteger();
+
+        // Act
+        RuntimeException excepcion = assertThrows(RuntimeException.class, () -> reintentos.ejecutar(() -> {
+            intentos.incrementAndGet();
+            throw new RuntimeException("El libro no está disponible para reservar");
+        }));
+
+        // Assert
+        assertEquals("El libro no está disponible para reservar", excepcion.getMessage());
+        assertEquals(1, intentos.get());
+    }
+}
@@ -0,0 +1,112 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.dto.libro.SugerenciaDTO;
+import com.compartir.libros.model.Libro;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class SugerenciasLibrosTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private SugerenciasLibros sugerenciasLibros;
+
+    private final ObjectId elAmor = new ObjectId();
+    private final ObjectId cienAnos = new ObjectId();
+    private final ObjectId otroCienAnos = new ObjectId();
+
+    @BeforeEach
+    void setUp() {
+        sugerenciasLibros.actualizarLibro(libro(elAmor, "El amor en los tiempos del cólera", "Gabriel García Márquez", 0));
+        sugerenciasLibros.actualizarLibro(libro(cienAnos, "Cien años de soledad", "Gabriel García Márquez", 0));
+        sugerenciasLibros.actualizarLibro(libro(otroCienAnos, "Cien años de soledad", "Gabriel García Márquez", 0));
+    }
+
+    @Test
+    void sugerir_DebeDevolverTitulosYAutoresPorPrefijoSinTildesNiMayusculas() {
+        // Act
+        List<SugerenciaDTO> resultado = sugerenciasLibros.sugerir("GABRIEL GARCIA", null);
+
+        // Assert
+        assertEquals(List.of(new SugerenciaDTO("Gabriel García Márquez", "autor")), resultado);
+    }
+
+    @Test
+    void sugerir_DebeRespetarElLimite() {
+        // Act
+        List<SugerenciaDTO> resultado = sugerenciasLibros.sugerir("c", 1);
+
+        // Assert
+        assertEquals(List.of(new SugerenciaDTO("Cien años de soledad", "titulo")), resultado);
+    }
+
+    @Test
+    void sugerir_DebeOrdenarPorNumeroDeLibros_YAIgualdadAlfabeticamente() {
+        // Arrange
+        sugerenciasLibros.actualizarLibro(libro(new ObjectId(), "El amor brujo", null, 0));
+        sugerenciasLibros.actualizarLibro(libro(new ObjectId(), "El túnel", null, 0));
+        sugerenciasLibros.actualizarLibro(libro(new ObjectId(), "El túnel", null, 0));
+        sugerenciasLibros.actualizarLibro(libro(new ObjectId(), "El túnel", null, 0));
+
+        // Act
+        List<SugerenciaDTO> resultado = sugerenciasLibros.sugerir("el", 2);
+
+        // Assert: "El amor brujo" y "El amor en los tiempos del cólera" empatan a un libro
+        assertEquals(List.of(
+            new SugerenciaDTO("El túnel", "titulo"),
+            new SugerenciaDTO("El amor brujo", "titulo")), resultado);
+    }
+
+    @Test
+    void sugerir_DebeDevolverListaVacia_CuandoElPrefijoEstaVacio() {
+        // Act & Assert
+        assertTrue(sugerenciasLibros.sugerir("  ", null).isEmpty());
+    }
+
+    @Test
+    void eliminarLibro_DebeMantenerTextosAportadosPorOtrosLibros() {
+        // Act
+        sugerenciasLibros.eliminarLibro(elAmor);
+        sugerenciasLibros.eliminarLibro(cienAnos);
+
+        // Assert
+        assertTrue(sugerenciasLibros.sugerir("el amor", null).isEmpty());
+        assertEquals(List.of(new SugerenciaDTO("Cien años de soledad", "titulo")),
+            sugerenciasLibros.sugerir("cien", null));
+    }
+
+    @Test
+    void actualizarLibro_NoDebeAplicarUnaVersionAnterior() {
+        // Arrange
+        sugerenciasLibros.actualizarLibro(libro(elAmor, "Rayuela", "Julio Cortázar", 2));
+
+        // Act: llega tarde la sincronización de un cambio anterior
+        sugerenciasLibros.actualizarLibro(libro(elAmor, "El amor en los tiempos del cólera", "Gabriel García Márquez", 1));
+
+        // Assert
+        assertTrue(sugerenciasLibros.sugerir("el amor", null).isEmpty());
+        assertEquals(List.of(new SugerenciaDTO("Rayuela", "titulo")), sugerenciasLibros.sugerir("ray", null));
+    }
+
+    private Libro libro(ObjectId id, String titulo, String autor, long version) {
+        Libro libro = new Libro();
+        libro.setId(id);
+        libro.setTitulo(titulo);
+        libro.setAutor(autor);
+        libro.setVersion(version);
+        return libro;
+    }
+}
@@ -0,0 +1,64 @@
+package com.compartir.libros.service;
+
+import com.compartir.libros.dto.email.CorreoMasivo;
+import com.compartir.libros.dto.email.ResultadoEnvio;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransporteCorreoSimuladoTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void enviar_DebeEscribirElCorreo_CuandoHayDirectorio() throws IOException {
+        // Arrange
+        TransporteCorreoSimulado transporte = new TransporteCorreoSimulado(0, 0, 0, directorio.toString());
+
+        // Act
+        boolean enviado = transporte.enviar("lector@ejemplo.com", "Asunto", "Cuerpo");
+
+        // Assert
+        assertTrue(enviado);
+        assertEquals(1, transporte.getEnviados());
+        try (var ficheros = Files.list(directorio)) {
+            String contenido = Files.readString(ficheros.findFirst().orElseThrow());
+            assertTrue(contenido.contains("To: lector@ejemplo.com"));
+            assertTrue(contenido.contains("Subject: Asunto"));
+        }
+    }
+
+    @Test
+    void enviar_DebeLanzarExcepcion_CuandoElFalloEsSeguro() throws IOException {
+        // Arrange
+        TransporteCorreoSimulado transporte = new TransporteCorreoSimulado(0, 0, 1, "");
+
+        // Act & Assert
+        assertThrows(IOException.class, () -> transporte.enviar("lector@ejemplo.com", "Asunto", "Cuerpo"));
+        assertEquals(1, transporte.getFallidos());
+    }
+
+    @Test
+    void enviarLote_DebeInformarDeCadaCorreo() throws IOException {
+        // Arrange
+        TransporteCorreoSimulado transporte = new TransporteCorreoSimulado(0, 0, 0, "");
+        List<CorreoMasivo> correos = List.of(
+            new CorreoMasivo("uno@ejemplo.com", "Asunto", "Cuerpo"),
+            new CorreoMasivo("dos@ejemplo.com", "Asunto", "Cuerpo"));
+
+        // Act
+        List<ResultadoEnvio> resultados = transporte.enviarLote(correos);
+
+        // Assert
+        assertEquals(2, resultados.size());
+        assertEquals("uno@ejemplo.com", resultados.get(0).destinatario());
+        assertTrue(resultados.stream().allMatch(ResultadoEnvio::enviado));
+    }
+}
@@ -0,0 +1,110 @@
+package com.compartir.libros.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsOperations;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class VariantesImagenesTest {
+
+    @Mock
+    private GridFsOperations gridFs;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private VariantesImagenes variantes;
+
+    private final ObjectId original = new ObjectId();
+
+    @Test
+    void generar_DebeGuardarLasVariantesReducidasYMarcarElOriginal() throws Exception {
+        // Arrange
+        prepararOriginal(imagen(1200, 600, "jpg"));
+
+        // Act
+        variantes.generar(original);
+
+        // Assert
+        ArgumentCaptor<InputStream> contenidos = ArgumentCaptor.forClass(InputStream.class);
+        ArgumentCaptor<Document> metadatos = ArgumentCaptor.forClass(Document.class);
+        verify(gridFs, times(2)).store(contenidos.capture(), anyString(), eq("image/jpeg"), metadatos.capture());
+
+        Map<String, BufferedImage> guardadas = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            assertEquals(original, metadatos.getAllValues().get(i).get("original"));
+            guardadas.put(metadatos.getAllValues().get(i).getString("variante"),
+                ImageIO.read(contenidos.getAllValues().get(i)));
+        }
+        assertEquals(150, guardadas.get(VariantesImagenes.MINIATURA).getWidth());
+        assertEquals(75, guardadas.get(VariantesImagenes.MINIATURA).getHeight());
+        assertEquals(600, guardadas.get(VariantesImagenes.MEDIANA).getWidth());
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(VariantesImagenes.COLECCION_ARCHIVOS));
+    }
+
+    @Test
+    void generar_NoDebeGuardarVariantesMayoresQueElOriginal() throws Exception {
+        // Arrange
+        prepararOriginal(imagen(100, 80, "png"));
+
+        // Act
+        variantes.generar(original);
+
+        // Assert
+        verify(gridFs, never()).store(any(InputStream.class), anyString(), anyString(), any(Document.class));
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(VariantesImagenes.COLECCION_ARCHIVOS));
+    }
+
+    @Test
+    void generar_DebeMarcarElOriginalAunqueNoSeaUnaImagenReconocida() throws Exception {
+        // Arrange
+        prepararOriginal("no es una imagen".getBytes());
+
+        // Act
+        variantes.generar(original);
+
+        // Assert
+        verify(gridFs, never()).store(any(InputStream.class), anyString(), anyString(), any(Document.class));
+        verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq(VariantesImagenes.COLECCION_ARCHIVOS));
+    }
+
+    private void prepararOriginal(byte[] contenido) {
+        GridFSFile archivo = new GridFSFile(new BsonObjectId(original), "imagen", contenido.length, 255 * 1024,
+            new Date(), new Document());
+        when(gridFs.findOne(any(Query.class))).thenReturn(archivo, (GridFSFile) null);
+        when(gridFs.getResource(archivo)).thenReturn(new GridFsResource(archivo, new ByteArrayInputStream(contenido)));
+    }
+
+    private byte[] imagen(int ancho, int alto, String formato) throws Exception {
+        BufferedImage imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        ImageIO.write(imagen, formato, salida);
+        return salida.toByteArray();
+    }
+}